@@ -25,6 +25,7 @@ import com.jme3.renderer.queue.RenderQueue.Bucket;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.jme3.tmx.core.TiledMap;
+import com.jme3.tmx.math2d.Point;
 import com.jme3.tmx.render.HexagonalRenderer;
 import com.jme3.tmx.render.IsometricRenderer;
 import com.jme3.tmx.render.MapRenderer;
@@ -81,6 +82,13 @@ public class TiledMapAppState extends BaseAppState implements AnalogListener,
 	 */
 	private boolean isMapUpdated = true;
 
+	/**
+	 * Tiles around the screen that stay attached when the map is rendered in
+	 * chunks.
+	 */
+	private int cullMargin = 1;
+	private final Point corner = new Point();
+
 	/**
 	 * Default constructor
 	 */
@@ -190,11 +198,76 @@ public class TiledMapAppState extends BaseAppState implements AnalogListener,
 				
 				isMapUpdated = false;
 			}
+
+			if (mapRenderer.getChunkSize() > 0) {
+				cullChunks(spatial);
+			}
 		}
 			
 
 	}
 
+	/**
+	 * Find the tiles on the screen and let the MapRenderer detach the chunks
+	 * out of them.
+	 * 
+	 * @param spatial
+	 *            the visual part of the map
+	 */
+	private void cullChunks(Spatial spatial) {
+		Vector3f loc = spatial.getLocalTranslation();
+		float scale = spatial.getLocalScale().x;
+
+		// the rootNode is rotated to XOY plane and moved to the top of the
+		// screen, so the screen is [0, width] x [0, height] on the XOZ plane
+		// of the map, before the map is moved and scaled.
+		float x0 = -loc.x / scale;
+		float x1 = (screenDimension.x - loc.x) / scale;
+		float y0 = -loc.z / scale;
+		float y1 = (screenDimension.y - loc.z) / scale;
+
+		// the view is not a rectangle in tile space for isometric maps, take
+		// the bounds of the four corners.
+		Point p = mapRenderer.screenToTileCoords(x0, y0, corner);
+		int minX = p.x, maxX = p.x, minY = p.y, maxY = p.y;
+
+		p = mapRenderer.screenToTileCoords(x1, y0, corner);
+		minX = Math.min(minX, p.x);
+		maxX = Math.max(maxX, p.x);
+		minY = Math.min(minY, p.y);
+		maxY = Math.max(maxY, p.y);
+
+		p = mapRenderer.screenToTileCoords(x0, y1, corner);
+		minX = Math.min(minX, p.x);
+		maxX = Math.max(maxX, p.x);
+		minY = Math.min(minY, p.y);
+		maxY = Math.max(maxY, p.y);
+
+		p = mapRenderer.screenToTileCoords(x1, y1, corner);
+		minX = Math.min(minX, p.x);
+		maxX = Math.max(maxX, p.x);
+		minY = Math.min(minY, p.y);
+		maxY = Math.max(maxY, p.y);
+
+		mapRenderer.setViewRect(minX - cullMargin, minY - cullMargin, maxX + cullMargin, maxY + cullMargin);
+	}
+
+	/**
+	 * Set the number of tiles around the screen that stay attached when the
+	 * map is rendered in chunks. Tall tiles and objects may need a larger
+	 * margin.
+	 * 
+	 * @param cullMargin
+	 *            margin in tiles
+	 */
+	public void setCullMargin(int cullMargin) {
+		this.cullMargin = cullMargin;
+	}
+
+	public int getCullMargin() {
+		return cullMargin;
+	}
+
 	/**
 	 * Set map. It will instance a new MapRenderer and create visual parts for
 	 * this map.
@@ -0,0 +1,198 @@
+package com.jme3.tmx;
+
+import com.jme3.asset.AssetKey;
+import com.jme3.tmx.core.TiledMap;
+
+/**
+ * The AssetKey for .tmx files. It carries the options used by
+ * {@link TmxLoader} when loading a map. A plain AssetKey loads the map with
+ * the default options.
+ *
+ * <pre>
+ * TmxKey key = new TmxKey("Models/Examples/Desert/desert.tmx");
+ * key.setStreaming(true);
+ * TiledMap map = assetManager.loadAsset(key);
+ * </pre>
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class TmxKey extends AssetKey<TiledMap> {
+
+	/**
+	 * Read the map with a StAX pull parser instead of building the whole DOM
+	 * tree first.
+	 */
+	private boolean streaming = false;
+
+	/**
+	 * Number of threads used to decode the layer data.
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Keep only the gids in the tile layers.
+	 */
+	private boolean flyweight = false;
+
+	/**
+	 * Size of the atlas pages the tilesets are packed into, 0 to keep the
+	 * images of the tilesets.
+	 */
+	private int atlasSize = 0;
+
+	/**
+	 * Put the images of collection tilesets into TextureArrays.
+	 */
+	private boolean textureArray = false;
+
+	public TmxKey(String name) {
+		super(name);
+	}
+
+	public TmxKey() {
+		super();
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * When streaming is enabled, the loader reads the top level elements of
+	 * the map (&lt;tileset&gt;, &lt;layer&gt;, &lt;objectgroup&gt; and
+	 * &lt;imagelayer&gt;) one after another as they come from the stream. Only
+	 * one of them is kept in memory at a time, so the peak heap is about the
+	 * size of the largest element instead of the whole file.
+	 *
+	 * @param streaming
+	 *            true to use the StAX parser
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set the number of threads used to decode and inflate the data of the
+	 * tile layers. The layers are still added to the map in the order of the
+	 * file. With 1 (the default) every layer is decoded by the loading
+	 * thread.
+	 *
+	 * @param parallelism
+	 *            number of threads, or 0 to use one thread for each available
+	 *            processor.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 0) {
+			throw new IllegalArgumentException("parallelism must not be negative: " + parallelism);
+		}
+		if (parallelism == 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		this.parallelism = parallelism;
+	}
+
+	public boolean isFlyweight() {
+		return flyweight;
+	}
+
+	/**
+	 * When flyweight is enabled, the tile layers keep only the global tile id
+	 * of each cell instead of a cloned Tile. The cells with the same gid share
+	 * one Tile, see {@link com.jme3.tmx.core.TileLayer#isFlyweight()}.
+	 *
+	 * @param flyweight
+	 *            true to keep only the gids
+	 */
+	public void setFlyweight(boolean flyweight) {
+		this.flyweight = flyweight;
+	}
+
+	public int getAtlasSize() {
+		return atlasSize;
+	}
+
+	/**
+	 * When the atlas size is set, the loader packs the tiles of all the
+	 * tilesets into one or a few atlas images of that size, so the tiles of
+	 * the map share one material. Each tile gets a border of extruded edge
+	 * pixels against texture bleeding. See
+	 * {@link com.jme3.tmx.util.TextureAtlasBuilder}.
+	 * 
+	 * @param atlasSize
+	 *            width and max height of an atlas page in pixels, e.g. 2048,
+	 *            or 0 to keep the images of the tilesets.
+	 */
+	public void setAtlasSize(int atlasSize) {
+		if (atlasSize < 0) {
+			throw new IllegalArgumentException("atlasSize must not be negative: " + atlasSize);
+		}
+		this.atlasSize = atlasSize;
+	}
+
+	public boolean isTextureArray() {
+		return textureArray;
+	}
+
+	/**
+	 * When textureArray is enabled, the tiles of an image collection tileset
+	 * whose images have the same size share one TextureArray and one
+	 * Material, so they can be merged into one batch. See
+	 * {@link com.jme3.tmx.util.TextureArrayBuilder}. The GPU must support
+	 * GL_EXT_texture_array.
+	 * 
+	 * @param textureArray
+	 *            true to use TextureArrays
+	 */
+	public void setTextureArray(boolean textureArray) {
+		this.textureArray = textureArray;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof TmxKey)) {
+			return false;
+		}
+		TmxKey that = (TmxKey) other;
+		return super.equals(other) && streaming == that.streaming
+				&& parallelism == that.parallelism && flyweight == that.flyweight
+				&& atlasSize == that.atlasSize && textureArray == that.textureArray;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 7;
+		hash = 37 * hash + super.hashCode();
+		hash = 37 * hash + (streaming ? 1 : 0);
+		hash = 37 * hash + parallelism;
+		hash = 37 * hash + (flyweight ? 1 : 0);
+		hash = 37 * hash + atlasSize;
+		hash = 37 * hash + (textureArray ? 1 : 0);
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(name);
+		if (streaming) {
+			sb.append(" (Streaming)");
+		}
+		if (parallelism > 1) {
+			sb.append(" (Parallelism ").append(parallelism).append(")");
+		}
+		if (flyweight) {
+			sb.append(" (Flyweight)");
+		}
+		if (atlasSize > 0) {
+			sb.append(" (Atlas ").append(atlasSize).append(")");
+		}
+		if (textureArray) {
+			sb.append(" (TextureArray)");
+		}
+		return sb.toString();
+	}
+}
@@ -8,17 +8,24 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.StringTokenizer;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -41,7 +48,6 @@ import com.jme3.texture.Texture.WrapMode;
 import com.jme3.texture.Image;
 import com.jme3.texture.Texture;
 import com.jme3.texture.Texture2D;
-import com.jme3.tmx.animation.AnimatedTileControl;
 import com.jme3.tmx.animation.Animation;
 import com.jme3.tmx.animation.Frame;
 import com.jme3.tmx.core.ImageLayer;
@@ -52,12 +58,16 @@ import com.jme3.tmx.core.ObjectNode.ObjectType;
 import com.jme3.tmx.core.Terrain;
 import com.jme3.tmx.core.Tile;
 import com.jme3.tmx.core.TileLayer;
+import com.jme3.tmx.core.TileProperties;
 import com.jme3.tmx.core.TiledMap;
 import com.jme3.tmx.core.TiledMap.Orientation;
 import com.jme3.tmx.core.TiledMap.RenderOrder;
 import com.jme3.tmx.core.Tileset;
 import com.jme3.tmx.util.Base64;
 import com.jme3.tmx.util.ColorUtil;
+import com.jme3.tmx.util.LayerDataDecoder;
+import com.jme3.tmx.util.TextureArrayBuilder;
+import com.jme3.tmx.util.TextureAtlasBuilder;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -77,6 +87,53 @@ public class TmxLoader implements AssetLoader {
 
 	private TiledMap map;
 
+	/**
+	 * Read the map with StAX instead of DOM, see {@link TmxKey#setStreaming(boolean)}
+	 */
+	private boolean streaming = false;
+
+	/**
+	 * Decode the base64 and csv layer data. The decoder and the gid buffer are reused
+	 * by every layer this loader reads.
+	 */
+	private final LayerDataDecoder decoder = new LayerDataDecoder();
+	private int[] gidBuffer = new int[0];
+
+	/**
+	 * Number of threads to decode layers, see
+	 * {@link TmxKey#setParallelism(int)}
+	 */
+	private int parallelism = 1;
+	private ForkJoinPool pool;
+	private List<ForkJoinTask<IOException>> pendingLayers = new ArrayList<ForkJoinTask<IOException>>();
+
+	/**
+	 * Keep only the gids in tile layers, see {@link TmxKey#setFlyweight(boolean)}
+	 */
+	private boolean flyweight = false;
+
+	/**
+	 * Pack the tilesets into an atlas, see {@link TmxKey#setAtlasSize(int)}
+	 */
+	private int atlasSize = 0;
+	private boolean isPacked = false;
+
+	/**
+	 * Put the images of collection tilesets into TextureArrays, see
+	 * {@link TmxKey#setTextureArray(boolean)}
+	 */
+	private boolean textureArray = false;
+
+	/**
+	 * Decoders used by the threads of the pool.
+	 */
+	private final static ThreadLocal<LayerDataDecoder> poolDecoders = new ThreadLocal<LayerDataDecoder>() {
+		@Override
+		protected LayerDataDecoder initialValue() {
+			return new LayerDataDecoder();
+		}
+	};
+
 	@Override
 	public Object load(AssetInfo assetInfo) throws IOException {
 		key = assetInfo.getKey();
@@ -86,7 +143,26 @@ public class TmxLoader implements AssetLoader {
 
 		switch (extension) {
 		case "tmx":
-			return loadMap(assetInfo.openStream());
+			if (key instanceof TmxKey) {
+				streaming = ((TmxKey) key).isStreaming();
+				parallelism = ((TmxKey) key).getParallelism();
+				flyweight = ((TmxKey) key).isFlyweight();
+				atlasSize = ((TmxKey) key).getAtlasSize();
+				textureArray = ((TmxKey) key).isTextureArray();
+			} else {
+				streaming = false;
+				parallelism = 1;
+				flyweight = false;
+				atlasSize = 0;
+				textureArray = false;
+			}
+			isPacked = atlasSize == 0;
+
+			if (streaming) {
+				return loadMapStreaming(assetInfo.openStream());
+			} else {
+				return loadMap(assetInfo.openStream());
+			}
 		case "tsx":
 			return loadTileSet(assetInfo.openStream());
 		default:
@@ -103,6 +179,8 @@ public class TmxLoader implements AssetLoader {
 	 * @throws IOException
 	 */
 	private TiledMap loadMap(InputStream inputStream) throws IOException {
+		map = null;
+
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		Document doc;
 		try {
@@ -136,9 +214,64 @@ public class TmxLoader implements AssetLoader {
 		}
 
 		try {
+			startPool();
 			readMap(doc);
+			finishLayers();
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			shutdownPool();
+		}
+
+		return map;
+	}
+
+	/**
+	 * Load a Map from .tmx file with a StAX parser. The children of the
+	 * &lt;map&gt; element are read one by one, each of them is turned into a
+	 * small DOM tree and handed to the same methods used by
+	 * {@link #loadMap(InputStream)}. So the result is the same, but only one
+	 * tileset or layer stays in memory at a time.
+	 * 
+	 * @param inputStream
+	 * @return
+	 * @throws IOException
+	 */
+	private TiledMap loadMapStreaming(InputStream inputStream) throws IOException {
+		map = null;
+
+		XMLStreamReader reader = null;
+		try {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			// the dtd is only used for validation, don't bother to resolve it.
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+			reader = factory.createXMLStreamReader(inputStream, "UTF-8");
+			Document doc = DocumentBuilderFactory.newInstance()
+					.newDocumentBuilder().newDocument();
+
+			startPool();
+			readMap(reader, doc);
+			finishLayers();
+		} catch (XMLStreamException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Error while parsing map file: "
+					+ e.toString());
+		} catch (ParserConfigurationException e) {
+			e.printStackTrace();
+			return null;
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			shutdownPool();
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					logger.log(Level.WARNING, "Failed to close the xml reader", e);
+				}
+			}
 		}
 
 		return map;
@@ -241,22 +374,124 @@ public class TmxLoader implements AssetLoader {
 		}
 
 		// Get the map dimensions and create the map
-		int mapWidth = getAttribute(mapNode, "width", 0);
-		int mapHeight = getAttribute(mapNode, "height", 0);
+		readDimensions(mapNode);
 
-		if (mapWidth > 0 && mapHeight > 0) {
-			map = new TiledMap(mapWidth, mapHeight);
-		} else {
+		if (map == null) {
 			// Maybe this map is still using the dimensions element
 			NodeList l = doc.getElementsByTagName("dimensions");
 			for (int i = 0; (item = l.item(i)) != null; i++) {
 				if (item.getParentNode() == mapNode) {
-					mapWidth = getAttribute(item, "width", 0);
-					mapHeight = getAttribute(item, "height", 0);
+					readDimensions(item);
+				}
+			}
+		}
 
-					if (mapWidth > 0 && mapHeight > 0) {
-						map = new TiledMap(mapWidth, mapHeight);
-					}
+		if (map == null) {
+			logger.warning("Couldn't locate map dimensions.");
+			throw new RuntimeException("Couldn't locate map dimensions.");
+		}
+
+		readMapAttributes(mapNode);
+
+		// Load properties
+		Properties props = readProperties(mapNode.getChildNodes());
+		map.setProperties(props);
+
+		NodeList l = doc.getElementsByTagName("tileset");
+		for (int i = 0; (item = l.item(i)) != null; i++) {
+			Tileset set = readTileset(item);
+			/**
+			 * update the visual part of tileset
+			 */
+			if (isPacked) {
+				createVisual(set);
+			}
+			map.addTileset(set);
+		}
+		packTilesets();
+		
+		// Load the layers and objectgroups
+		for (Node sibs = mapNode.getFirstChild(); sibs != null; sibs = sibs
+				.getNextSibling()) {
+			Layer layer = readLayer(sibs);
+			if (layer != null) {
+				map.addLayer(layer);
+			}
+		}
+	}
+
+	/**
+	 * Read the map from a StAX reader.
+	 * 
+	 * @param reader
+	 * @param doc
+	 *            the document used to create the node of each element.
+	 * @throws Exception
+	 */
+	private void readMap(XMLStreamReader reader, Document doc) throws Exception {
+		while (reader.hasNext() && !reader.isStartElement()) {
+			reader.next();
+		}
+
+		if (!reader.isStartElement() || !"map".equals(reader.getLocalName())) {
+			throw new Exception("Not a valid tmx map file.");
+		}
+
+		// only the attributes of the map, its children come later.
+		Element mapNode = createElement(reader, doc);
+		readDimensions(mapNode);
+		if (map != null) {
+			readMapAttributes(mapNode);
+		}
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				// </map>
+				break;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+
+			Node child = readElement(reader, doc);
+			String nodeName = child.getNodeName();
+
+			if (map == null) {
+				// Maybe this map is still using the dimensions element
+				if ("dimensions".equals(nodeName)) {
+					readDimensions(child);
+				}
+
+				if (map == null) {
+					logger.warning("Couldn't locate map dimensions.");
+					throw new RuntimeException("Couldn't locate map dimensions.");
+				}
+
+				readMapAttributes(mapNode);
+				continue;
+			}
+
+			if ("properties".equals(nodeName)) {
+				Properties props = new Properties();
+				readProperty(child, props);
+				map.setProperties(props);
+			} else if ("tileset".equals(nodeName)) {
+				// don't change the tilesets while layers are being decoded.
+				finishLayers();
+
+				Tileset set = readTileset(child);
+				if (isPacked) {
+					createVisual(set);
+				}
+				map.addTileset(set);
+			} else {
+				// the tiles are cloned by the layers, pack them before.
+				packTilesets();
+
+				Layer layer = readLayer(child);
+				if (layer != null) {
+					map.addLayer(layer);
 				}
 			}
 		}
@@ -265,8 +500,124 @@ public class TmxLoader implements AssetLoader {
 			logger.warning("Couldn't locate map dimensions.");
 			throw new RuntimeException("Couldn't locate map dimensions.");
 		}
+		packTilesets();
+	}
+
+	/**
+	 * Pack the tilesets read so far into an atlas, then create the visual
+	 * part of their tiles. It's done only once, the tilesets after it keep
+	 * their own images.
+	 */
+	private void packTilesets() {
+		if (isPacked) {
+			return;
+		}
+		isPacked = true;
+
+		List<Tileset> tilesets = map.getTileSets();
+
+		// the tilesets of .tsx files are cached by the assetManager and
+		// shared with other maps, don't move their tiles.
+		List<Tileset> embedded = new ArrayList<Tileset>();
+		for (int i = 0; i < tilesets.size(); i++) {
+			if (tilesets.get(i).getSource() == null) {
+				embedded.add(tilesets.get(i));
+			}
+		}
+
+		TextureAtlasBuilder builder = new TextureAtlasBuilder(assetManager, atlasSize);
+		List<Texture2D> pages = builder.pack(embedded);
+		logger.info("Packed " + embedded.size() + " tilesets into " + pages.size() + " atlas pages");
+
+		for (int i = 0; i < tilesets.size(); i++) {
+			createVisual(tilesets.get(i));
+		}
+	}
+
+	/**
+	 * Read the element at the current position of the reader, with all its
+	 * children. When it returns, the reader stays at the END_ELEMENT of it.
+	 * 
+	 * @param reader
+	 * @param doc
+	 * @return the element
+	 * @throws XMLStreamException
+	 */
+	private static Element readElement(XMLStreamReader reader, Document doc)
+			throws XMLStreamException {
+		Element root = createElement(reader, doc);
+		Node current = root;
+
+		while (current != null && reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT: {
+				Element element = createElement(reader, doc);
+				current.appendChild(element);
+				current = element;
+				break;
+			}
+			case XMLStreamConstants.END_ELEMENT: {
+				current = current == root ? null : current.getParentNode();
+				break;
+			}
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE: {
+				// keep the text of an element in one node, as DOM does.
+				Node last = current.getLastChild();
+				if (last instanceof Text) {
+					((Text) last).appendData(reader.getText());
+				} else {
+					current.appendChild(doc.createTextNode(reader.getText()));
+				}
+				break;
+			}
+			}
+		}
+
+		return root;
+	}
+
+	/**
+	 * Create an element with the name and attributes at the current position
+	 * of the reader.
+	 * 
+	 * @param reader
+	 * @param doc
+	 * @return the element without children
+	 */
+	private static Element createElement(XMLStreamReader reader, Document doc) {
+		Element element = doc.createElement(reader.getLocalName());
+		int count = reader.getAttributeCount();
+		for (int i = 0; i < count; i++) {
+			element.setAttribute(reader.getAttributeLocalName(i),
+					reader.getAttributeValue(i));
+		}
+		return element;
+	}
+
+	/**
+	 * Create the map with the width and height of the given node. The node is
+	 * the &lt;map&gt; element, or the &lt;dimensions&gt; element used by old
+	 * maps.
+	 * 
+	 * @param node
+	 */
+	private void readDimensions(Node node) {
+		int mapWidth = getAttribute(node, "width", 0);
+		int mapHeight = getAttribute(node, "height", 0);
 
-		// Load other map attributes
+		if (mapWidth > 0 && mapHeight > 0) {
+			map = new TiledMap(mapWidth, mapHeight);
+		}
+	}
+
+	/**
+	 * Load other map attributes
+	 * 
+	 * @param mapNode
+	 */
+	private void readMapAttributes(Node mapNode) {
 		String orientation = getAttributeValue(mapNode, "orientation");
 		String renderorder = getAttributeValue(mapNode, "renderorder");
 		int tileWidth = getAttribute(mapNode, "tilewidth", 0);
@@ -311,41 +662,26 @@ public class TmxLoader implements AssetLoader {
 			backgroundColor = ColorUtil.toColorRGBA(bgStr);
 			map.setBackgroundColor(backgroundColor);
 		}
+	}
 
-		// Load properties
-		Properties props = readProperties(mapNode.getChildNodes());
-		map.setProperties(props);
-
-		NodeList l = doc.getElementsByTagName("tileset");
-		for (int i = 0; (item = l.item(i)) != null; i++) {
-			Tileset set = readTileset(item);
-			/**
-			 * update the visual part of tileset
-			 */
-			createVisual(set);
-			map.addTileset(set);
-		}
-		
-		// Load the layers and objectgroups
-		for (Node sibs = mapNode.getFirstChild(); sibs != null; sibs = sibs
-				.getNextSibling()) {
-			if ("layer".equals(sibs.getNodeName())) {
-				Layer layer = readTileLayer(sibs);
-				if (layer != null) {
-					map.addLayer(layer);
-				}
-			} else if ("objectgroup".equals(sibs.getNodeName())) {
-				Layer layer = readObjectLayer(sibs);
-				if (layer != null) {
-					map.addLayer(layer);
-				}
-			} else if ("imagelayer".equals(sibs.getNodeName())) {
-				Layer layer = readImageLayer(sibs);
-				if (layer != null) {
-					map.addLayer(layer);
-				}
-			}
+	/**
+	 * Read a layer from a &lt;layer&gt;, &lt;objectgroup&gt; or
+	 * &lt;imagelayer&gt; element.
+	 * 
+	 * @param node
+	 * @return the layer, or null if the node is not a layer.
+	 * @throws Exception
+	 */
+	private Layer readLayer(Node node) throws Exception {
+		String nodeName = node.getNodeName();
+		if ("layer".equals(nodeName)) {
+			return readTileLayer(node);
+		} else if ("objectgroup".equals(nodeName)) {
+			return readObjectLayer(node);
+		} else if ("imagelayer".equals(nodeName)) {
+			return readImageLayer(node);
 		}
+		return null;
 	}
 
 	/**
@@ -458,6 +794,13 @@ public class TmxLoader implements AssetLoader {
 		 */
 		boolean hasSharedImage = texture != null;
 
+		if (!hasSharedImage && textureArray) {
+			int count = new TextureArrayBuilder(assetManager).build(tileset);
+			if (count > 0) {
+				logger.info(count + " tiles of " + tileset.getName() + " are put into TextureArrays");
+			}
+		}
+
 		if (hasSharedImage) {
 			image = texture.getImage();
 			sharedMat = tileset.getMaterial();
@@ -561,6 +904,11 @@ public class TmxLoader implements AssetLoader {
 			mesh.setBuffer(Type.TexCoord, 2, texCoord);
 			mesh.setBuffer(Type.Normal, 3, normals);
 			mesh.setBuffer(Type.Index, 3, indexes);
+			if (tile.getTextureLayer() >= 0) {
+				// the layer in the TextureArray
+				float layer = tile.getTextureLayer();
+				mesh.setBuffer(Type.TexCoord3, 1, new float[] { layer, layer, layer, layer });
+			}
 			mesh.updateBound();
 			mesh.setStatic();
 
@@ -574,10 +922,8 @@ public class TmxLoader implements AssetLoader {
 			}
 
 			if (tile.isAnimated()) {
+				// the texCoords are changed by the TileAnimator of the map
 				geometry.setBatchHint(BatchHint.Never);
-
-				AnimatedTileControl control = new AnimatedTileControl(tile);
-				geometry.addControl(control);
 			}
 			
 			tile.setVisual(geometry);
@@ -783,7 +1129,7 @@ public class TmxLoader implements AssetLoader {
 		final int layerWidth = getAttribute(t, "width", map.getWidth());
 		final int layerHeight = getAttribute(t, "height", map.getHeight());
 
-		TileLayer layer = new TileLayer(layerWidth, layerHeight);
+		TileLayer layer = new TileLayer(layerWidth, layerHeight, flyweight);
 
 		readLayerBase(t, layer);
 
@@ -797,37 +1143,16 @@ public class TmxLoader implements AssetLoader {
 				if ("base64".equalsIgnoreCase(encoding)) {
 					Node cdata = child.getFirstChild();
 					if (cdata != null) {
-						char[] enc = cdata.getNodeValue().trim().toCharArray();
-						byte[] dec = Base64.decode(enc);
-
-						InputStream is;
-						if ("gzip".equalsIgnoreCase(comp)) {
-							final int len = layerWidth * layerHeight * 4;
-							is = new GZIPInputStream(new ByteArrayInputStream(
-									dec), len);
-						} else if ("zlib".equalsIgnoreCase(comp)) {
-							is = new InflaterInputStream(
-									new ByteArrayInputStream(dec));
-						} else if (comp != null && !comp.isEmpty()) {
+						if (comp != null && !comp.isEmpty()
+								&& !"gzip".equalsIgnoreCase(comp)
+								&& !"zlib".equalsIgnoreCase(comp)) {
 							throw new IOException(
 									"Unrecognized compression method \"" + comp
 											+ "\" for map layer "
 											+ layer.getName());
-						} else {
-							is = new ByteArrayInputStream(dec);
 						}
 
-						for (int y = 0; y < layer.getHeight(); y++) {
-							for (int x = 0; x < layer.getWidth(); x++) {
-								int tileId = 0;
-								tileId |= is.read();
-								tileId |= is.read() << 8;
-								tileId |= is.read() << 16;
-								tileId |= is.read() << 24;
-
-								map.setTileAtFromTileId(layer, y, x, tileId);
-							}
-						}
+						readLayerData(layer, cdata.getNodeValue(), comp, false);
 					}
 				} else if ("csv".equalsIgnoreCase(encoding)) {
 					String csvText = child.getTextContent();
@@ -839,28 +1164,7 @@ public class TmxLoader implements AssetLoader {
 										+ " and encoding " + encoding);
 					}
 
-					/*
-					 * trim 'space', 'tab', 'newline'. pay attention to
-					 * additional unicode chars like \u2028, \u2029, \u0085 if
-					 * necessary
-					 */
-					String[] csvTileIds = csvText.trim().split("[\\s]*,[\\s]*");
-
-					if (csvTileIds.length != layer.getHeight()
-							* layer.getWidth()) {
-						throw new IOException(
-								"Number of tiles does not match the layer's width and height");
-					}
-
-					for (int y = 0; y < layer.getHeight(); y++) {
-						for (int x = 0; x < layer.getWidth(); x++) {
-							String sTileId = csvTileIds[x + y
-									* layer.getWidth()];
-							int tileId = Integer.parseInt(sTileId);
-
-							map.setTileAtFromTileId(layer, y, x, tileId);
-						}
-					}
+					readLayerData(layer, csvText, null, true);
 				} else {
 					int x = 0, y = 0;
 					for (Node dataChild = child.getFirstChild(); dataChild != null; dataChild = dataChild
@@ -888,7 +1192,9 @@ public class TmxLoader implements AssetLoader {
 						int y = getAttribute(tpn, "y", -1);
 
 						Properties tip = readProperties(tpn.getChildNodes());
-						layer.setTileInstancePropertiesAt(x, y, tip);
+						if (tip != null) {
+							layer.setTilePropertiesAt(x, y, new TileProperties(tip));
+						}
 					}
 				}
 			}
@@ -897,6 +1203,118 @@ public class TmxLoader implements AssetLoader {
 		return layer;
 	}
 
+	/**
+	 * Decode the base64 or csv data of a layer and put the tiles into it. When
+	 * a pool is used, the work is done later by one of its threads, and
+	 * {@link #finishLayers()} waits for it.
+	 * 
+	 * @param layer
+	 * @param text
+	 *            the text content of the &lt;data&gt; element
+	 * @param compression
+	 *            "zlib", "gzip", null for uncompressed base64 data.
+	 * @param csv
+	 *            true if the encoding is csv, false for base64.
+	 * @throws IOException
+	 */
+	private void readLayerData(TileLayer layer, String text,
+			String compression, boolean csv) throws IOException {
+		if (pool == null) {
+			int[] gids = getGidBuffer(layer.getWidth() * layer.getHeight());
+			decodeLayerData(map, layer, decoder, gids, text, compression, csv);
+		} else {
+			pendingLayers.add(pool.submit(new DecodeLayerTask(map, layer, text,
+					compression, csv)));
+		}
+	}
+
+	/**
+	 * Wait until the data of every layer is decoded.
+	 * 
+	 * @throws IOException
+	 *             if the data of a layer is broken.
+	 */
+	private void finishLayers() throws IOException {
+		try {
+			for (ForkJoinTask<IOException> task : pendingLayers) {
+				IOException e = task.join();
+				if (e != null) {
+					throw e;
+				}
+			}
+		} finally {
+			pendingLayers.clear();
+		}
+	}
+
+	/**
+	 * Start the pool used to decode layers, if more than one thread is
+	 * wanted.
+	 */
+	private void startPool() {
+		pendingLayers.clear();
+		if (parallelism > 1) {
+			pool = new ForkJoinPool(parallelism);
+		} else {
+			pool = null;
+		}
+	}
+
+	private void shutdownPool() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+		pendingLayers.clear();
+	}
+
+	/**
+	 * Decode the data of a layer and put the tiles into it.
+	 */
+	private static void decodeLayerData(TiledMap map, TileLayer layer,
+			LayerDataDecoder decoder, int[] gids, String text,
+			String compression, boolean csv) throws IOException {
+		final int count = layer.getWidth() * layer.getHeight();
+		if (csv) {
+			decoder.decodeCsv(text, gids, count);
+		} else {
+			decoder.decodeBase64(text, compression, gids, count);
+		}
+
+		if (layer.isFlyweight()) {
+			// the unknown tiles are left empty, then the layer is written at
+			// once and marked as changed as a whole.
+			for (int i = 0; i < count; i++) {
+				if (gids[i] != 0 && map.getTileForTileGID(gids[i] & ~Tile.FLIPPED_MASK) == null) {
+					gids[i] = 0;
+				}
+			}
+			layer.setGids(layer.getX(), layer.getY(), layer.getWidth(), layer.getHeight(), gids);
+			return;
+		}
+
+		int i = 0;
+		for (int y = 0; y < layer.getHeight(); y++) {
+			for (int x = 0; x < layer.getWidth(); x++) {
+				map.setTileAtFromTileId(layer, y, x, gids[i++]);
+			}
+		}
+	}
+
+	/**
+	 * Get a buffer that can hold the global tile ids of a layer.
+	 * 
+	 * @param count
+	 *            number of tiles in the layer
+	 * @return
+	 */
+	private int[] getGidBuffer(int count) {
+		if (gidBuffer.length < count) {
+			gidBuffer = new int[count];
+		}
+		return gidBuffer;
+	}
+
 	/**
 	 * read ImageLayer
 	 * 
@@ -1299,6 +1717,45 @@ public class TmxLoader implements AssetLoader {
 		}
 	}
 
+	/**
+	 * Decode the data of a layer in a thread of the pool. The task returns
+	 * the IOException if the data is broken, null otherwise.
+	 * 
+	 * @author yanmaoyuan
+	 * 
+	 */
+	private static class DecodeLayerTask extends RecursiveTask<IOException> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final TiledMap map;
+		private final TileLayer layer;
+		private final String text;
+		private final String compression;
+		private final boolean csv;
+
+		DecodeLayerTask(TiledMap map, TileLayer layer, String text,
+				String compression, boolean csv) {
+			this.map = map;
+			this.layer = layer;
+			this.text = text;
+			this.compression = compression;
+			this.csv = csv;
+		}
+
+		@Override
+		protected IOException compute() {
+			int[] gids = new int[layer.getWidth() * layer.getHeight()];
+			try {
+				decodeLayerData(map, layer, poolDecoders.get(), gids, text,
+						compression, csv);
+			} catch (IOException e) {
+				return e;
+			}
+			return null;
+		}
+	}
+
 	/**
 	 * When read a &lt;image&gt; element there 5 attribute there. This class is
 	 * just a data struct to return the whole image node;
@@ -7,13 +7,19 @@ import com.jme3.renderer.RenderManager;
 import com.jme3.renderer.ViewPort;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Type;
 import com.jme3.scene.control.AbstractControl;
 import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.util.TileMesh;
 
 /**
  * This control used to play animation of a tile.
  * 
+ * The tiles of a map are animated by its {@link TileAnimator}, which updates
+ * every cell of an animation at once. This control plays the animation on a
+ * single spatial with its own mesh.
+ * 
  * @author yanmaoyuan
  * 
  */
@@ -27,6 +33,13 @@ public class AnimatedTileControl extends AbstractControl {
 	private int currentFrameIndex;
 	private float unusedTime;
 
+	/**
+	 * The flip flags of the tile, the texCoords of each frame are flipped
+	 * with them.
+	 */
+	private int flipFlags;
+	private float[] texCoords;
+
 	public AnimatedTileControl(Tile tile) {
 		this.tile = tile;
 		resetAnimation();
@@ -35,6 +48,16 @@ public class AnimatedTileControl extends AbstractControl {
 		setAnim(0);
 	}
 
+	/**
+	 * Set the flip flags of the tile this control plays on.
+	 * 
+	 * @param gid
+	 *            the global tile id with the flip flags.
+	 */
+	public void setFlipFlags(int gid) {
+		this.flipFlags = gid & Tile.FLIPPED_MASK;
+	}
+
 	public void setAnim(String name) {
 		anim = tile.getAnimation(name);
 		resetAnimation();
@@ -82,7 +105,21 @@ public class AnimatedTileControl extends AbstractControl {
 			Tile t = tile.getTileset().getTile(frame.tileId);
 			Mesh tMesh = ((Geometry) t.getVisual()).getMesh();
 			FloatBuffer data = (FloatBuffer)tMesh.getBuffer(Type.TexCoord).getData();
-			mesh.setBuffer(Type.TexCoord, 2, data);
+			if (flipFlags == 0) {
+				mesh.setBuffer(Type.TexCoord, 2, data);
+			} else {
+				// the mesh has its own texCoords, write the flipped frame in it.
+				if (texCoords == null || texCoords.length < data.limit()) {
+					texCoords = new float[data.limit()];
+				}
+				TileMesh.flipTexCoords(data, flipFlags, texCoords, 0);
+
+				VertexBuffer vb = mesh.getBuffer(Type.TexCoord);
+				FloatBuffer buf = (FloatBuffer) vb.getData();
+				buf.clear();
+				buf.put(texCoords, 0, data.limit()).flip();
+				vb.updateData(buf);
+			}
 		}
 	}
 
@@ -93,6 +130,7 @@ public class AnimatedTileControl extends AbstractControl {
 	public Object clone() {
 		AnimatedTileControl control = new AnimatedTileControl(tile);
 		control.anim = anim;
+		control.flipFlags = flipFlags;
 		return control;
 	}
 }
@@ -0,0 +1,245 @@
+package com.jme3.tmx.animation;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.scene.control.AbstractControl;
+import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.core.TiledMap;
+import com.jme3.tmx.util.TileMesh;
+
+/**
+ * The animation clock of a map. It is attached to the node of the TiledMap,
+ * see {@link #get(TiledMap)}.
+ *
+ * Every cell of an animated tile shares a copy of the mesh of the tile (or of
+ * its flipped copy), so each Animation is advanced only once per frame and
+ * the texCoords of its meshes are changed together. The meshes of the tiles
+ * are never changed, they are read to show the frames. All the cells of an
+ * animation always show the same frame.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class TileAnimator extends AbstractControl {
+
+	/**
+	 * The state of each animation, the Animation is shared by the tile and
+	 * all its clones.
+	 */
+	private final Map<Animation, State> states = new IdentityHashMap<Animation, State>();
+	private final List<State> list = new ArrayList<State>();
+
+	private float[] texCoords = new float[8];
+
+	/**
+	 * Get the animator of a map, it is created when needed.
+	 *
+	 * @param map
+	 *            the tiled map
+	 * @return the animator attached to the node of the map
+	 */
+	public static TileAnimator get(TiledMap map) {
+		TileAnimator animator = map.getVisual().getControl(TileAnimator.class);
+		if (animator == null) {
+			animator = new TileAnimator();
+			map.getVisual().addControl(animator);
+		}
+		return animator;
+	}
+
+	/**
+	 * Play the animation of a tile on its visual part. The geometry is given
+	 * the animated copy of its mesh, every geometry of the same mesh shares
+	 * that copy.
+	 * 
+	 * The tmx format gives each tile at most one &lt;animation&gt;, the loader
+	 * adds it as the first animation of the tile, so that's the one played.
+	 *
+	 * @param tile
+	 *            the animated tile, with the flip flags in its gid.
+	 * @param geom
+	 *            the visual part of a cell
+	 */
+	public void add(Tile tile, Geometry geom) {
+		if (!tile.isAnimated()) {
+			return;
+		}
+
+		// a tile of Tiled has exactly one animation, see Tile#addAnimation.
+		Animation anim = tile.getAnimations().get(0);
+		State state = states.get(anim);
+		if (state == null) {
+			state = new State(tile, anim);
+			states.put(anim, state);
+			list.add(state);
+		}
+
+		// the mesh of the tile is read when the tile is the frame of an
+		// animation, so the texCoords are changed in a copy of it.
+		Mesh mesh = geom.getMesh();
+		Mesh copy = state.copies.get(mesh);
+		if (copy == null) {
+			copy = mesh.deepClone();
+			state.copies.put(mesh, copy);
+			state.meshes.add(copy);
+			state.flipFlags.add(tile.getGid() & Tile.FLIPPED_MASK);
+			// show the current frame at once
+			update(state, state.meshes.size() - 1);
+		}
+		geom.setMesh(copy);
+	}
+
+	/**
+	 * Forget all the animations.
+	 */
+	public void clear() {
+		states.clear();
+		list.clear();
+	}
+
+	/**
+	 * @return the number of animations played
+	 */
+	public int getAnimationCount() {
+		return list.size();
+	}
+
+	/**
+	 * Get the index of the frame an animation is showing.
+	 *
+	 * @param anim
+	 *            the animation
+	 * @return the frame index, or -1 if the animation is not played.
+	 */
+	public int getFrameIndex(Animation anim) {
+		State state = states.get(anim);
+		return state == null ? -1 : state.frameIndex;
+	}
+
+	@Override
+	protected void controlUpdate(float tpf) {
+		final float ms = tpf * 1000;
+		final int len = list.size();
+		for (int i = 0; i < len; i++) {
+			State state = list.get(i);
+			Animation anim = state.anim;
+			if (anim.getTotalFrames() == 0) {
+				continue;
+			}
+
+			state.unusedTime += ms;
+			Frame frame = anim.getFrame(state.frameIndex);
+			int previousTileId = frame.tileId;
+
+			while (frame.duration > 0 && state.unusedTime > frame.duration) {
+				state.unusedTime -= frame.duration;
+				state.frameIndex = (state.frameIndex + 1) % anim.getTotalFrames();
+
+				frame = anim.getFrame(state.frameIndex);
+			}
+
+			/*
+			 * whether this caused the current tileId to change.
+			 */
+			if (previousTileId != frame.tileId) {
+				for (int m = 0; m < state.meshes.size(); m++) {
+					update(state, m);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Show the current frame of the animation on one of its meshes.
+	 */
+	private void update(State state, int index) {
+		Frame frame = state.anim.getFrame(state.frameIndex);
+		if (frame == null) {
+			return;
+		}
+		Tile t = state.tile.getTileset().getTile(frame.tileId);
+		if (t == null || !(t.getVisual() instanceof Geometry)) {
+			return;
+		}
+
+		// only the texCoords are changed, so the frame must be in the
+		// texture of the animated tile. A frame put into another
+		// TextureArray, or kept in a Texture2D of its own, is skipped.
+		Geometry tGeom = (Geometry) t.getVisual();
+		if (state.tile.getVisual() instanceof Geometry
+				&& tGeom.getMaterial() != ((Geometry) state.tile.getVisual()).getMaterial()) {
+			return;
+		}
+
+		Mesh mesh = state.meshes.get(index);
+		int flipFlags = state.flipFlags.get(index);
+		Mesh tMesh = tGeom.getMesh();
+		FloatBuffer data = tMesh.getFloatBuffer(Type.TexCoord);
+
+		VertexBuffer vb = mesh.getBuffer(Type.TexCoord);
+		FloatBuffer buf = (FloatBuffer) vb.getData();
+		if (buf.capacity() < data.limit()) {
+			return;
+		}
+
+		// copy the texCoords, the mesh keeps its own buffer.
+		if (texCoords.length < data.limit()) {
+			texCoords = new float[data.limit()];
+		}
+		if (flipFlags == 0) {
+			for (int i = 0; i < data.limit(); i++) {
+				texCoords[i] = data.get(i);
+			}
+		} else {
+			TileMesh.flipTexCoords(data, flipFlags, texCoords, 0);
+		}
+
+		buf.clear();
+		buf.put(texCoords, 0, data.limit()).flip();
+		vb.updateData(buf);
+
+		// the frame may be in another layer of the TextureArray
+		FloatBuffer layer = tMesh.getFloatBuffer(Type.TexCoord3);
+		VertexBuffer layerVb = mesh.getBuffer(Type.TexCoord3);
+		if (layer != null && layerVb != null) {
+			FloatBuffer layerBuf = (FloatBuffer) layerVb.getData();
+			for (int i = 0; i < layerBuf.limit() && i < layer.limit(); i++) {
+				layerBuf.put(i, layer.get(i));
+			}
+			layerVb.updateData(layerBuf);
+		}
+	}
+
+	@Override
+	protected void controlRender(RenderManager rm, ViewPort vp) {
+	}
+
+	/**
+	 * The clock of one animation and the meshes showing it.
+	 */
+	private static class State {
+		private final Tile tile;
+		private final Animation anim;
+		private int frameIndex;
+		private float unusedTime;
+
+		private final Map<Mesh, Mesh> copies = new IdentityHashMap<Mesh, Mesh>();
+		private final List<Mesh> meshes = new ArrayList<Mesh>();
+		private final List<Integer> flipFlags = new ArrayList<Integer>();
+
+		State(Tile tile, Animation anim) {
+			this.tile = tile;
+			this.anim = anim;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.jme3.tmx.core;
+
+import java.util.Arrays;
+
+import com.jme3.util.IntMap;
+
+/**
+ * The cells of a TileLayer for each global tile id, without the flip flags.
+ *
+ * The cells of a gid are packed in an int array. Each cell remembers its slot
+ * in that array, so a cell is added or removed in constant time: the last
+ * cell of the array takes the slot of the removed one.
+ *
+ * @author yanmaoyuan
+ *
+ */
+class GidIndex {
+
+	private final IntMap<Cells> cellsPerGid = new IntMap<Cells>();
+
+	/**
+	 * The slot of each cell in the array of its gid.
+	 */
+	private final int[] slots;
+
+	private static class Cells {
+		int[] cells = new int[4];
+		int size = 0;
+	}
+
+	/**
+	 * Index the cells of a layer.
+	 *
+	 * @param gids
+	 *            the gid of each cell, row by row
+	 */
+	GidIndex(int[] gids) {
+		slots = new int[gids.length];
+		for (int i = 0; i < gids.length; i++) {
+			add(gids[i] & ~Tile.FLIPPED_MASK, i);
+		}
+	}
+
+	/**
+	 * Move a cell from a gid to another one. The flip flags are ignored.
+	 *
+	 * @param oldGid
+	 *            the gid the cell had
+	 * @param newGid
+	 *            the gid the cell has now
+	 * @param cell
+	 *            index of the cell
+	 */
+	void update(int oldGid, int newGid, int cell) {
+		oldGid &= ~Tile.FLIPPED_MASK;
+		newGid &= ~Tile.FLIPPED_MASK;
+		if (oldGid == newGid) {
+			return;
+		}
+		remove(oldGid, cell);
+		add(newGid, cell);
+	}
+
+	/**
+	 * @param gid
+	 *            gid, the flip flags are ignored
+	 * @return the cells with that gid, in increasing order. Empty if the gid is
+	 *         0.
+	 */
+	int[] find(int gid) {
+		Cells c = cellsPerGid.get(gid & ~Tile.FLIPPED_MASK);
+		if (c == null) {
+			return new int[0];
+		}
+		int[] result = Arrays.copyOf(c.cells, c.size);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private void add(int gid, int cell) {
+		if (gid == 0) {
+			return;
+		}
+		Cells c = cellsPerGid.get(gid);
+		if (c == null) {
+			c = new Cells();
+			cellsPerGid.put(gid, c);
+		} else if (c.size == c.cells.length) {
+			c.cells = Arrays.copyOf(c.cells, c.size * 2);
+		}
+		slots[cell] = c.size;
+		c.cells[c.size++] = cell;
+	}
+
+	private void remove(int gid, int cell) {
+		if (gid == 0) {
+			return;
+		}
+		Cells c = cellsPerGid.get(gid);
+		if (c == null) {
+			return;
+		}
+		final int slot = slots[cell];
+		final int last = c.cells[--c.size];
+		c.cells[slot] = last;
+		slots[last] = slot;
+		if (c.size == 0) {
+			cellsPerGid.remove(gid);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.jme3.tmx.core;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to objects, with open addressing and linear probing.
+ * The keys are kept in a long array, so a lookup neither boxes the key nor
+ * allocates memory. null values are not kept, putting null removes the key.
+ *
+ * @author yanmaoyuan
+ *
+ * @param <T>
+ *            the type of the values
+ */
+class LongMap<T> {
+
+	private final static int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int size;
+
+	LongMap() {
+		keys = new long[MIN_CAPACITY];
+		values = new Object[MIN_CAPACITY];
+		mask = MIN_CAPACITY - 1;
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	T get(long key) {
+		for (int i = slot(key);; i = (i + 1) & mask) {
+			if (values[i] == null) {
+				return null;
+			}
+			if (keys[i] == key) {
+				return (T) values[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the previous value of the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	T put(long key, T value) {
+		if (value == null) {
+			return remove(key);
+		}
+
+		int i = slot(key);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				T old = (T) values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+
+		keys[i] = key;
+		values[i] = value;
+		// keep the table at most half full
+		if (++size * 2 > values.length) {
+			resize(values.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Remove a key. The entries after it in the same run are moved back, so
+	 * a lookup still stops at the first empty slot.
+	 *
+	 * @return the value of the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	T remove(long key) {
+		int hole = slot(key);
+		for (;; hole = (hole + 1) & mask) {
+			if (values[hole] == null) {
+				return null;
+			}
+			if (keys[hole] == key) {
+				break;
+			}
+		}
+
+		final T old = (T) values[hole];
+		for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+			final int home = slot(keys[i]);
+			// the entry may move to the hole if the hole is between its home
+			// slot and its slot.
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				keys[hole] = keys[i];
+				values[hole] = values[i];
+				hole = i;
+			}
+		}
+		values[hole] = null;
+		size--;
+		return old;
+	}
+
+	void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private void resize(int capacity) {
+		final long[] oldKeys = keys;
+		final Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int j = slot(oldKeys[i]);
+				while (values[j] != null) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
@@ -0,0 +1,439 @@
+package com.jme3.tmx.core;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid over the bounds of the objects in an ObjectLayer, used to
+ * find the objects at a point or in an area without testing all of them.
+ *
+ * The cells are hashed into a fixed number of buckets, so the grid has no
+ * limit and the objects may lie outside of the map. An object is put into
+ * every bucket its bounds touch, objects covering too many cells are kept
+ * aside and tested by every query.
+ *
+ * The coordinates are the ones of the objects, in pixels, without the offset
+ * of the layer. The queries don't allocate memory, except to grow the list
+ * they fill.
+ *
+ * @author yanmaoyuan
+ *
+ */
+class ObjectGrid {
+
+	/**
+	 * Objects covering more cells than this are not put into the buckets.
+	 */
+	private final static int MAX_CELLS = 64;
+
+	/**
+	 * Size of a cell in pixels.
+	 */
+	private final double cellSize;
+
+	private List<Entry>[] buckets;
+	private int mask;
+
+	/**
+	 * All the entries, and the ones too large for the buckets.
+	 */
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final List<Entry> large = new ArrayList<Entry>();
+	private final Map<ObjectNode, Entry> map = new IdentityHashMap<ObjectNode, Entry>();
+
+	/**
+	 * Order of the next object, the queries return the earliest object first.
+	 */
+	private int nextOrder = 0;
+
+	/**
+	 * Marks the entries already tested by a query.
+	 */
+	private int stamp = 0;
+
+	ObjectGrid(double cellSize, int capacity) {
+		this.cellSize = cellSize;
+		resize(capacity);
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	void add(ObjectNode obj) {
+		if (map.containsKey(obj)) {
+			update(obj);
+			return;
+		}
+
+		if (entries.size() >= buckets.length * 2) {
+			resize(entries.size());
+		}
+
+		Entry e = new Entry(obj, nextOrder++);
+		e.index = entries.size();
+		entries.add(e);
+		map.put(obj, e);
+		insert(e);
+	}
+
+	void remove(ObjectNode obj) {
+		Entry e = map.remove(obj);
+		if (e == null) {
+			return;
+		}
+		erase(e);
+
+		// swap with the last one
+		Entry last = entries.remove(entries.size() - 1);
+		if (last != e) {
+			last.index = e.index;
+			entries.set(e.index, last);
+		}
+	}
+
+	/**
+	 * Move an object to the cells of its new bounds.
+	 */
+	void update(ObjectNode obj) {
+		Entry e = map.get(obj);
+		if (e == null) {
+			return;
+		}
+		erase(e);
+		insert(e);
+	}
+
+	/**
+	 * Find the first object containing a point. An object without width
+	 * contains the points of its left edge, an object without height the ones
+	 * of its top edge.
+	 */
+	ObjectNode getObjectAt(double x, double y) {
+		Entry found = null;
+		int s = nextStamp();
+
+		if (!large.isEmpty()) {
+			for (int i = 0; i < large.size(); i++) {
+				Entry e = large.get(i);
+				if (e.contains(x, y) && (found == null || e.order < found.order)) {
+					found = e;
+				}
+			}
+		}
+
+		List<Entry> bucket = buckets[hash(cell(x), cell(y))];
+		if (bucket != null) {
+			for (int i = 0; i < bucket.size(); i++) {
+				Entry e = bucket.get(i);
+				if (e.stamp != s) {
+					e.stamp = s;
+					if (e.contains(x, y) && (found == null || e.order < found.order)) {
+						found = e;
+					}
+				}
+			}
+		}
+
+		return found == null ? null : found.obj;
+	}
+
+	/**
+	 * Add the objects containing a point to the store.
+	 */
+	void getObjectsAt(double x, double y, List<ObjectNode> store) {
+		int s = nextStamp();
+		for (int i = 0; i < large.size(); i++) {
+			Entry e = large.get(i);
+			if (e.contains(x, y)) {
+				store.add(e.obj);
+			}
+		}
+
+		List<Entry> bucket = buckets[hash(cell(x), cell(y))];
+		if (bucket != null) {
+			for (int i = 0; i < bucket.size(); i++) {
+				Entry e = bucket.get(i);
+				if (e.stamp != s) {
+					e.stamp = s;
+					if (e.contains(x, y)) {
+						store.add(e.obj);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the first object whose bounds touch a rectangle, (x0, y0) and (x1,
+	 * y1) are its corners. The objects without size are extended to the
+	 * given size, and the ones without width nor height are ellipses of that
+	 * size.
+	 */
+	ObjectNode getObjectNear(double x0, double y0, double x1, double y1, double pointSize, double lineSize) {
+		Entry found = null;
+		int s = nextStamp();
+		final double margin = Math.max(pointSize, lineSize);
+
+		for (int i = 0; i < large.size(); i++) {
+			Entry e = large.get(i);
+			if (e.near(x0, y0, x1, y1, pointSize, lineSize) && (found == null || e.order < found.order)) {
+				found = e;
+			}
+		}
+
+		final int cx0 = cell(x0 - margin), cx1 = cell(x1);
+		final int cy0 = cell(y0 - margin), cy1 = cell(y1);
+		if (isTooLarge(cx0, cy0, cx1, cy1)) {
+			for (int i = 0; i < entries.size(); i++) {
+				Entry e = entries.get(i);
+				if (e.near(x0, y0, x1, y1, pointSize, lineSize) && (found == null || e.order < found.order)) {
+					found = e;
+				}
+			}
+			return found == null ? null : found.obj;
+		}
+
+		for (int cy = cy0; cy <= cy1; cy++) {
+			for (int cx = cx0; cx <= cx1; cx++) {
+				List<Entry> bucket = buckets[hash(cx, cy)];
+				if (bucket == null) {
+					continue;
+				}
+				for (int i = 0; i < bucket.size(); i++) {
+					Entry e = bucket.get(i);
+					if (e.stamp != s) {
+						e.stamp = s;
+						if (e.near(x0, y0, x1, y1, pointSize, lineSize)
+								&& (found == null || e.order < found.order)) {
+							found = e;
+						}
+					}
+				}
+			}
+		}
+
+		return found == null ? null : found.obj;
+	}
+
+	/**
+	 * Add the objects whose bounds touch a rectangle to the store, (x0, y0)
+	 * and (x1, y1) are its corners.
+	 */
+	void getObjectsIn(double x0, double y0, double x1, double y1, List<ObjectNode> store) {
+		getObjects(x0, y0, x1, y1, Double.NaN, Double.NaN, 0, store);
+	}
+
+	/**
+	 * Add the objects whose bounds touch a circle to the store.
+	 */
+	void getObjectsInRadius(double x, double y, double radius, List<ObjectNode> store) {
+		getObjects(x - radius, y - radius, x + radius, y + radius, x, y, radius * radius, store);
+	}
+
+	/**
+	 * Test the objects in a rectangle, and in a circle if (x, y) is a number.
+	 */
+	private void getObjects(double x0, double y0, double x1, double y1, double x, double y, double radiusSq,
+			List<ObjectNode> store) {
+		int s = nextStamp();
+		final boolean circle = !Double.isNaN(x);
+
+		for (int i = 0; i < large.size(); i++) {
+			Entry e = large.get(i);
+			if (circle ? e.touches(x, y, radiusSq) : e.touches(x0, y0, x1, y1)) {
+				store.add(e.obj);
+			}
+		}
+
+		final int cx0 = cell(x0), cx1 = cell(x1);
+		final int cy0 = cell(y0), cy1 = cell(y1);
+		if (isTooLarge(cx0, cy0, cx1, cy1)) {
+			for (int i = 0; i < entries.size(); i++) {
+				Entry e = entries.get(i);
+				if (e.isLarge) {
+					continue;
+				}
+				if (circle ? e.touches(x, y, radiusSq) : e.touches(x0, y0, x1, y1)) {
+					store.add(e.obj);
+				}
+			}
+			return;
+		}
+
+		for (int cy = cy0; cy <= cy1; cy++) {
+			for (int cx = cx0; cx <= cx1; cx++) {
+				List<Entry> bucket = buckets[hash(cx, cy)];
+				if (bucket == null) {
+					continue;
+				}
+				for (int i = 0; i < bucket.size(); i++) {
+					Entry e = bucket.get(i);
+					if (e.stamp != s) {
+						e.stamp = s;
+						if (circle ? e.touches(x, y, radiusSq) : e.touches(x0, y0, x1, y1)) {
+							store.add(e.obj);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A query covering more cells than there are buckets just tests all the
+	 * objects.
+	 */
+	private boolean isTooLarge(int cx0, int cy0, int cx1, int cy1) {
+		long cells = ((long) cx1 - cx0 + 1) * ((long) cy1 - cy0 + 1);
+		return cells > buckets.length;
+	}
+
+	private void insert(Entry e) {
+		e.setBounds();
+		final int cx0 = cell(e.x0), cx1 = cell(e.x1);
+		final int cy0 = cell(e.y0), cy1 = cell(e.y1);
+		long cells = ((long) cx1 - cx0 + 1) * ((long) cy1 - cy0 + 1);
+		if (cells > MAX_CELLS) {
+			e.isLarge = true;
+			large.add(e);
+			return;
+		}
+
+		e.isLarge = false;
+		int s = nextStamp();
+		for (int cy = cy0; cy <= cy1; cy++) {
+			for (int cx = cx0; cx <= cx1; cx++) {
+				int h = hash(cx, cy);
+				// different cells may share a bucket
+				if (e.stamp == s && buckets[h] != null && buckets[h].contains(e)) {
+					continue;
+				}
+				e.stamp = s;
+				if (buckets[h] == null) {
+					buckets[h] = new ArrayList<Entry>(4);
+				}
+				buckets[h].add(e);
+			}
+		}
+	}
+
+	private void erase(Entry e) {
+		if (e.isLarge) {
+			large.remove(e);
+			return;
+		}
+
+		final int cx0 = cell(e.x0), cx1 = cell(e.x1);
+		final int cy0 = cell(e.y0), cy1 = cell(e.y1);
+		for (int cy = cy0; cy <= cy1; cy++) {
+			for (int cx = cx0; cx <= cx1; cx++) {
+				List<Entry> bucket = buckets[hash(cx, cy)];
+				if (bucket != null) {
+					bucket.remove(e);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void resize(int capacity) {
+		int size = 64;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		buckets = new List[size];
+		mask = size - 1;
+
+		large.clear();
+		for (int i = 0; i < entries.size(); i++) {
+			insert(entries.get(i));
+		}
+	}
+
+	private int nextStamp() {
+		stamp++;
+		if (stamp == 0) {
+			// wrapped around, forget the old marks
+			for (int i = 0; i < entries.size(); i++) {
+				entries.get(i).stamp = 0;
+			}
+			stamp = 1;
+		}
+		return stamp;
+	}
+
+	private int cell(double v) {
+		return (int) Math.floor(v / cellSize);
+	}
+
+	private int hash(int cx, int cy) {
+		return ((cx * 73856093) ^ (cy * 19349663)) & mask;
+	}
+
+	/**
+	 * An object and the bounds it was indexed with.
+	 */
+	private static class Entry {
+		private final ObjectNode obj;
+		private final int order;
+		private int index;
+		private int stamp;
+		private boolean isLarge;
+
+		private double x0, y0, x1, y1;
+
+		Entry(ObjectNode obj, int order) {
+			this.obj = obj;
+			this.order = order;
+		}
+
+		void setBounds() {
+			x0 = Math.min(obj.getX(), obj.getX() + obj.getWidth());
+			x1 = Math.max(obj.getX(), obj.getX() + obj.getWidth());
+			y0 = Math.min(obj.getY(), obj.getY() + obj.getHeight());
+			y1 = Math.max(obj.getY(), obj.getY() + obj.getHeight());
+		}
+
+		boolean contains(double x, double y) {
+			if (x0 == x1) {
+				return x == x0 && y >= y0 && y <= y1;
+			}
+			if (y0 == y1) {
+				return y == y0 && x >= x0 && x <= x1;
+			}
+			return x >= x0 && x < x1 && y >= y0 && y < y1;
+		}
+
+		boolean touches(double qx0, double qy0, double qx1, double qy1) {
+			return x0 <= qx1 && x1 >= qx0 && y0 <= qy1 && y1 >= qy0;
+		}
+
+		boolean touches(double x, double y, double radiusSq) {
+			double dx = x < x0 ? x0 - x : (x > x1 ? x - x1 : 0);
+			double dy = y < y0 ? y0 - y : (y > y1 ? y - y1 : 0);
+			return dx * dx + dy * dy <= radiusSq;
+		}
+
+		boolean near(double qx0, double qy0, double qx1, double qy1, double pointSize, double lineSize) {
+			if (x0 == x1 && y0 == y1) {
+				// an ellipse of pointSize
+				double r = pointSize * 0.5;
+				if (r <= 0) {
+					return x0 > qx0 && x0 < qx1 && y0 > qy0 && y0 < qy1;
+				}
+				double cx = x0 + r;
+				double cy = y0 + r;
+				double dx = (cx < qx0 ? qx0 - cx : (cx > qx1 ? cx - qx1 : 0)) / r;
+				double dy = (cy < qy0 ? qy0 - cy : (cy > qy1 ? cy - qy1 : 0)) / r;
+				return dx * dx + dy * dy < 1;
+			}
+
+			double w = x1 > x0 ? x1 - x0 : lineSize;
+			double h = y1 > y0 ? y1 - y0 : lineSize;
+			return x0 < qx1 && x0 + w > qx0 && y0 < qy1 && y0 + h > qy0;
+		}
+	}
+}
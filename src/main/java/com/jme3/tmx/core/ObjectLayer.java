@@ -1,20 +1,25 @@
 package com.jme3.tmx.core;
 
-import java.awt.Shape;
-import java.awt.geom.Ellipse2D;
-import java.awt.geom.Rectangle2D;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
 import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
 import com.jme3.scene.Node;
+import com.jme3.util.IntMap;
 
 /**
  * The object group is in fact a map layer, and is hence called "object layer"
  * in Tiled Qt.
  * 
+ * The objects are indexed by a uniform grid, so the hit-testing methods don't
+ * test every object of the layer. The index follows {@link #add(ObjectNode)},
+ * {@link #remove(ObjectNode)} and the changes of the position and size of the
+ * objects. If the list returned by {@link #getObjects()} is changed directly,
+ * the indexes are built again by the next query. The objects are also indexed
+ * by their id, see {@link #get(int)}.
+ * 
  * @author yanmaoyuan
  * 
  */
@@ -49,7 +54,50 @@ public class ObjectLayer extends Layer {
 	 */
 	private DrawOrder draworder = DrawOrder.TOPDOWN;
 
-	private List<ObjectNode> objects = new LinkedList<ObjectNode>();
+	private ObjectList objects = new ObjectList();
+
+	/**
+	 * The objects by their id. If several objects have the same id, the first
+	 * one added is kept.
+	 */
+	private final IntMap<ObjectNode> objectsById = new IntMap<ObjectNode>();
+
+	/**
+	 * The changes of the list when the id index was last updated, it is built
+	 * again if the list was changed directly.
+	 */
+	private int indexedChanges = 0;
+
+	/**
+	 * The default size of a cell of the index, in pixels.
+	 */
+	public final static double DEFAULT_CELL_SIZE = 128;
+
+	private double cellSize = DEFAULT_CELL_SIZE;
+
+	/**
+	 * The spatial index of the objects, built by the first query.
+	 */
+	private ObjectGrid grid;
+	private int gridChanges;
+
+	/**
+	 * A list which counts its changes, replacing an object included, so the
+	 * indexes know when the list was changed directly.
+	 */
+	private static class ObjectList extends ArrayList<ObjectNode> {
+		private static final long serialVersionUID = 1L;
+
+		int changes() {
+			return modCount;
+		}
+
+		@Override
+		public ObjectNode set(int index, ObjectNode element) {
+			modCount++;
+			return super.set(index, element);
+		}
+	}
 
 	public ObjectLayer() {
 	}
@@ -90,103 +138,264 @@ public class ObjectLayer extends Layer {
 		this.draworder = draworder;
 	}
 
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Set the size of a cell of the spatial index. A few times the size of
+	 * the objects is best.
+	 * 
+	 * @param cellSize
+	 *            size of a cell in pixels
+	 */
+	public void setCellSize(double cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+		}
+		this.cellSize = cellSize;
+		this.grid = null;
+	}
+
 	public List<ObjectNode> getObjects() {
 		return objects;
 	}
 
+	/**
+	 * Get an object by its id.
+	 * 
+	 * @param id
+	 *            the unique id of the object
+	 * @return the object, or null if there is no object with this id in this
+	 *         layer.
+	 */
 	public ObjectNode get(int id) {
-		int len = objects.size();
-		for(int i=0; i<len; i++) {
-			ObjectNode obj = objects.get(i);
-			if (obj.getId() == id) {
-				return obj;
-			}
+		if (indexedChanges != objects.changes()) {
+			reindex();
 		}
-		return null;
+		return objectsById.get(id);
 	}
 	
 	public void add(ObjectNode obj) {
 		obj.setObjectGroup(this);
+		final boolean indexed = indexedChanges == objects.changes();
+		final boolean gridded = grid != null && gridChanges == objects.changes();
 		objects.add(obj);
+		if (indexed) {
+			index(obj);
+			indexedChanges = objects.changes();
+		}
+		if (gridded) {
+			grid.add(obj);
+			gridChanges = objects.changes();
+		}
 	}
 
 	public void remove(ObjectNode o) {
-		objects.remove(o);
+		final boolean indexed = indexedChanges == objects.changes();
+		final boolean gridded = grid != null && gridChanges == objects.changes();
+		if (!objects.remove(o)) {
+			return;
+		}
 		o.setObjectGroup(null);
+		if (indexed) {
+			unindex(o, o.getId());
+			indexedChanges = objects.changes();
+		}
+		if (gridded) {
+			grid.remove(o);
+			gridChanges = objects.changes();
+		}
 	}
 
 	/**
-	 * <p>
-	 * getObjectAt.
-	 * </p>
+	 * Called by an object of this layer when its id changed.
 	 * 
-	 * @param x
-	 *            a double.
-	 * @param y
-	 *            a double.
-	 * @return a {@link com.jme3.tmx.core.ObjectNode} object.
+	 * @param obj
+	 *            the object
+	 * @param oldId
+	 *            the id it had before
 	 */
-	public ObjectNode getObjectAt(double x, double y) {
-		for (ObjectNode obj : objects) {
-			// Attempt to get an object bordering the point that has no width
-			if (obj.getWidth() == 0 && obj.getX() + this.x == x) {
-				return obj;
-			}
+	void idChanged(ObjectNode obj, int oldId) {
+		if (indexedChanges == objects.changes()) {
+			unindex(obj, oldId);
+			index(obj);
+		}
+	}
 
-			// Attempt to get an object bordering the point that has no height
-			if (obj.getHeight() == 0 && obj.getY() + this.y == y) {
-				return obj;
+	private void index(ObjectNode obj) {
+		if (!objectsById.containsKey(obj.getId())) {
+			objectsById.put(obj.getId(), obj);
+		}
+	}
+
+	/**
+	 * Remove an object from the id index, another object with the same id
+	 * takes its place.
+	 */
+	private void unindex(ObjectNode obj, int id) {
+		if (objectsById.get(id) != obj) {
+			return;
+		}
+		objectsById.remove(id);
+		int len = objects.size();
+		for (int i = 0; i < len; i++) {
+			ObjectNode other = objects.get(i);
+			if (other != obj && other.getId() == id) {
+				objectsById.put(id, other);
+				break;
 			}
+		}
+	}
+
+	/**
+	 * Build the id index again.
+	 */
+	private void reindex() {
+		objectsById.clear();
+		int len = objects.size();
+		for (int i = 0; i < len; i++) {
+			index(objects.get(i));
+		}
+		indexedChanges = objects.changes();
+	}
 
-			Rectangle2D.Double rect = new Rectangle2D.Double(obj.getX()
-					+ this.x * map.getTileWidth(), obj.getY() + this.y
-					* map.getTileHeight(), obj.getWidth(), obj.getHeight());
-			if (rect.contains(x, y)) {
-				return obj;
+	/**
+	 * Called by an object of this layer when its position or size changed.
+	 * 
+	 * @param obj
+	 *            the object
+	 */
+	void moved(ObjectNode obj) {
+		if (grid != null && gridChanges == objects.changes()) {
+			grid.update(obj);
+		}
+	}
+
+	/**
+	 * Get the spatial index, build it if needed.
+	 */
+	private ObjectGrid getGrid() {
+		if (grid == null || gridChanges != objects.changes()) {
+			// the list may have been changed directly
+			grid = new ObjectGrid(cellSize, objects.size());
+			for (ObjectNode obj : objects) {
+				grid.add(obj);
 			}
+			gridChanges = objects.changes();
 		}
-		return null;
+		return grid;
+	}
+
+	/**
+	 * @return the x offset of the objects in pixels
+	 */
+	private double getOffsetX() {
+		return map == null ? 0 : this.x * map.getTileWidth();
+	}
+
+	/**
+	 * @return the y offset of the objects in pixels
+	 */
+	private double getOffsetY() {
+		return map == null ? 0 : this.y * map.getTileHeight();
+	}
+
+	/**
+	 * Get the first object containing a point. An object without width
+	 * contains the points of its left edge, an object without height the
+	 * points of its top edge.
+	 * 
+	 * @param x
+	 *            x in pixels
+	 * @param y
+	 *            y in pixels
+	 * @return a {@link com.jme3.tmx.core.ObjectNode} object, or null if there
+	 *         is none.
+	 */
+	public ObjectNode getObjectAt(double x, double y) {
+		return getGrid().getObjectAt(x - getOffsetX(), y - getOffsetY());
 	}
 
 	// This method will work at any zoom level, provided you provide the correct
 	// zoom factor. It also adds a one pixel buffer (that doesn't change with
 	// zoom).
 	/**
-	 * <p>
-	 * getObjectNear.
-	 * </p>
+	 * Get the first object near a point. Objects without a size are ellipses
+	 * of 10 * zoom pixels, and objects without width or height are zoom pixels
+	 * wide or high.
 	 * 
 	 * @param x
-	 *            a int.
+	 *            x in pixels
 	 * @param y
-	 *            a int.
+	 *            y in pixels
 	 * @param zoom
-	 *            a double.
-	 * @return a {@link com.jme3.tmx.core.ObjectNode} object.
+	 *            the zoom factor
+	 * @return a {@link com.jme3.tmx.core.ObjectNode} object, or null if there
+	 *         is none.
 	 */
 	public ObjectNode getObjectNear(int x, int y, double zoom) {
-		Rectangle2D mouse = new Rectangle2D.Double(x - zoom - 1, y - zoom - 1,
-				2 * zoom + 1, 2 * zoom + 1);
-		Shape shape;
-
-		for (ObjectNode obj : objects) {
-			if (obj.getWidth() == 0 && obj.getHeight() == 0) {
-				shape = new Ellipse2D.Double(obj.getX() * zoom, obj.getY()
-						* zoom, 10 * zoom, 10 * zoom);
-			} else {
-				shape = new Rectangle2D.Double(obj.getX() + this.x
-						* map.getTileWidth(), obj.getY() + this.y
-						* map.getTileHeight(),
-						obj.getWidth() > 0 ? obj.getWidth() : zoom,
-						obj.getHeight() > 0 ? obj.getHeight() : zoom);
-			}
+		double x0 = x - zoom - 1 - getOffsetX();
+		double y0 = y - zoom - 1 - getOffsetY();
+		double size = 2 * zoom + 1;
+		return getGrid().getObjectNear(x0, y0, x0 + size, y0 + size, 10 * zoom, zoom);
+	}
 
-			if (shape.intersects(mouse)) {
-				return obj;
-			}
-		}
+	/**
+	 * Find all the objects containing a point, see
+	 * {@link #getObjectAt(double, double)}.
+	 * 
+	 * @param x
+	 *            x in pixels
+	 * @param y
+	 *            y in pixels
+	 * @param store
+	 *            the objects found are added to it, in no particular order.
+	 * @return the store
+	 */
+	public List<ObjectNode> getObjectsAt(double x, double y, List<ObjectNode> store) {
+		getGrid().getObjectsAt(x - getOffsetX(), y - getOffsetY(), store);
+		return store;
+	}
 
-		return null;
+	/**
+	 * Find all the objects whose bounds touch a rectangle.
+	 * 
+	 * @param x
+	 *            left of the rectangle in pixels
+	 * @param y
+	 *            top of the rectangle in pixels
+	 * @param width
+	 *            width of the rectangle in pixels
+	 * @param height
+	 *            height of the rectangle in pixels
+	 * @param store
+	 *            the objects found are added to it, in no particular order.
+	 * @return the store
+	 */
+	public List<ObjectNode> getObjectsIn(double x, double y, double width, double height, List<ObjectNode> store) {
+		double x0 = x - getOffsetX();
+		double y0 = y - getOffsetY();
+		getGrid().getObjectsIn(x0, y0, x0 + width, y0 + height, store);
+		return store;
+	}
+
+	/**
+	 * Find all the objects whose bounds touch a circle.
+	 * 
+	 * @param x
+	 *            x of the center in pixels
+	 * @param y
+	 *            y of the center in pixels
+	 * @param radius
+	 *            radius in pixels
+	 * @param store
+	 *            the objects found are added to it, in no particular order.
+	 * @return the store
+	 */
+	public List<ObjectNode> getObjectsInRadius(double x, double y, double radius, List<ObjectNode> store) {
+		getGrid().getObjectsInRadius(x - getOffsetX(), y - getOffsetY(), radius, store);
+		return store;
 	}
 	
 	@Override
@@ -155,7 +155,11 @@ public class ObjectNode extends Base {
 	}
 
 	public void setId(int id) {
+		int oldId = this.id;
 		this.id = id;
+		if (objectGroup != null && oldId != id) {
+			objectGroup.idChanged(this, oldId);
+		}
 	}
 
 	public String getName() {
@@ -188,6 +192,7 @@ public class ObjectNode extends Base {
 
 	public void setX(double x) {
 		this.x = x;
+		moved();
 	}
 
 	public double getY() {
@@ -196,6 +201,7 @@ public class ObjectNode extends Base {
 
 	public void setY(double y) {
 		this.y = y;
+		moved();
 	}
 
 	public double getWidth() {
@@ -204,6 +210,7 @@ public class ObjectNode extends Base {
 
 	public void setWidth(double width) {
 		this.width = width;
+		moved();
 	}
 
 	public double getHeight() {
@@ -212,6 +219,16 @@ public class ObjectNode extends Base {
 
 	public void setHeight(double height) {
 		this.height = height;
+		moved();
+	}
+
+	/**
+	 * Tell the layer to update its index.
+	 */
+	private void moved() {
+		if (objectGroup != null) {
+			objectGroup.moved(this);
+		}
 	}
 
 	public float getRotation() {
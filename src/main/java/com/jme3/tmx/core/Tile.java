@@ -49,9 +49,20 @@ public class Tile extends Base implements Cloneable {
 
 	private Material material;
 
+	/**
+	 * Layer of the texture when it's a TextureArray, -1 for a Texture2D.
+	 */
+	private int textureLayer = -1;
+
 	// animation
 	private List<Animation> animations = new ArrayList<Animation>();
 
+	/**
+	 * Copies of this tile with a gid, one for each combination of the flip
+	 * flags. They are shared by the cells of flyweight TileLayers.
+	 */
+	private Tile[] flyweights;
+
 	// Terrain
 	/**
 	 * Defines the terrain type of each corner of the tile, given as
@@ -200,6 +211,19 @@ public class Tile extends Base implements Cloneable {
 		this.material = material;
 	}
 
+	public int getTextureLayer() {
+		return textureLayer;
+	}
+
+	/**
+	 * Set the layer of this tile in the TextureArray of its texture.
+	 * 
+	 * @param textureLayer the layer, or -1 if the texture is a Texture2D.
+	 */
+	public void setTextureLayer(int textureLayer) {
+		this.textureLayer = textureLayer;
+	}
+
 	public void setVisual(Geometry visual) {
 		this.visual = visual;
 	}
@@ -292,6 +316,30 @@ public class Tile extends Base implements Cloneable {
 		this.probability = probability;
 	}
 
+	/**
+	 * Get a copy of this tile with the given gid. There is only one copy for
+	 * each combination of the flip flags, so it's shared by every cell with
+	 * the same gid. Don't change it.
+	 * 
+	 * @param gid
+	 *            the global tile id of this tile, with the flip flags.
+	 * @return the shared copy
+	 */
+	public Tile getFlyweight(int gid) {
+		if (flyweights == null) {
+			flyweights = new Tile[8];
+		}
+
+		final int index = (gid & FLIPPED_MASK) >>> 29;
+		Tile tile = flyweights[index];
+		if (tile == null || tile.gid != gid) {
+			tile = clone();
+			tile.gid = gid;
+			flyweights[index] = tile;
+		}
+		return tile;
+	}
+
 	/**
 	 * Tile was cloned when TileLayer and ObjectGroup need a tile as a part of
 	 * them.
@@ -309,6 +357,7 @@ public class Tile extends Base implements Cloneable {
 		// jme3 visual
 		tile.texture = texture;
 		tile.material = material;
+		tile.textureLayer = textureLayer;
 		tile.visual = visual;
 
 		// FIXME Don't clone it here. Keep the same visual as they will be cloned in
@@ -1,6 +1,8 @@
 package com.jme3.tmx.core;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 import com.jme3.scene.Node;
@@ -11,16 +13,68 @@ import com.jme3.tmx.math2d.Point;
  * A TileLayer is a specialized MapLayer, used for tracking two dimensional tile
  * data.
  * 
+ * The layer always keeps the global tile id (with the flip flags) of every
+ * cell in a flat int array. By default it also keeps a {@link Tile} object for
+ * every cell. A flyweight layer keeps only the gids, and
+ * {@link #getTileAt(int, int)} returns a Tile shared by every cell with the
+ * same gid, see {@link Tile#getFlyweight(int)}.
+ * 
+ * An indexed layer also keeps the cells of each gid, so finding, replacing or
+ * removing a tile costs time proportional to the number of cells showing it,
+ * instead of a scan of the whole layer. See {@link #setIndexed(boolean)}.
+ * 
  * @author yanmaoyuan
  */
 public class TileLayer extends Layer {
 
-	private Tile[][] map;
+	/**
+	 * The global tile id of each cell, row by row. 0 means empty.
+	 */
+	private int[] gids;
+
+	/**
+	 * The tile of each cell, row by row. null for a flyweight layer.
+	 */
+	private Tile[] tiles;
+
+	/**
+	 * The cells of each gid, null if the layer is not indexed.
+	 */
+	private GidIndex index;
 	
-	private boolean[][] needUpdateSpatial;
+	/**
+	 * The cells changed since the last time the layer was rendered. The flag
+	 * of a cell keeps it from being added to the list twice, the flags are
+	 * made when the first cell is changed alone. When the whole layer was
+	 * written at once, every cell is changed and no list is kept.
+	 */
+	private boolean[] needUpdateSpatial;
+	private int[] dirtyCells;
+	private int dirtyCount;
+	private boolean allDirty;
+
+	/**
+	 * The regions changed by the bulk methods, 4 ints each: x0, y0, x1, y1 in
+	 * cells of the arrays. They are added to the changed cells when the
+	 * changed cells are asked for, or when there are
+	 * {@link #MAX_DIRTY_REGIONS} of them or they cover as many cells as the
+	 * layer, so the list doesn't grow while nobody asks.
+	 */
+	private int[] dirtyRegions;
+	private int dirtyRegionCount;
+	private long dirtyRegionArea;
+	private final static int MAX_DIRTY_REGIONS = 16;
+
+	/**
+	 * The spatial of each cell rendered as a tile of its own, made when the
+	 * first one is set. The chunks and the data textures don't use it.
+	 */
 	private Spatial[][] spatials;
 
-	protected HashMap<Object, Properties> tileInstanceProperties = new HashMap<>();
+	/**
+	 * The properties of the tile instances, the key is (x &lt;&lt; 32 | y).
+	 */
+	private final LongMap<TileProperties> tileInstanceProperties = new LongMap<TileProperties>();
 	
 	/**
 	 * Construct a TileLayer from the given width and height.
@@ -31,11 +85,22 @@ public class TileLayer extends Layer {
 	 *            height in tiles
 	 */
 	public TileLayer(int w, int h) {
-		super(w, h);
+		this(w, h, false);
+	}
 
-		map = new Tile[height][width];
-		spatials = new Spatial[height][width];
-		needUpdateSpatial = new boolean[height][width];
+	/**
+	 * Construct a TileLayer from the given width and height.
+	 * 
+	 * @param w
+	 *            width in tiles
+	 * @param h
+	 *            height in tiles
+	 * @param flyweight
+	 *            true to keep only the gids of the tiles.
+	 */
+	public TileLayer(int w, int h, boolean flyweight) {
+		super(w, h);
+		createStorage(flyweight);
 	}
 
 	/**
@@ -44,6 +109,7 @@ public class TileLayer extends Layer {
 	 */
 	public TileLayer(TiledMap m) {
 		setMap(m);
+		createStorage(false);
 	}
 
 	/**
@@ -61,6 +127,56 @@ public class TileLayer extends Layer {
 	public TileLayer(TiledMap m, int w, int h) {
 		super(w, h);
 		setMap(m);
+		createStorage(false);
+	}
+
+	private void createStorage(boolean flyweight) {
+		gids = new int[width * height];
+		tiles = flyweight ? null : new Tile[width * height];
+		spatials = null;
+		needUpdateSpatial = null;
+		dirtyCells = new int[16];
+		dirtyCount = 0;
+		allDirty = false;
+		dirtyRegions = new int[16];
+		dirtyRegionCount = 0;
+		dirtyRegionArea = 0;
+	}
+
+	/**
+	 * Tell if this layer keeps only the gids of the tiles.
+	 * 
+	 * @return true if there is no Tile object for each cell.
+	 */
+	public boolean isFlyweight() {
+		return tiles == null;
+	}
+
+	/**
+	 * Tell if this layer keeps the cells of each gid.
+	 * 
+	 * @return true if the layer is indexed
+	 */
+	public boolean isIndexed() {
+		return index != null;
+	}
+
+	/**
+	 * Keep the cells of each gid, so {@link #locationOf(Tile)},
+	 * {@link #locationsOf(Tile)}, {@link #replaceTile(Tile, Tile)} and
+	 * {@link #removeTile(Tile)} only visit the cells showing the tile. The
+	 * index is built once from the current cells, then kept up to date by
+	 * {@link #setTileAt(int, int, Tile)} and {@link #setGidAt(int, int, int)}.
+	 * 
+	 * @param indexed
+	 *            true to build the index, false to drop it.
+	 */
+	public void setIndexed(boolean indexed) {
+		if (indexed && index == null) {
+			index = new GidIndex(gids);
+		} else if (!indexed) {
+			index = null;
+		}
 	}
 
 	/**
@@ -79,16 +195,25 @@ public class TileLayer extends Layer {
 	}
 
 	/**
-	 * Removes any occurences of the given tile from this map layer. If layer is
-	 * locked, an exception is thrown.
+	 * Removes any occurences of the given tile from this map layer. In a
+	 * flyweight layer, every cell showing the same tile, flipped or not, is
+	 * cleared.
 	 * 
 	 * @param tile
 	 *            the Tile to be removed
 	 */
 	public void removeTile(Tile tile) {
+		final int gid = gidOf(tile);
+		if (index != null && gid != 0) {
+			for (int cell : findCells(tile, gid)) {
+				setTileAt(cell % width + this.x, cell / width + this.y, null);
+				setSpatialAt(cell % width + this.x, cell / width + this.y, null);
+			}
+			return;
+		}
 		for (int y = 0; y < this.height; y++) {
 			for (int x = 0; x < this.width; x++) {
-				if (map[y][x] == tile) {
+				if (matches(y * width + x, tile, gid)) {
 					setTileAt(x + this.x, y + this.y, null);
 					setSpatialAt(x + this.x, y + this.y, null);
 				}
@@ -96,10 +221,47 @@ public class TileLayer extends Layer {
 		}
 	}
 
+	/**
+	 * Removes the tiles whose global id, without the flip flags, is from
+	 * firstGid to lastGid, the tiles of a tileset for example. An indexed
+	 * layer only visits the cells of these gids when there are fewer gids
+	 * than cells.
+	 * 
+	 * @param firstGid
+	 *            the first gid to remove
+	 * @param lastGid
+	 *            the last gid to remove
+	 */
+	public void removeGids(int firstGid, int lastGid) {
+		firstGid = Math.max(firstGid, 1);
+		if (lastGid < firstGid) {
+			return;
+		}
+		if (index != null && (long) lastGid - firstGid < gids.length) {
+			for (int gid = firstGid; gid <= lastGid; gid++) {
+				for (int cell : index.find(gid)) {
+					setTileAt(cell % width + this.x, cell / width + this.y, null);
+					setSpatialAt(cell % width + this.x, cell / width + this.y, null);
+				}
+			}
+			return;
+		}
+		for (int i = 0; i < gids.length; i++) {
+			final int gid = gids[i] & ~Tile.FLIPPED_MASK;
+			if (gid >= firstGid && gid <= lastGid) {
+				setTileAt(i % width + this.x, i / width + this.y, null);
+				setSpatialAt(i % width + this.x, i / width + this.y, null);
+			}
+		}
+	}
+
 	/**
 	 * Sets the tile at the specified position. Does nothing if (tx, ty) falls
 	 * outside of this layer.
 	 * 
+	 * A flyweight layer only keeps the gid of the tile, so the tile must
+	 * belong to a tileset of the map.
+	 * 
 	 * @param tx
 	 *            x position of tile
 	 * @param ty
@@ -109,11 +271,12 @@ public class TileLayer extends Layer {
 	 */
 	public void setTileAt(int tx, int ty, Tile ti) {
 		if (contains(tx, ty)) {
-			map[ty - y][tx - x] = ti;
-			needUpdateSpatial[ty - y][tx - x] = true;
-			
-			// tell map renderer to update it
-			isNeedUpdate = true;
+			final int index = (ty - y) * width + (tx - x);
+			setGid(index, gidOf(ti));
+			if (tiles != null) {
+				tiles[index] = ti;
+			}
+			setNeedUpdateAt(index);
 		}
 	}
 
@@ -128,7 +291,237 @@ public class TileLayer extends Layer {
 	 *         outside this layer
 	 */
 	public Tile getTileAt(int tx, int ty) {
-		return (contains(tx, ty)) ? map[ty - y][tx - x] : null;
+		if (!contains(tx, ty)) {
+			return null;
+		}
+
+		final int index = (ty - y) * width + (tx - x);
+		if (tiles != null) {
+			return tiles[index];
+		}
+
+		final int gid = gids[index];
+		if (gid == 0 || map == null) {
+			return null;
+		}
+
+		Tile tile = map.getTileForTileGID(gid & ~Tile.FLIPPED_MASK);
+		return tile == null ? null : tile.getFlyweight(gid);
+	}
+
+	/**
+	 * Sets the global tile id at the specified position. The gid may carry the
+	 * flip flags. Does nothing if (tx, ty) falls outside of this layer.
+	 * 
+	 * When this layer keeps Tile objects, the tile is looked up in the map of
+	 * this layer and cloned.
+	 * 
+	 * @param tx
+	 *            x position of tile
+	 * @param ty
+	 *            y position of tile
+	 * @param gid
+	 *            global tile id, 0 for no tile
+	 */
+	public void setGidAt(int tx, int ty, int gid) {
+		if (!contains(tx, ty)) {
+			return;
+		}
+
+		if (tiles == null) {
+			final int index = (ty - y) * width + (tx - x);
+			setGid(index, gid);
+			setNeedUpdateAt(index);
+		} else {
+			setTileAt(tx, ty, createTile(gid));
+		}
+	}
+
+	/**
+	 * Clone the tile of a gid from the tileset of the map.
+	 * 
+	 * @return the tile, or null if the gid is 0 or unknown.
+	 */
+	private Tile createTile(int gid) {
+		if (gid == 0 || map == null) {
+			return null;
+		}
+		Tile prototype = map.getTileForTileGID(gid & ~Tile.FLIPPED_MASK);
+		if (prototype == null) {
+			return null;
+		}
+		Tile tile = prototype.clone();
+		tile.setGid(gid);
+		return tile;
+	}
+
+	/**
+	 * Copy the global tile ids of a region into an array, row by row. The
+	 * cells outside of this layer are read as 0.
+	 * 
+	 * @param tx
+	 *            x position of the region
+	 * @param ty
+	 *            y position of the region
+	 * @param w
+	 *            width of the region
+	 * @param h
+	 *            height of the region
+	 * @param dst
+	 *            the array to fill, at least w * h long. The cell (tx + i, ty
+	 *            + j) is written at j * w + i. A new one is created if null.
+	 * @return dst
+	 */
+	public int[] getGids(int tx, int ty, int w, int h, int[] dst) {
+		checkRegion(w, h, dst, false);
+		if (dst == null) {
+			dst = new int[w * h];
+		}
+
+		final int x0 = Math.max(0, tx - x);
+		final int y0 = Math.max(0, ty - y);
+		final int x1 = Math.min(width, tx - x + w);
+		final int y1 = Math.min(height, ty - y + h);
+		if (x0 != tx - x || y0 != ty - y || x1 != tx - x + w || y1 != ty - y + h) {
+			Arrays.fill(dst, 0, w * h, 0);
+		}
+		if (x0 >= x1 || y0 >= y1) {
+			return dst;
+		}
+
+		for (int row = y0; row < y1; row++) {
+			System.arraycopy(gids, row * width + x0, dst, (row - ty + y) * w + (x0 - tx + x), x1 - x0);
+		}
+		return dst;
+	}
+
+	/**
+	 * Set the global tile ids of a region from an array, row by row. The gids
+	 * may carry the flip flags, the cells outside of this layer are skipped.
+	 * 
+	 * A flyweight layer copies the gids row by row. When this layer keeps Tile
+	 * objects, a tile is cloned for each cell as in
+	 * {@link #setGidAt(int, int, int)}.
+	 * 
+	 * @param tx
+	 *            x position of the region
+	 * @param ty
+	 *            y position of the region
+	 * @param w
+	 *            width of the region
+	 * @param h
+	 *            height of the region
+	 * @param src
+	 *            the gids, at least w * h long. The cell (tx + i, ty + j) is
+	 *            read at j * w + i.
+	 */
+	public void setGids(int tx, int ty, int w, int h, int[] src) {
+		checkRegion(w, h, src, true);
+
+		final int x0 = Math.max(0, tx - x);
+		final int y0 = Math.max(0, ty - y);
+		final int x1 = Math.min(width, tx - x + w);
+		final int y1 = Math.min(height, ty - y + h);
+		if (x0 >= x1 || y0 >= y1) {
+			return;
+		}
+
+		for (int row = y0; row < y1; row++) {
+			final int from = (row - ty + y) * w + (x0 - tx + x);
+			final int to = row * width + x0;
+			if (tiles == null && index == null) {
+				System.arraycopy(src, from, gids, to, x1 - x0);
+			} else {
+				for (int i = 0; i < x1 - x0; i++) {
+					setGid(to + i, src[from + i]);
+					if (tiles != null) {
+						tiles[to + i] = createTile(src[from + i]);
+					}
+				}
+			}
+		}
+		setNeedUpdateIn(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Set the same global tile id in every cell of a region. The cells outside
+	 * of this layer are skipped.
+	 * 
+	 * @param tx
+	 *            x position of the region
+	 * @param ty
+	 *            y position of the region
+	 * @param w
+	 *            width of the region
+	 * @param h
+	 *            height of the region
+	 * @param gid
+	 *            global tile id, 0 to clear the region
+	 */
+	public void fill(int tx, int ty, int w, int h, int gid) {
+		checkRegion(w, h, null, false);
+
+		final int x0 = Math.max(0, tx - x);
+		final int y0 = Math.max(0, ty - y);
+		final int x1 = Math.min(width, tx - x + w);
+		final int y1 = Math.min(height, ty - y + h);
+		if (x0 >= x1 || y0 >= y1) {
+			return;
+		}
+
+		for (int row = y0; row < y1; row++) {
+			final int from = row * width + x0;
+			final int to = row * width + x1;
+			if (tiles == null && index == null) {
+				Arrays.fill(gids, from, to, gid);
+			} else {
+				for (int i = from; i < to; i++) {
+					setGid(i, gid);
+					if (tiles != null) {
+						tiles[i] = createTile(gid);
+					}
+				}
+			}
+		}
+		setNeedUpdateIn(x0, y0, x1, y1);
+	}
+
+	private static void checkRegion(int w, int h, int[] array, boolean required) {
+		if (w < 0 || h < 0) {
+			throw new IllegalArgumentException("Negative size: " + w + "x" + h);
+		}
+		if (array == null) {
+			if (required) {
+				throw new NullPointerException("The array is null");
+			}
+		} else if (array.length < w * h) {
+			throw new IllegalArgumentException("The array is too short: " + array.length + " < " + w * h);
+		}
+	}
+
+	/**
+	 * Write the gid of a cell, and move the cell in the index.
+	 */
+	private void setGid(int cell, int gid) {
+		if (index != null) {
+			index.update(gids[cell], gid, cell);
+		}
+		gids[cell] = gid;
+	}
+
+	/**
+	 * Returns the global tile id, with the flip flags, at the specified
+	 * position.
+	 * 
+	 * @param tx
+	 *            Tile-space x coordinate
+	 * @param ty
+	 *            Tile-space y coordinate
+	 * @return the gid at position (tx, ty) or 0 when there is no tile or (tx,
+	 *         ty) is outside this layer
+	 */
+	public int getGidAt(int tx, int ty) {
+		return (contains(tx, ty)) ? gids[(ty - y) * width + (tx - x)] : 0;
 	}
 
 	/**
@@ -141,16 +534,47 @@ public class TileLayer extends Layer {
 	 *         of t, or <code>null</code> if it is not found
 	 */
 	public Point locationOf(Tile t) {
-		for (int y = this.y; y < this.height + this.y; y++) {
-			for (int x = this.x; x < this.width + this.x; x++) {
-				if (getTileAt(x, y) == t) {
-					return new Point(x, y);
+		final int gid = gidOf(t);
+		if (index != null && gid != 0) {
+			int[] cells = findCells(t, gid);
+			return cells.length == 0 ? null : new Point(cells[0] % width + this.x, cells[0] / width + this.y);
+		}
+		for (int y = 0; y < this.height; y++) {
+			for (int x = 0; x < this.width; x++) {
+				if (matches(y * width + x, t, gid)) {
+					return new Point(x + this.x, y + this.y);
 				}
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Returns every occurrence (top down, left to right) of the given tile.
+	 * 
+	 * @param t
+	 *            the {@link com.jme3.tmx.core.Tile} to look for
+	 * @return the positions of t, empty if it is not found
+	 */
+	public List<Point> locationsOf(Tile t) {
+		List<Point> list = new ArrayList<Point>();
+		final int gid = gidOf(t);
+		if (index != null && gid != 0) {
+			for (int cell : findCells(t, gid)) {
+				list.add(new Point(cell % width + this.x, cell / width + this.y));
+			}
+			return list;
+		}
+		for (int y = 0; y < this.height; y++) {
+			for (int x = 0; x < this.width; x++) {
+				if (matches(y * width + x, t, gid)) {
+					list.add(new Point(x + this.x, y + this.y));
+				}
+			}
+		}
+		return list;
+	}
+
 	/**
 	 * Replaces all occurrences of the Tile <code>find</code> with the Tile
 	 * <code>replace</code> in the entire layer
@@ -161,15 +585,69 @@ public class TileLayer extends Layer {
 	 *            the replacement tile
 	 */
 	public void replaceTile(Tile find, Tile replace) {
-		for (int y = this.y; y < this.y + this.height; y++) {
-			for (int x = this.x; x < this.x + this.width; x++) {
-				if (getTileAt(x, y) == find) {
-					setTileAt(x, y, replace);
+		final int gid = gidOf(find);
+		if (index != null && gid != 0) {
+			for (int cell : findCells(find, gid)) {
+				setTileAt(cell % width + this.x, cell / width + this.y, replace);
+			}
+			return;
+		}
+		for (int y = 0; y < this.height; y++) {
+			for (int x = 0; x < this.width; x++) {
+				if (matches(y * width + x, find, gid)) {
+					setTileAt(x + this.x, y + this.y, replace);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Tell if the cell shows the given tile. A layer with Tile objects
+	 * compares the instance, a flyweight layer compares the gid without the
+	 * flip flags.
+	 */
+	private boolean matches(int index, Tile tile, int gid) {
+		if (tiles != null) {
+			return tiles[index] == tile;
+		}
+		return gid != 0 && (gids[index] & ~Tile.FLIPPED_MASK) == (gid & ~Tile.FLIPPED_MASK);
+	}
+
+	/**
+	 * The cells of the index showing the given tile, in increasing order. It's
+	 * a copy, so the cells can be changed while it's walked.
+	 */
+	private int[] findCells(Tile tile, int gid) {
+		int[] cells = index.find(gid);
+		int count = 0;
+		for (int i = 0; i < cells.length; i++) {
+			if (matches(cells[i], tile, gid)) {
+				cells[count++] = cells[i];
+			}
+		}
+		return count == cells.length ? cells : Arrays.copyOf(cells, count);
+	}
+
+	/**
+	 * Get the global tile id of a tile. The prototype tiles of a tileset don't
+	 * have a gid, it's calculated with the firstgid of the tileset.
+	 * 
+	 * @param tile
+	 * @return the gid, or 0 if it's unknown
+	 */
+	private static int gidOf(Tile tile) {
+		if (tile == null) {
+			return 0;
+		}
+		if (tile.getGid() != 0) {
+			return tile.getGid();
+		}
+		if (tile.getTileset() != null && tile.getId() >= 0) {
+			return tile.getTileset().getFirstgid() + tile.getId();
+		}
+		return 0;
+	}
+
 	/**
 	 * Sets the spatial at the specified position. Does nothing if (tx, ty) falls
 	 * outside of this layer.
@@ -183,6 +661,12 @@ public class TileLayer extends Layer {
 	 */
 	public void setSpatialAt(int tx, int ty, Spatial spatial) {
 		if (contains(tx, ty)) {
+			if (spatials == null) {
+				if (spatial == null) {
+					return;
+				}
+				spatials = new Spatial[height][width];
+			}
 			
 			Node parent = (Node) visual;
 			
@@ -191,10 +675,10 @@ public class TileLayer extends Layer {
 				parent.detachChild(old);
 			}
 			
-			parent.attachChild(spatial);
+			if (spatial != null) {
+				parent.attachChild(spatial);
+			}
 			spatials[ty - y][tx - x] = spatial;
-			
-			needUpdateSpatial[ty - y][tx - x] = false;
 		}
 	}
 
@@ -209,7 +693,7 @@ public class TileLayer extends Layer {
 	 *         outside this layer
 	 */
 	public Spatial getSpatialAt(int tx, int ty) {
-		return (contains(tx, ty)) ? spatials[ty - y][tx - x] : null;
+		return (contains(tx, ty) && spatials != null) ? spatials[ty - y][tx - x] : null;
 	}
 	
 	/**
@@ -223,9 +707,161 @@ public class TileLayer extends Layer {
 	 * @return true if the spatial should be updated.
 	 */
 	public boolean isNeedUpdateAt(int tx, int ty) {
-		return (contains(tx, ty)) ? needUpdateSpatial[ty - y][tx - x] : false;
+		flushDirtyRegions();
+		if (!contains(tx, ty)) {
+			return false;
+		}
+		return allDirty || (needUpdateSpatial != null && needUpdateSpatial[(ty - y) * width + (tx - x)]);
+	}
+
+	/**
+	 * Mark a cell as changed, and tell the map renderer to update this layer.
+	 */
+	private void setNeedUpdateAt(int index) {
+		if (allDirty) {
+			isNeedUpdate = true;
+			return;
+		}
+		if (needUpdateSpatial == null) {
+			needUpdateSpatial = new boolean[width * height];
+		}
+		if (!needUpdateSpatial[index]) {
+			needUpdateSpatial[index] = true;
+			if (dirtyCount == dirtyCells.length) {
+				int[] cells = new int[Math.min(dirtyCount * 2, width * height)];
+				System.arraycopy(dirtyCells, 0, cells, 0, dirtyCount);
+				dirtyCells = cells;
+			}
+			dirtyCells[dirtyCount++] = index;
+		}
+
+		isNeedUpdate = true;
+	}
+
+	/**
+	 * Mark a region as changed. Its cells are added to the changed cells only
+	 * when they are asked for, so a bulk write marks them once.
+	 */
+	private void setNeedUpdateIn(int x0, int y0, int x1, int y1) {
+		if (dirtyRegionCount == MAX_DIRTY_REGIONS * 4 || dirtyRegionArea >= gids.length) {
+			flushDirtyRegions();
+		}
+		if (dirtyRegionCount == dirtyRegions.length) {
+			dirtyRegions = Arrays.copyOf(dirtyRegions, dirtyRegionCount * 2);
+		}
+		dirtyRegions[dirtyRegionCount++] = x0;
+		dirtyRegions[dirtyRegionCount++] = y0;
+		dirtyRegions[dirtyRegionCount++] = x1;
+		dirtyRegions[dirtyRegionCount++] = y1;
+		dirtyRegionArea += (long) (x1 - x0) * (y1 - y0);
+
+		isNeedUpdate = true;
+	}
+
+	/**
+	 * Add the cells of the changed regions to the changed cells.
+	 */
+	private void flushDirtyRegions() {
+		for (int r = 0; r < dirtyRegionCount && !allDirty; r += 4) {
+			if (dirtyRegions[r] == 0 && dirtyRegions[r + 1] == 0 && dirtyRegions[r + 2] == width
+					&& dirtyRegions[r + 3] == height) {
+				// the whole layer, no need to list the cells
+				clearDirtyCells();
+				allDirty = true;
+				isNeedUpdate = true;
+				break;
+			}
+			for (int row = dirtyRegions[r + 1]; row < dirtyRegions[r + 3]; row++) {
+				for (int col = dirtyRegions[r]; col < dirtyRegions[r + 2]; col++) {
+					setNeedUpdateAt(row * width + col);
+				}
+			}
+		}
+		dirtyRegionCount = 0;
+		dirtyRegionArea = 0;
+	}
+
+	/**
+	 * Returns the number of cells changed since the last
+	 * {@link #clearDirtyCells()}. The map renderer only updates these cells
+	 * instead of checking every cell of the layer. The regions changed by
+	 * {@link #setGids} and {@link #fill} are added to the list here, so call
+	 * it before {@link #getDirtyX(int)} and {@link #getDirtyY(int)}.
+	 * 
+	 * @return the number of changed cells
+	 */
+	public int getDirtyCount() {
+		flushDirtyRegions();
+		return allDirty ? gids.length : dirtyCount;
+	}
+
+	/**
+	 * @param i
+	 *            index in the list of changed cells
+	 * @return Tile-space x coordinate of the i-th changed cell
+	 */
+	public int getDirtyX(int i) {
+		return (allDirty ? i : dirtyCells[i]) % width + x;
+	}
+
+	/**
+	 * @param i
+	 *            index in the list of changed cells
+	 * @return Tile-space y coordinate of the i-th changed cell
+	 */
+	public int getDirtyY(int i) {
+		return (allDirty ? i : dirtyCells[i]) / width + y;
+	}
+
+	/**
+	 * Forget the changed cells. It's called by the map renderer when they are
+	 * updated.
+	 */
+	public void clearDirtyCells() {
+		for (int i = 0; i < dirtyCount; i++) {
+			needUpdateSpatial[dirtyCells[i]] = false;
+		}
+		dirtyCount = 0;
+		dirtyRegionCount = 0;
+		dirtyRegionArea = 0;
+		allDirty = false;
 	}
 	
+	/**
+	 * Returns the properties of the tile instance at the specified position.
+	 * It doesn't allocate memory, and the properties can't be changed.
+	 * 
+	 * @param x
+	 *            Tile-space x coordinate
+	 * @param y
+	 *            Tile-space y coordinate
+	 * @return the properties, or null if there are none or (x, y) is outside
+	 *         this layer
+	 */
+	public TileProperties getTilePropertiesAt(int x, int y) {
+		if (!contains(x, y)) {
+			return null;
+		}
+		return tileInstanceProperties.get(cellKey(x, y));
+	}
+
+	/**
+	 * Sets the properties of the tile instance at the specified position. Does
+	 * nothing if (x, y) falls outside of this layer.
+	 * 
+	 * @param x
+	 *            Tile-space x coordinate
+	 * @param y
+	 *            Tile-space y coordinate
+	 * @param props
+	 *            the properties, null to remove them
+	 */
+	public void setTilePropertiesAt(int x, int y, TileProperties props) {
+		if (contains(x, y)) {
+			tileInstanceProperties.put(cellKey(x, y), props);
+		}
+	}
+
 	/**
 	 * <p>
 	 * getTileInstancePropertiesAt.
@@ -235,14 +871,14 @@ public class TileLayer extends Layer {
 	 *            a int.
 	 * @param y
 	 *            a int.
-	 * @return a {@link java.util.Properties} object.
+	 * @return a new {@link java.util.Properties} object.
+	 * @deprecated use {@link #getTilePropertiesAt(int, int)}, it doesn't copy
+	 *             the properties.
 	 */
+	@Deprecated
 	public Properties getTileInstancePropertiesAt(int x, int y) {
-		if (!contains(x, y)) {
-			return null;
-		}
-		Object key = new Point(x, y);
-		return tileInstanceProperties.get(key);
+		TileProperties props = getTilePropertiesAt(x, y);
+		return props == null ? null : props.toProperties();
 	}
 
 	/**
@@ -255,13 +891,17 @@ public class TileLayer extends Layer {
 	 * @param y
 	 *            a int.
 	 * @param tip
-	 *            a {@link java.util.Properties} object.
+	 *            a {@link java.util.Properties} object, it is copied.
+	 * @deprecated use
+	 *             {@link #setTilePropertiesAt(int, int, TileProperties)}
 	 */
+	@Deprecated
 	public void setTileInstancePropertiesAt(int x, int y, Properties tip) {
-		if (contains(x, y)) {
-			Object key = new Point(x, y);
-			tileInstanceProperties.put(key, tip);
-		}
+		setTilePropertiesAt(x, y, tip == null ? null : new TileProperties(tip));
+	}
+
+	private static long cellKey(int x, int y) {
+		return (long) x << 32 | (y & 0xFFFFFFFFL);
 	}
 	
 }
@@ -0,0 +1,233 @@
+package com.jme3.tmx.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.jme3.math.ColorRGBA;
+
+/**
+ * The custom properties of a tile instance, see
+ * {@link TileLayer#getTilePropertiesAt(int, int)}.
+ *
+ * The properties can't be changed once created, so they are read from any
+ * thread without a lock. The names are kept sorted in an array, and a value is
+ * found with a binary search without allocating memory. The values keep the
+ * type given in the tmx file: String, Integer, Float, Boolean or ColorRGBA.
+ * ColorRGBA can be changed, so the colors are copied when they are stored and
+ * when they are returned.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public final class TileProperties {
+
+	public final static TileProperties EMPTY = new TileProperties(new String[0], new Object[0]);
+
+	private final String[] names;
+	private final Object[] values;
+
+	private TileProperties(String[] names, Object[] values) {
+		this.names = names;
+		this.values = values;
+	}
+
+	/**
+	 * Copy the properties read by the loader. The keys which are not Strings
+	 * are ignored.
+	 *
+	 * @param props
+	 *            the properties, may be null.
+	 */
+	public TileProperties(Properties props) {
+		List<Map.Entry<Object, Object>> entries = new ArrayList<Map.Entry<Object, Object>>();
+		if (props != null) {
+			for (Map.Entry<Object, Object> e : props.entrySet()) {
+				if (e.getKey() instanceof String) {
+					entries.add(e);
+				}
+			}
+		}
+		Collections.sort(entries, new Comparator<Map.Entry<Object, Object>>() {
+			@Override
+			public int compare(Map.Entry<Object, Object> a, Map.Entry<Object, Object> b) {
+				return ((String) a.getKey()).compareTo((String) b.getKey());
+			}
+		});
+
+		names = new String[entries.size()];
+		values = new Object[entries.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = (String) entries.get(i).getKey();
+			values[i] = copy(entries.get(i).getValue());
+		}
+	}
+
+	/**
+	 * @return a copy of the value if it can be changed, the value otherwise.
+	 */
+	private static Object copy(Object value) {
+		return value instanceof ColorRGBA ? ((ColorRGBA) value).clone() : value;
+	}
+
+	/**
+	 * @return the number of properties
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @param i
+	 *            index of the property, the names are sorted
+	 * @return the name of the i-th property
+	 */
+	public String getName(int i) {
+		return names[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of the property, the names are sorted
+	 * @return the value of the i-th property, a copy for a color
+	 */
+	public Object getValue(int i) {
+		return copy(values[i]);
+	}
+
+	public boolean contains(String name) {
+		return Arrays.binarySearch(names, name) >= 0;
+	}
+
+	/**
+	 * @param name
+	 *            name of the property
+	 * @return the value, a copy for a color, or null if there is no such
+	 *         property
+	 */
+	public Object get(String name) {
+		return copy(find(name));
+	}
+
+	/**
+	 * @return the stored value, or null if there is no such property
+	 */
+	private Object find(String name) {
+		final int i = Arrays.binarySearch(names, name);
+		return i < 0 ? null : values[i];
+	}
+
+	public String getString(String name, String defaultValue) {
+		Object value = find(name);
+		return value == null ? defaultValue : value.toString();
+	}
+
+	/**
+	 * @return the value of an int property, or of a string one which is a
+	 *         number. defaultValue otherwise.
+	 */
+	public int getInt(String name, int defaultValue) {
+		Object value = find(name);
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Integer.parseInt((String) value);
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @return the value of a float property, or of a string one which is a
+	 *         number. defaultValue otherwise.
+	 */
+	public float getFloat(String name, float defaultValue) {
+		Object value = find(name);
+		if (value instanceof Number) {
+			return ((Number) value).floatValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Float.parseFloat((String) value);
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @return the value of a bool property, or of a string one which is
+	 *         "true" or "false". defaultValue otherwise.
+	 */
+	public boolean getBoolean(String name, boolean defaultValue) {
+		Object value = find(name);
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		if ("true".equals(value)) {
+			return true;
+		}
+		if ("false".equals(value)) {
+			return false;
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @return a copy of the value of a color property, defaultValue
+	 *         otherwise.
+	 */
+	public ColorRGBA getColor(String name, ColorRGBA defaultValue) {
+		Object value = find(name);
+		return value instanceof ColorRGBA ? ((ColorRGBA) value).clone() : defaultValue;
+	}
+
+	/**
+	 * @return a new Properties object with the same properties
+	 */
+	public Properties toProperties() {
+		Properties props = new Properties();
+		for (int i = 0; i < names.length; i++) {
+			props.put(names[i], copy(values[i]));
+		}
+		return props;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TileProperties)) {
+			return false;
+		}
+		TileProperties other = (TileProperties) obj;
+		return Arrays.equals(names, other.names) && Arrays.equals(values, other.values);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(names) + Arrays.hashCode(values);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(names[i]).append('=').append(values[i]);
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -130,6 +130,17 @@ public class TiledMap extends Base {
 	private int nextObjectId;
 
 	private TreeMap<Integer, Tileset> tilesetPerFirstGid;
+
+	private final static int PAGE_BITS = 10;
+	private final static int PAGE_SIZE = 1 << PAGE_BITS;
+	private final static int PAGE_MASK = PAGE_SIZE - 1;
+
+	/**
+	 * The tiles of all tilesets indexed by gid. It's a two-level table, the
+	 * pages are only created where there are tiles, so large gaps between the
+	 * ids of image collection tilesets don't cost memory.
+	 */
+	private Tile[][] tilesPerGid = new Tile[0][];
 	private List<Tileset> tilesets;
 	private List<Layer> layers;
 
@@ -270,6 +281,27 @@ public class TiledMap extends Base {
 		return null;
 	}
 
+	/**
+	 * Find an object in all the object layers of this map.
+	 * 
+	 * @param id
+	 *            the unique id of the object
+	 * @return the object, or null if there is no object with this id.
+	 */
+	public ObjectNode getObjectById(int id) {
+		int len = layers.size();
+		for (int i = 0; i < len; i++) {
+			Layer layer = layers.get(i);
+			if (layer instanceof ObjectLayer) {
+				ObjectNode obj = ((ObjectLayer) layer).get(id);
+				if (obj != null) {
+					return obj;
+				}
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Adds a Tileset to this Map. If the set is already attached to this map,
 	 * <code>addTileset</code> simply returns.
@@ -299,11 +331,15 @@ public class TiledMap extends Base {
 		}
 
 		tilesets.add(tileset);
+		updateTileTable();
 	}
 
 	/**
 	 * Removes a {@link com.jme3.tmx.core.Tileset} from the map, and removes any tiles
-	 * in the set from the map layers.
+	 * in the set from the map layers. The cells are found by their gid, from
+	 * the firstgid of the tileset to its last tile, in one pass over each
+	 * layer. It only visits the cells of these tiles in the layers which are
+	 * indexed, see {@link TileLayer#removeGids(int, int)}.
 	 * 
 	 * @param tileset
 	 *            TileSet to remove
@@ -315,16 +351,62 @@ public class TiledMap extends Base {
 			return;
 		}
 
-		// Go through the map and remove any instances of the tiles in the set
-		for (Tile tile : tileset) {
-			for (Layer ml : layers) {
-				if (ml instanceof TileLayer) {
-					((TileLayer) ml).removeTile(tile);
-				}
+		// Go through the map and remove any instances of the tiles in the set,
+		// the gids of a later tileset are not its own.
+		final int firstgid = tileset.getFirstgid();
+		int lastgid = firstgid + tileset.getMaxTileId();
+		Integer next = tilesetPerFirstGid.higherKey(firstgid);
+		if (next != null && tilesetPerFirstGid.get(firstgid) == tileset) {
+			lastgid = Math.min(lastgid, next - 1);
+		}
+		for (Layer ml : layers) {
+			if (ml instanceof TileLayer) {
+				((TileLayer) ml).removeGids(firstgid, lastgid);
 			}
 		}
 
 		tilesets.remove(tileset);
+		if (tilesetPerFirstGid.get(tileset.getFirstgid()) == tileset) {
+			tilesetPerFirstGid.remove(tileset.getFirstgid());
+		}
+		updateTileTable();
+	}
+
+	/**
+	 * Rebuild the gid lookup table used by {@link #getTileForTileGID(int)}.
+	 * It's called by addTileset and removeTileset, call it again if tiles are
+	 * added to a tileset after it was added to this map.
+	 */
+	public void updateTileTable() {
+		int maxGid = 0;
+		for (java.util.Map.Entry<Integer, Tileset> e : tilesetPerFirstGid.entrySet()) {
+			for (Tile tile : e.getValue()) {
+				if (tile != null && tile.getId() >= 0) {
+					maxGid = Math.max(maxGid, e.getKey() + tile.getId());
+				}
+			}
+		}
+
+		Tile[][] table = new Tile[(maxGid >> PAGE_BITS) + 1][];
+
+		// ascending firstgid, a later tileset hides the tiles of the former
+		// one, the same as floorEntry() does.
+		for (java.util.Map.Entry<Integer, Tileset> e : tilesetPerFirstGid.entrySet()) {
+			final int firstgid = e.getKey();
+			for (Tile tile : e.getValue()) {
+				if (tile == null || tile.getId() < 0) {
+					continue;
+				}
+				final int gid = firstgid + tile.getId();
+				Tile[] page = table[gid >> PAGE_BITS];
+				if (page == null) {
+					page = table[gid >> PAGE_BITS] = new Tile[PAGE_SIZE];
+				}
+				page[gid & PAGE_MASK] = tile;
+			}
+		}
+
+		tilesPerGid = table;
 	}
 
 	/**
@@ -336,19 +418,6 @@ public class TiledMap extends Base {
 		return tilesets;
 	}
 	
-	/**
-	 * Get the tile set and its corresponding firstgid that matches the given
-	 * global tile id.
-	 * 
-	 * @param gid
-	 *            a global tile id
-	 * @return the tileset containing the tile with the given global tile id, or
-	 *         <code>null</code> when no such tileset exists
-	 */
-	private java.util.Map.Entry<Integer, Tileset> findTileSetForTileGID(int gid) {
-		return tilesetPerFirstGid.floorEntry(gid);
-	}
-
 	private void setFirstGidForTileset(Tileset tileset, int firstGid) {
 		tilesetPerFirstGid.put(firstGid, tileset);
 	}
@@ -372,9 +441,14 @@ public class TiledMap extends Base {
 		
 		Tile tile = getTileForTileGID(gid);
 		if (tile != null) {
-			Tile t = tile.clone();
-			t.setGid(tileId);
-			ml.setTileAt(x, y, t);
+			if (ml.isFlyweight()) {
+				// the layer keeps only the gid, no need to clone the tile.
+				ml.setGidAt(x, y, tileId);
+			} else {
+				Tile t = tile.clone();
+				t.setGid(tileId);
+				ml.setTileAt(x, y, t);
+			}
 		}
 	}
 	
@@ -389,17 +463,21 @@ public class TiledMap extends Base {
 	 *         </ul>
 	 */
 	public Tile getTileForTileGID(final int gid) {
-
-		Tile tile = null;
-		java.util.Map.Entry<Integer, Tileset> ts = findTileSetForTileGID(gid);
-		if (ts != null) {
-			tile = ts.getValue().getTile(gid - ts.getKey());
+		if (gid <= 0) {
+			return null;
 		}
-		
-		if (gid > 0 && tile == null) {
-			logger.warning("can find tile with gid:" + gid);
+
+		final Tile[][] table = tilesPerGid;
+		final int p = gid >> PAGE_BITS;
+		if (p < table.length && table[p] != null) {
+			Tile tile = table[p][gid & PAGE_MASK];
+			if (tile != null) {
+				return tile;
+			}
 		}
-		return tile;
+
+		logger.warning("can find tile with gid:" + gid);
+		return null;
 	}
 
 	/**
@@ -86,6 +86,11 @@ public class Tileset extends Base implements Iterable<Tile> {
 	private Texture texture;
 	private Material material;
 
+	/**
+	 * The tiles were packed into an atlas shared with other tilesets.
+	 */
+	private boolean isAtlas = false;
+
 	/**
 	 * This element defines an array of terrain types, which can be referenced
 	 * from the terrain attribute of the tile element.
@@ -217,6 +222,30 @@ public class Tileset extends Base implements Iterable<Tile> {
 		}
 	}
 
+	/**
+	 * Replace the image of this tileset by the atlas its tiles were packed
+	 * into, see {@link com.jme3.tmx.util.TextureAtlasBuilder}. The tiles are
+	 * not cut again, their x and y must be moved into the atlas already.
+	 * 
+	 * @param texture
+	 *            the atlas
+	 * @param material
+	 *            the material of the atlas
+	 */
+	public void setAtlas(Texture texture, Material material) {
+		this.texture = texture;
+		this.material = material;
+		this.isAtlas = true;
+	}
+
+	/**
+	 * @return true if the tiles are in an atlas instead of a grid of the
+	 *         tileset image.
+	 */
+	public boolean isAtlas() {
+		return isAtlas;
+	}
+
 	public Material getMaterial() {
 		return material;
 	}
@@ -330,11 +359,10 @@ public class Tileset extends Base implements Iterable<Tile> {
 	 *         tile exists with that id
 	 */
 	public Tile getTile(int i) {
-		try {
-			return tiles.get(i);
-		} catch (IndexOutOfBoundsException a) {
+		if (i < 0 || i >= tiles.size()) {
+			return null;
 		}
-		return null;
+		return tiles.get(i);
 	}
 
 	/**
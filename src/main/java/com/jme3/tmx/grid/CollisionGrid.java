@@ -0,0 +1,248 @@
+package com.jme3.tmx.grid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.core.TileLayer;
+import com.jme3.tmx.core.TiledMap;
+import com.jme3.tmx.math2d.Rectangle;
+import com.jme3.util.IntMap;
+
+/**
+ * The solid cells of a TileLayer, one bit for each cell.
+ *
+ * The solid cells can be merged into a few rectangles, so a physics engine
+ * gets one static body for each rectangle instead of one for each tile.
+ *
+ * <pre>
+ * CollisionGrid grid = CollisionGrid.create(layer, CollisionGrid.property(&quot;collides&quot;, &quot;true&quot;));
+ * for (Rectangle r : grid.getRectangles()) {
+ * 	// r is in tiles
+ * }
+ * </pre>
+ *
+ * The coordinates are the ones of the cells in the layer, from (0, 0) at the
+ * top-left corner.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class CollisionGrid {
+
+	private final int width;
+	private final int height;
+
+	/**
+	 * The cells row by row, 64 cells in each long.
+	 */
+	private final long[] bits;
+
+	/**
+	 * Create an empty grid.
+	 *
+	 * @param width
+	 *            width in cells
+	 * @param height
+	 *            height in cells
+	 */
+	public CollisionGrid(int width, int height) {
+		if (width < 0 || height < 0) {
+			throw new IllegalArgumentException("Negative size: " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		this.bits = new long[(int) (((long) width * height + 63) >>> 6)];
+	}
+
+	/**
+	 * Find the solid cells of a layer. The predicate is tested once for each
+	 * tile used by the layer, the flip flags are ignored.
+	 *
+	 * @param layer
+	 *            the tile layer
+	 * @param predicate
+	 *            tells which tiles are solid
+	 * @return the grid, with the size of the layer
+	 */
+	public static CollisionGrid create(TileLayer layer, TilePredicate predicate) {
+		final int w = layer.getWidth();
+		final int h = layer.getHeight();
+		final int x0 = layer.getX();
+		final int y0 = layer.getY();
+		final TiledMap map = layer.getMap();
+
+		CollisionGrid grid = new CollisionGrid(w, h);
+		IntMap<Boolean> results = new IntMap<Boolean>();
+
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int gid = layer.getGidAt(x + x0, y + y0) & ~Tile.FLIPPED_MASK;
+				if (gid == 0) {
+					continue;
+				}
+
+				Boolean solid = results.get(gid);
+				if (solid == null) {
+					Tile tile = map != null ? map.getTileForTileGID(gid) : layer.getTileAt(x + x0, y + y0);
+					solid = tile != null && predicate.test(tile) ? Boolean.TRUE : Boolean.FALSE;
+					results.put(gid, solid);
+				}
+				if (solid) {
+					grid.set(y * w + x);
+				}
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * A predicate testing a property of the tiles.
+	 *
+	 * @param name
+	 *            name of the property
+	 * @param value
+	 *            the value it must have
+	 * @return the predicate
+	 */
+	public static TilePredicate property(final String name, final String value) {
+		return new TilePredicate() {
+			@Override
+			public boolean test(Tile tile) {
+				return tile.hasProperties() && value.equals(tile.getProperties().getProperty(name));
+			}
+		};
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean contains(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	/**
+	 * @param x
+	 *            x of the cell
+	 * @param y
+	 *            y of the cell
+	 * @return true if the cell is solid, or outside of the grid.
+	 */
+	public boolean isSolid(int x, int y) {
+		if (!contains(x, y)) {
+			return true;
+		}
+		return get(y * width + x);
+	}
+
+	/**
+	 * Set a cell solid or not. Does nothing if the cell is outside of the
+	 * grid.
+	 *
+	 * @param x
+	 *            x of the cell
+	 * @param y
+	 *            y of the cell
+	 * @param solid
+	 *            true if the cell is solid
+	 */
+	public void setSolid(int x, int y, boolean solid) {
+		if (!contains(x, y)) {
+			return;
+		}
+		final int i = y * width + x;
+		if (solid) {
+			set(i);
+		} else {
+			bits[i >>> 6] &= ~(1L << i);
+		}
+	}
+
+	/**
+	 * @return the number of solid cells
+	 */
+	public int getSolidCount() {
+		int count = 0;
+		for (int i = 0; i < bits.length; i++) {
+			count += Long.bitCount(bits[i]);
+		}
+		return count;
+	}
+
+	/**
+	 * Merge the solid cells into rectangles. The rows are scanned from the
+	 * top, each free run of solid cells is taken as wide as possible, then
+	 * grown down while the rows below are solid under the whole run.
+	 *
+	 * The rectangles don't overlap and cover all the solid cells. It's not
+	 * always the fewest rectangles, but it's close and fast.
+	 *
+	 * @return the rectangles, in cells
+	 */
+	public List<Rectangle> getRectangles() {
+		List<Rectangle> list = new ArrayList<Rectangle>();
+		final long[] used = new long[bits.length];
+
+		for (int y = 0; y < height; y++) {
+			int x = 0;
+			while (x < width) {
+				if (!isFree(used, y * width + x)) {
+					x++;
+					continue;
+				}
+
+				// the run
+				int x1 = x + 1;
+				while (x1 < width && isFree(used, y * width + x1)) {
+					x1++;
+				}
+
+				// grow down
+				int y1 = y + 1;
+				while (y1 < height && isRowFree(used, x, x1, y1)) {
+					y1++;
+				}
+
+				for (int ty = y; ty < y1; ty++) {
+					for (int tx = x; tx < x1; tx++) {
+						int i = ty * width + tx;
+						used[i >>> 6] |= 1L << i;
+					}
+				}
+
+				list.add(new Rectangle(x, y, x1 - x, y1 - y));
+				x = x1;
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * A solid cell not in a rectangle yet.
+	 */
+	private boolean isFree(long[] used, int i) {
+		return ((bits[i >>> 6] & ~used[i >>> 6]) & (1L << i)) != 0;
+	}
+
+	private boolean isRowFree(long[] used, int x0, int x1, int y) {
+		for (int x = x0; x < x1; x++) {
+			if (!isFree(used, y * width + x)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean get(int i) {
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	private void set(int i) {
+		bits[i >>> 6] |= 1L << i;
+	}
+}
@@ -0,0 +1,412 @@
+package com.jme3.tmx.grid;
+
+import java.util.BitSet;
+
+import com.jme3.tmx.core.TileLayer;
+import com.jme3.tmx.core.TiledMap;
+import com.jme3.tmx.core.TiledMap.Orientation;
+import com.jme3.tmx.math2d.Point;
+
+/**
+ * Field of view and line of sight on the opaque cells of a
+ * {@link CollisionGrid}.
+ *
+ * <ul>
+ * <li>Orthogonal and isometric maps use recursive shadowcasting for the field
+ * of view, and a DDA walk from the center of a cell to the center of another
+ * one for the rays.</li>
+ * <li>Staggered maps are the same grid turned 45 degrees, they are turned back
+ * and done the same way.</li>
+ * <li>Hexagonal maps use cube coordinates: a ray goes through the hexagons
+ * nearest to the straight line between the centers, and the field of view
+ * casts a ray to every hexagon in range.</li>
+ * </ul>
+ *
+ * The shifted rows (or columns) are the same as in
+ * {@link com.jme3.tmx.render.HexagonalRenderer}. An opaque cell is visible
+ * itself, but hides what's behind it. Nothing is allocated by the queries.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class FieldOfView {
+
+	/**
+	 * The multipliers to turn the first octant into the 8 others.
+	 */
+	private final static int[][] OCTANTS = {
+			{ 1, 0, 0, -1, -1, 0, 0, 1 },
+			{ 0, 1, -1, 0, 0, -1, 1, 0 },
+			{ 0, 1, 1, 0, 0, -1, -1, 0 },
+			{ 1, 0, 0, 1, -1, 0, 0, -1 } };
+
+	private final CollisionGrid grid;
+	private final GridTopology topology;
+	private final int width;
+
+	private final boolean isDiamond;
+	private final boolean isHex;
+	private final boolean staggerX;
+	private final int shift0;
+
+	// the last cell found by cellOf()
+	private int cellX, cellY;
+
+	/**
+	 * @param map
+	 *            the map giving the orientation of the grid
+	 * @param opaque
+	 *            the cells which block the view
+	 */
+	public FieldOfView(TiledMap map, CollisionGrid opaque) {
+		this(new GridTopology(map, false), opaque);
+	}
+
+	/**
+	 * See through the cells of a layer, the cells are opaque if the predicate
+	 * says so.
+	 *
+	 * @param layer
+	 *            a tile layer of a map
+	 * @param opaque
+	 *            tells which tiles block the view
+	 */
+	public FieldOfView(TileLayer layer, TilePredicate opaque) {
+		this(layer.getMap(), CollisionGrid.create(layer, opaque));
+	}
+
+	public FieldOfView(GridTopology topology, CollisionGrid opaque) {
+		this.grid = opaque;
+		this.topology = topology;
+		this.width = opaque.getWidth();
+
+		this.isDiamond = topology.getOrientation() == Orientation.STAGGERED;
+		this.isHex = topology.getOrientation() == Orientation.HEXAGONAL;
+		this.staggerX = topology.isStaggerX();
+		this.shift0 = topology.isShifted(0, 0) ? 1 : 0;
+	}
+
+	public CollisionGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Find the cells seen from a cell.
+	 *
+	 * @param x
+	 *            x of the eye
+	 * @param y
+	 *            y of the eye
+	 * @param radius
+	 *            how far the eye sees, in cells
+	 * @param store
+	 *            it is cleared, then the bit (y * width + x) of every visible
+	 *            cell is set.
+	 * @return the store
+	 */
+	public BitSet compute(int x, int y, int radius, BitSet store) {
+		store.clear();
+		if (!grid.contains(x, y)) {
+			return store;
+		}
+		store.set(y * width + x);
+
+		if (isHex) {
+			computeHex(x, y, radius, store);
+			return store;
+		}
+
+		final int u = isDiamond ? toU(x, y) : x;
+		final int v = isDiamond ? toV(x, y) : y;
+		for (int i = 0; i < 8; i++) {
+			castLight(u, v, 1, 1.0f, 0.0f, radius, OCTANTS[0][i], OCTANTS[1][i], OCTANTS[2][i], OCTANTS[3][i],
+					store);
+		}
+		return store;
+	}
+
+	/**
+	 * Tell if a cell can be seen from another one.
+	 *
+	 * @return true if no opaque cell is between them.
+	 */
+	public boolean isVisible(int x0, int y0, int x1, int y1) {
+		return !raycast(x0, y0, x1, y1, null, false);
+	}
+
+	/**
+	 * Walk from a cell to another one, and stop at the first opaque cell.
+	 *
+	 * @param x0
+	 *            x of the start
+	 * @param y0
+	 *            y of the start
+	 * @param x1
+	 *            x of the end
+	 * @param y1
+	 *            y of the end
+	 * @param hit
+	 *            the opaque cell that was hit, may be null.
+	 * @return true if an opaque cell was hit, the start is not tested.
+	 */
+	public boolean raycast(int x0, int y0, int x1, int y1, Point hit) {
+		return raycast(x0, y0, x1, y1, hit, true);
+	}
+
+	/**
+	 * @param includeEnd
+	 *            true to test the end cell too
+	 */
+	private boolean raycast(int x0, int y0, int x1, int y1, Point hit, boolean includeEnd) {
+		if (isHex) {
+			return raycastHex(x0, y0, x1, y1, hit, includeEnd);
+		}
+
+		final int u0 = isDiamond ? toU(x0, y0) : x0;
+		final int v0 = isDiamond ? toV(x0, y0) : y0;
+		final int u1 = isDiamond ? toU(x1, y1) : x1;
+		final int v1 = isDiamond ? toV(x1, y1) : y1;
+
+		// DDA from the center of a cell to the center of the other one
+		final int du = Math.abs(u1 - u0);
+		final int dv = Math.abs(v1 - v0);
+		final int su = u1 > u0 ? 1 : -1;
+		final int sv = v1 > v0 ? 1 : -1;
+
+		int u = u0, v = v0;
+		// compare (i + 0.5) / du with (j + 0.5) / dv without dividing
+		int i = 0, j = 0;
+		while (i < du || j < dv) {
+			long cmp = (long) (2 * i + 1) * dv - (long) (2 * j + 1) * du;
+			if (cmp == 0) {
+				// through a corner, blocked if both sides are opaque
+				boolean a = isOpaque(u + su, v);
+				boolean b = isOpaque(u, v + sv);
+				if (a && b) {
+					return stop(u + su, v, hit);
+				}
+				u += su;
+				v += sv;
+				i++;
+				j++;
+			} else if (cmp < 0) {
+				u += su;
+				i++;
+			} else {
+				v += sv;
+				j++;
+			}
+
+			if ((includeEnd || u != u1 || v != v1) && isOpaque(u, v)) {
+				return stop(u, v, hit);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Recursive shadowcasting of an octant, the slopes go from start down to
+	 * end.
+	 */
+	private void castLight(int cx, int cy, int row, float start, float end, int radius, int xx, int xy, int yx,
+			int yy, BitSet store) {
+		if (start < end) {
+			return;
+		}
+		final int radiusSq = radius * radius;
+		float newStart = 0.0f;
+		for (int j = row; j <= radius; j++) {
+			int dx = -j - 1;
+			int dy = -j;
+			boolean blocked = false;
+			while (dx <= 0) {
+				dx++;
+				int x = cx + dx * xx + dy * xy;
+				int y = cy + dx * yx + dy * yy;
+				float leftSlope = (dx - 0.5f) / (dy + 0.5f);
+				float rightSlope = (dx + 0.5f) / (dy - 0.5f);
+				if (start < rightSlope) {
+					continue;
+				} else if (end > leftSlope) {
+					break;
+				}
+
+				if (dx * dx + dy * dy <= radiusSq) {
+					mark(x, y, store);
+				}
+
+				boolean opaque = isOpaque(x, y);
+				if (blocked) {
+					if (opaque) {
+						newStart = rightSlope;
+						continue;
+					} else {
+						blocked = false;
+						start = newStart;
+					}
+				} else if (opaque && j < radius) {
+					blocked = true;
+					castLight(cx, cy, j + 1, start, leftSlope, radius, xx, xy, yx, yy, store);
+					newStart = rightSlope;
+				}
+			}
+			if (blocked) {
+				break;
+			}
+		}
+	}
+
+	private void computeHex(int x, int y, int radius, BitSet store) {
+		final int q0 = toQ(x, y);
+		final int r0 = toR(x, y);
+		for (int dq = -radius; dq <= radius; dq++) {
+			int rMin = Math.max(-radius, -dq - radius);
+			int rMax = Math.min(radius, -dq + radius);
+			for (int dr = rMin; dr <= rMax; dr++) {
+				int cell = cellOfCube(q0 + dq, r0 + dr);
+				if (cell < 0) {
+					continue;
+				}
+				if (!raycastHex(x, y, cellX, cellY, null, false)) {
+					store.set(cell);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walk through the hexagons nearest to the line between the centers.
+	 */
+	private boolean raycastHex(int x0, int y0, int x1, int y1, Point hit, boolean includeEnd) {
+		final int q0 = toQ(x0, y0);
+		final int r0 = toR(x0, y0);
+		final int q1 = toQ(x1, y1);
+		final int r1 = toR(x1, y1);
+		final int n = (Math.abs(q1 - q0) + Math.abs(r1 - r0) + Math.abs(q1 - q0 + r1 - r0)) / 2;
+
+		final int last = includeEnd ? n : n - 1;
+		for (int i = 1; i <= last; i++) {
+			// nudge the line, so it never goes exactly between two hexagons
+			float t = (float) i / n;
+			float q = q0 + 1e-4f + (q1 - q0) * t;
+			float r = r0 + 2e-4f + (r1 - r0) * t;
+			float s = -q0 - r0 - 3e-4f + (q0 + r0 - q1 - r1) * t;
+
+			int rq = Math.round(q);
+			int rr = Math.round(r);
+			int rs = Math.round(s);
+			float dq = Math.abs(rq - q);
+			float dr = Math.abs(rr - r);
+			float ds = Math.abs(rs - s);
+			if (dq > dr && dq > ds) {
+				rq = -rr - rs;
+			} else if (dr > ds) {
+				rr = -rq - rs;
+			}
+
+			// outside of the grid is opaque
+			if (cellOfCube(rq, rr) < 0 || grid.isSolid(cellX, cellY)) {
+				if (hit != null) {
+					hit.setLocation(cellX, cellY);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean stop(int u, int v, Point hit) {
+		if (hit != null) {
+			if (isDiamond) {
+				cellOf(u, v);
+				hit.setLocation(cellX, cellY);
+			} else {
+				hit.setLocation(u, v);
+			}
+		}
+		return true;
+	}
+
+	private boolean isOpaque(int u, int v) {
+		if (!isDiamond) {
+			return grid.isSolid(u, v);
+		}
+		return cellOf(u, v) < 0 || grid.isSolid(cellX, cellY);
+	}
+
+	private void mark(int u, int v, BitSet store) {
+		if (!isDiamond) {
+			if (grid.contains(u, v)) {
+				store.set(v * width + u);
+			}
+		} else {
+			int cell = cellOf(u, v);
+			if (cell >= 0) {
+				store.set(cell);
+			}
+		}
+	}
+
+	/*
+	 * The staggered axis is doubled, so the shifted cells are at odd
+	 * positions. On a staggered map, u and v are the axes of the diamonds. On
+	 * a hexagonal map, q and r are the axial (cube) coordinates.
+	 */
+
+	private int doubled(int x, int y) {
+		return staggerX ? 2 * y + (topology.isShifted(x, y) ? 1 : 0) : 2 * x + (topology.isShifted(x, y) ? 1 : 0);
+	}
+
+	private int toU(int x, int y) {
+		return (doubled(x, y) + (staggerX ? x : y) - shift0) / 2;
+	}
+
+	private int toV(int x, int y) {
+		return ((staggerX ? x : y) - doubled(x, y) + shift0) / 2;
+	}
+
+	/**
+	 * Find the cell of (u, v), keep it in cellX and cellY.
+	 *
+	 * @return the index of the cell, or -1 if it's outside of the grid.
+	 */
+	private int cellOf(int u, int v) {
+		int major = u + v;
+		int d = u - v + shift0;
+		int minor;
+		if (staggerX) {
+			minor = (d - (topology.isShifted(major, 0) ? 1 : 0)) / 2;
+			cellX = major;
+			cellY = minor;
+		} else {
+			minor = (d - (topology.isShifted(0, major) ? 1 : 0)) / 2;
+			cellX = minor;
+			cellY = major;
+		}
+		return grid.contains(cellX, cellY) ? cellY * width + cellX : -1;
+	}
+
+	private int toQ(int x, int y) {
+		return staggerX ? x : (doubled(x, y) - y - shift0) / 2;
+	}
+
+	private int toR(int x, int y) {
+		return staggerX ? (doubled(x, y) - x - shift0) / 2 : y;
+	}
+
+	/**
+	 * Find the cell of (q, r), keep it in cellX and cellY.
+	 *
+	 * @return the index of the cell, or -1 if it's outside of the grid.
+	 */
+	private int cellOfCube(int q, int r) {
+		if (staggerX) {
+			cellX = q;
+			cellY = (2 * r + q + shift0 - (topology.isShifted(q, 0) ? 1 : 0)) / 2;
+		} else {
+			cellY = r;
+			cellX = (2 * q + r + shift0 - (topology.isShifted(0, r) ? 1 : 0)) / 2;
+		}
+		return grid.contains(cellX, cellY) ? cellY * width + cellX : -1;
+	}
+}
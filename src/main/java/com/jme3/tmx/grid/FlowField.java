@@ -0,0 +1,622 @@
+package com.jme3.tmx.grid;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.core.TileLayer;
+import com.jme3.tmx.core.TiledMap;
+import com.jme3.util.IntMap;
+
+/**
+ * The distance from every cell to the nearest of some goals, and the
+ * neighbour to walk to from every cell. Any number of agents can follow the
+ * field to the goals, each of them just reads {@link #getNext(int, int)}.
+ *
+ * The distances are found by a Dijkstra search from all the goals at once,
+ * with a bucket queue. Moving onto a cell costs 10 times its cost through an
+ * edge and 14 times through a corner. Changing the cost of a cell only
+ * updates the cells whose distance depended on it.
+ *
+ * <pre>
+ * FlowField field = new FlowField(layer, cost, false);
+ * field.addGoal(10, 10);
+ * field.build();
+ * // every frame, for every agent
+ * int next = field.getNext(x, y);
+ * // when the layer was changed
+ * field.refresh();
+ * </pre>
+ *
+ * The distances are ints, so the costs of a path must stay below
+ * Integer.MAX_VALUE.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class FlowField {
+
+	/**
+	 * The cost of a cell that can't be walked on.
+	 */
+	public final static int BLOCKED = 0;
+
+	/**
+	 * The highest cost of a cell.
+	 */
+	public final static int MAX_COST = 255;
+
+	/**
+	 * The distance of a cell which can't reach a goal.
+	 */
+	public final static int UNREACHABLE = Integer.MAX_VALUE;
+
+	/**
+	 * The weight of a move through an edge, and through a corner.
+	 */
+	private final static int EDGE = 10;
+	private final static int CORNER = 14;
+
+	private final GridTopology topology;
+	private final int width;
+	private final int height;
+
+	private final int[] costs;
+	private final CollisionGrid blocked;
+
+	/**
+	 * The same size without solid cells, to find the cells around another
+	 * one whatever is blocked.
+	 */
+	private final CollisionGrid free;
+
+	private final int[] distances;
+	private final int[] flow;
+	private final boolean[] isGoal;
+	private int[] goals = new int[4];
+	private int goalCount = 0;
+	private boolean built = false;
+
+	// the bucket queue, one doubly linked list for each distance
+	private int[] buckets = new int[0];
+	private final int[] nextInBucket;
+	private final int[] prevInBucket;
+	private final int[] bucketOf;
+
+	// the incremental updates
+	private NodeHeap heap;
+	private int[] region;
+	private int[] regionMarks;
+	private int regionStamp = 0;
+	private int[] changed;
+	private int changedCount;
+
+	private final int[] neighbours;
+	private final float[] moveCosts;
+	private final int[] around;
+
+	// the layer the costs come from
+	private TileLayer layer;
+	private TileCost tileCost;
+	private int[] gids;
+	private IntMap<Integer> costPerGid;
+
+	private int parallelism = 1;
+
+	/**
+	 * The threads which find the flow, made by the first parallel build and
+	 * kept for the next ones. Its threads are daemons and stop when idle.
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * An empty field, every cell costs 1. Use
+	 * {@link #setCost(int, int, int)} to change it.
+	 *
+	 * @param topology
+	 *            the neighbours of the cells
+	 * @param width
+	 *            width in cells
+	 * @param height
+	 *            height in cells
+	 */
+	public FlowField(GridTopology topology, int width, int height) {
+		this.topology = topology;
+		this.width = width;
+		this.height = height;
+
+		final int size = width * height;
+		costs = new int[size];
+		Arrays.fill(costs, 1);
+		blocked = new CollisionGrid(width, height);
+		free = new CollisionGrid(width, height);
+
+		distances = new int[size];
+		Arrays.fill(distances, UNREACHABLE);
+		flow = new int[size];
+		Arrays.fill(flow, -1);
+		isGoal = new boolean[size];
+
+		nextInBucket = new int[size];
+		prevInBucket = new int[size];
+		bucketOf = new int[size];
+		Arrays.fill(bucketOf, -1);
+
+		neighbours = new int[topology.getMaxNeighbours()];
+		moveCosts = new float[topology.getMaxNeighbours()];
+		around = new int[topology.getMaxNeighbours()];
+	}
+
+	/**
+	 * A field over a tile layer, in the orientation of its map. The costs are
+	 * read again by {@link #refresh()}.
+	 *
+	 * @param layer
+	 *            the tile layer
+	 * @param tileCost
+	 *            the cost of each tile
+	 * @param diagonal
+	 *            true to allow diagonal moves
+	 */
+	public FlowField(TileLayer layer, TileCost tileCost, boolean diagonal) {
+		this(new GridTopology(layer.getMap(), diagonal), layer.getWidth(), layer.getHeight());
+		this.layer = layer;
+		this.tileCost = tileCost;
+		this.gids = new int[width * height];
+		this.costPerGid = new IntMap<Integer>();
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x;
+				gids[i] = layer.getGidAt(x + layer.getX(), y + layer.getY());
+				setCostAt(i, costOf(gids[i]));
+			}
+		}
+	}
+
+	public GridTopology getTopology() {
+		return topology;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Find the flow of the cells with several threads after a build, each
+	 * one takes a band of rows. The distances are always found by one
+	 * thread.
+	 *
+	 * @param parallelism
+	 *            number of threads, 0 means one per processor.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 0) {
+			throw new IllegalArgumentException("parallelism must not be negative: " + parallelism);
+		}
+		if (parallelism == 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		if (pool != null && pool.getParallelism() != parallelism) {
+			pool.shutdown();
+			pool = null;
+		}
+		this.parallelism = parallelism;
+	}
+
+	public void addGoal(int x, int y) {
+		if (!free.contains(x, y)) {
+			throw new IndexOutOfBoundsException("Goal out of the grid: " + x + ", " + y);
+		}
+		int i = y * width + x;
+		if (isGoal[i]) {
+			return;
+		}
+		if (goalCount == goals.length) {
+			goals = Arrays.copyOf(goals, goalCount * 2);
+		}
+		goals[goalCount++] = i;
+		isGoal[i] = true;
+		built = false;
+	}
+
+	public void clearGoals() {
+		for (int i = 0; i < goalCount; i++) {
+			isGoal[goals[i]] = false;
+		}
+		goalCount = 0;
+		built = false;
+	}
+
+	public int getCost(int x, int y) {
+		return free.contains(x, y) ? costs[y * width + x] : BLOCKED;
+	}
+
+	/**
+	 * Change the cost of a cell. If the field was built, the distances which
+	 * depended on the cell are found again. This is the cheap way to follow
+	 * the changes of a layer: call it for the cells which were changed.
+	 *
+	 * @param x
+	 *            x of the cell
+	 * @param y
+	 *            y of the cell
+	 * @param cost
+	 *            the cost from 1 to {@link #MAX_COST}, or {@link #BLOCKED}
+	 */
+	public void setCost(int x, int y, int cost) {
+		if (cost < 0 || cost > MAX_COST) {
+			throw new IllegalArgumentException("cost must be from 0 to " + MAX_COST + ": " + cost);
+		}
+		if (!free.contains(x, y)) {
+			return;
+		}
+
+		final int c = y * width + x;
+		if (costs[c] == cost) {
+			return;
+		}
+		if (!built) {
+			setCostAt(c, cost);
+			return;
+		}
+
+		changedCount = 0;
+		int count = invalidate(c, (costs[c] == BLOCKED) != (cost == BLOCKED));
+		setCostAt(c, cost);
+		repair(count);
+		updateFlow();
+	}
+
+	/**
+	 * Read the cells of the layer which were changed since the last time,
+	 * and update the distances. Only for a field made from a TileLayer.
+	 *
+	 * Every cell of the layer is read to find the changed ones, so it costs
+	 * width * height even if nothing changed. Call
+	 * {@link #setCost(int, int, int)} instead when the changed cells are
+	 * known.
+	 */
+	public void refresh() {
+		if (layer == null) {
+			throw new IllegalStateException("The field was not made from a TileLayer");
+		}
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x;
+				int gid = layer.getGidAt(x + layer.getX(), y + layer.getY());
+				if (gid != gids[i]) {
+					gids[i] = gid;
+					setCost(x, y, costOf(gid));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the distance of every cell to the goals.
+	 */
+	public void build() {
+		Arrays.fill(distances, UNREACHABLE);
+		Arrays.fill(bucketOf, -1);
+
+		int maxCost = 1;
+		for (int i = 0; i < costs.length; i++) {
+			maxCost = Math.max(maxCost, costs[i]);
+		}
+		final int bucketCount = CORNER * maxCost + 1;
+		if (buckets.length < bucketCount) {
+			buckets = new int[bucketCount];
+		}
+		Arrays.fill(buckets, 0, bucketCount, -1);
+
+		int queued = 0;
+		for (int i = 0; i < goalCount; i++) {
+			int g = goals[i];
+			if (costs[g] != BLOCKED) {
+				distances[g] = 0;
+				insert(g, 0);
+				queued++;
+			}
+		}
+
+		int current = 0;
+		while (queued > 0) {
+			int b = current % bucketCount;
+			while (buckets[b] < 0) {
+				current++;
+				b = current % bucketCount;
+			}
+			final int u = buckets[b];
+			remove(u);
+			queued--;
+
+			final int len = topology.getNeighbours(blocked, u % width, u / width, neighbours, moveCosts);
+			for (int i = 0; i < len; i++) {
+				final int v = neighbours[i];
+				final int d = distances[u] + weight(moveCosts[i]) * costs[u];
+				if (d < distances[v]) {
+					if (bucketOf[v] >= 0) {
+						remove(v);
+						queued--;
+					}
+					distances[v] = d;
+					insert(v, d % bucketCount);
+					queued++;
+				}
+			}
+		}
+
+		built = true;
+		buildFlow();
+	}
+
+	public boolean isBuilt() {
+		return built;
+	}
+
+	/**
+	 * @return the distance to the nearest goal, or {@link #UNREACHABLE}.
+	 */
+	public int getDistance(int x, int y) {
+		return free.contains(x, y) ? distances[y * width + x] : UNREACHABLE;
+	}
+
+	/**
+	 * Get the cell to walk to from a cell.
+	 *
+	 * @param x
+	 *            x of the cell
+	 * @param y
+	 *            y of the cell
+	 * @return the index (y * width + x) of the next cell, or -1 if the cell
+	 *         is a goal, or can't reach one.
+	 */
+	public int getNext(int x, int y) {
+		return free.contains(x, y) ? flow[y * width + x] : -1;
+	}
+
+	private void setCostAt(int i, int cost) {
+		if (cost < 0 || cost > MAX_COST) {
+			throw new IllegalArgumentException("cost must be from 0 to " + MAX_COST + ": " + cost);
+		}
+		costs[i] = cost;
+		blocked.setSolid(i % width, i / width, cost == BLOCKED);
+	}
+
+	private int costOf(int gid) {
+		gid &= ~Tile.FLIPPED_MASK;
+		Integer cost = costPerGid.get(gid);
+		if (cost == null) {
+			TiledMap map = layer.getMap();
+			Tile tile = gid == 0 || map == null ? null : map.getTileForTileGID(gid);
+			cost = tileCost.getCost(tile);
+			costPerGid.put(gid, cost);
+		}
+		return cost;
+	}
+
+	private static int weight(float moveCost) {
+		return moveCost > 1f ? CORNER : EDGE;
+	}
+
+	private void insert(int node, int bucket) {
+		int head = buckets[bucket];
+		nextInBucket[node] = head;
+		prevInBucket[node] = -1;
+		if (head >= 0) {
+			prevInBucket[head] = node;
+		}
+		buckets[bucket] = node;
+		bucketOf[node] = bucket;
+	}
+
+	private void remove(int node) {
+		int bucket = bucketOf[node];
+		int prev = prevInBucket[node];
+		int next = nextInBucket[node];
+		if (prev >= 0) {
+			nextInBucket[prev] = next;
+		} else {
+			buckets[bucket] = next;
+		}
+		if (next >= 0) {
+			prevInBucket[next] = prev;
+		}
+		bucketOf[node] = -1;
+	}
+
+	/**
+	 * Forget the distance of a cell and of all the cells whose best path goes
+	 * through it. The costs are still the old ones.
+	 *
+	 * @return the number of cells in the region
+	 */
+	private int invalidate(int c, boolean blockChanged) {
+		if (region == null) {
+			region = new int[costs.length];
+			regionMarks = new int[costs.length];
+			changed = new int[costs.length];
+			heap = new NodeHeap(costs.length);
+		}
+		if (++regionStamp == Integer.MAX_VALUE) {
+			Arrays.fill(regionMarks, 0);
+			regionStamp = 1;
+		}
+
+		int count = 0;
+		region[count++] = c;
+		regionMarks[c] = regionStamp;
+		if (blockChanged) {
+			// the diagonal moves beside the cell are allowed or not anymore
+			int len = topology.getNeighbours(free, c % width, c / width, neighbours, null);
+			for (int i = 0; i < len; i++) {
+				region[count++] = neighbours[i];
+				regionMarks[neighbours[i]] = regionStamp;
+			}
+		}
+
+		// the cells reached from the region
+		for (int r = 0; r < count; r++) {
+			final int u = region[r];
+			if (distances[u] == UNREACHABLE) {
+				continue;
+			}
+			final int len = topology.getNeighbours(blocked, u % width, u / width, neighbours, moveCosts);
+			for (int i = 0; i < len; i++) {
+				final int v = neighbours[i];
+				if (regionMarks[v] != regionStamp
+						&& distances[v] == distances[u] + weight(moveCosts[i]) * costs[u]) {
+					regionMarks[v] = regionStamp;
+					region[count++] = v;
+				}
+			}
+		}
+
+		for (int r = 0; r < count; r++) {
+			distances[region[r]] = UNREACHABLE;
+		}
+		return count;
+	}
+
+	/**
+	 * Find the distances of the region again, from the cells around it.
+	 */
+	private void repair(int count) {
+		heap.clear();
+		for (int r = 0; r < count; r++) {
+			final int v = region[r];
+			changed[changedCount++] = v;
+			if (costs[v] == BLOCKED) {
+				continue;
+			}
+			if (isGoal[v]) {
+				distances[v] = 0;
+				heap.push(v, 0);
+				continue;
+			}
+
+			// the neighbours are the same both ways
+			final int len = topology.getNeighbours(blocked, v % width, v / width, neighbours, moveCosts);
+			int best = UNREACHABLE;
+			for (int i = 0; i < len; i++) {
+				final int u = neighbours[i];
+				if (distances[u] != UNREACHABLE) {
+					best = Math.min(best, distances[u] + weight(moveCosts[i]) * costs[u]);
+				}
+			}
+			distances[v] = best;
+			if (best != UNREACHABLE) {
+				heap.push(v, best);
+			}
+		}
+
+		while (!heap.isEmpty()) {
+			final int u = heap.pop();
+			final int len = topology.getNeighbours(blocked, u % width, u / width, neighbours, moveCosts);
+			for (int i = 0; i < len; i++) {
+				final int v = neighbours[i];
+				final int d = distances[u] + weight(moveCosts[i]) * costs[u];
+				if (d < distances[v]) {
+					distances[v] = d;
+					heap.push(v, d);
+					if (regionMarks[v] != regionStamp) {
+						regionMarks[v] = regionStamp;
+						changed[changedCount++] = v;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the flow of the changed cells and of the cells around them.
+	 */
+	private void updateFlow() {
+		for (int i = 0; i < changedCount; i++) {
+			final int v = changed[i];
+			flow[v] = findFlow(v, neighbours, moveCosts);
+			final int len = topology.getNeighbours(free, v % width, v / width, around, null);
+			for (int j = 0; j < len; j++) {
+				final int n = around[j];
+				flow[n] = findFlow(n, neighbours, moveCosts);
+			}
+		}
+	}
+
+	private void buildFlow() {
+		if (parallelism > 1 && height > 1) {
+			if (pool == null) {
+				pool = new ForkJoinPool(parallelism);
+			}
+			pool.invoke(new FlowTask(0, height, Math.max(1, height / (parallelism * 4))));
+		} else {
+			buildFlow(0, height, neighbours, moveCosts);
+		}
+	}
+
+	private void buildFlow(int y0, int y1, int[] neighbours, float[] moveCosts) {
+		for (int i = y0 * width; i < y1 * width; i++) {
+			flow[i] = findFlow(i, neighbours, moveCosts);
+		}
+	}
+
+	/**
+	 * @return the neighbour with the least distance through it, -1 if there
+	 *         is none.
+	 */
+	private int findFlow(int v, int[] neighbours, float[] moveCosts) {
+		if (isGoal[v] || costs[v] == BLOCKED || distances[v] == UNREACHABLE) {
+			return -1;
+		}
+		final int len = topology.getNeighbours(blocked, v % width, v / width, neighbours, moveCosts);
+		int best = -1;
+		int bestDistance = UNREACHABLE;
+		for (int i = 0; i < len; i++) {
+			final int u = neighbours[i];
+			if (distances[u] == UNREACHABLE) {
+				continue;
+			}
+			final int d = distances[u] + weight(moveCosts[i]) * costs[u];
+			if (d < bestDistance) {
+				bestDistance = d;
+				best = u;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Find the flow of a band of rows, split it if it's too large.
+	 */
+	private class FlowTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int y0, y1, rows;
+
+		FlowTask(int y0, int y1, int rows) {
+			this.y0 = y0;
+			this.y1 = y1;
+			this.rows = rows;
+		}
+
+		@Override
+		protected void compute() {
+			if (y1 - y0 <= rows) {
+				int max = topology.getMaxNeighbours();
+				buildFlow(y0, y1, new int[max], new float[max]);
+			} else {
+				int mid = (y0 + y1) >>> 1;
+				invokeAll(new FlowTask(y0, mid, rows), new FlowTask(mid, y1, rows));
+			}
+		}
+	}
+}
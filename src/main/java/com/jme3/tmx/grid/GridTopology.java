@@ -0,0 +1,246 @@
+package com.jme3.tmx.grid;
+
+import com.jme3.tmx.core.TiledMap;
+import com.jme3.tmx.core.TiledMap.Orientation;
+import com.jme3.tmx.core.TiledMap.StaggerAxis;
+import com.jme3.tmx.core.TiledMap.StaggerIndex;
+
+/**
+ * Tells which cells are next to a cell, in the layout of the map.
+ *
+ * <ul>
+ * <li>Orthogonal and isometric: the 4 cells sharing an edge, and the 4 corners
+ * if diagonal moves are allowed.</li>
+ * <li>Staggered: the 4 diamonds sharing an edge, and the 4 diamonds touching a
+ * corner if diagonal moves are allowed.</li>
+ * <li>Hexagonal: the 6 hexagons sharing an edge.</li>
+ * </ul>
+ *
+ * The shifted rows (or columns) of staggered and hexagonal maps are the same
+ * as in {@link com.jme3.tmx.render.HexagonalRenderer}. A diagonal move is only
+ * allowed when both of the cells it passes between are free, so it never cuts
+ * a corner.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class GridTopology {
+
+	private final static float SQRT2 = (float) Math.sqrt(2);
+
+	private final Orientation orientation;
+	private final boolean staggerX;
+	private final int staggerIndex;
+	private final boolean diagonal;
+
+	/**
+	 * The neighbours of the cells which are not shifted [0] and which are
+	 * shifted [1]. via1 and via2 are the indices of the cells a diagonal move
+	 * passes between, -1 for a move through an edge.
+	 */
+	private final int[][] dx = new int[2][];
+	private final int[][] dy = new int[2][];
+	private final int[][] via1 = new int[2][];
+	private final int[][] via2 = new int[2][];
+	private final float[] cost;
+
+	/**
+	 * @param map
+	 *            the map giving the orientation and the stagger settings
+	 * @param diagonal
+	 *            true to allow diagonal moves, it is ignored by hexagonal
+	 *            maps.
+	 */
+	public GridTopology(TiledMap map, boolean diagonal) {
+		this(map.getOrientation(), map.getStaggerAxis(), map.getStaggerIndex(), diagonal);
+	}
+
+	public GridTopology(Orientation orientation, StaggerAxis staggerAxis, StaggerIndex staggerIndex,
+			boolean diagonal) {
+		this.orientation = orientation;
+		this.staggerX = staggerAxis == StaggerAxis.X;
+		this.staggerIndex = staggerIndex == StaggerIndex.EVEN ? 0 : 1;
+		this.diagonal = diagonal && orientation != Orientation.HEXAGONAL;
+
+		switch (orientation) {
+		case STAGGERED:
+		case HEXAGONAL:
+			for (int s = 0; s < 2; s++) {
+				buildStaggered(s);
+			}
+			break;
+		default:
+			// orthogonal and isometric: N, E, S, W, NE, SE, SW, NW
+			dx[0] = dx[1] = new int[] { 0, 1, 0, -1, 1, 1, -1, -1 };
+			dy[0] = dy[1] = new int[] { -1, 0, 1, 0, -1, 1, 1, -1 };
+			via1[0] = via1[1] = new int[] { -1, -1, -1, -1, 0, 2, 2, 0 };
+			via2[0] = via2[1] = new int[] { -1, -1, -1, -1, 1, 1, 3, 3 };
+			break;
+		}
+
+		cost = new float[dx[0].length];
+		for (int i = 0; i < cost.length; i++) {
+			cost[i] = via1[0][i] < 0 ? 1f : SQRT2;
+		}
+	}
+
+	/**
+	 * The 4 edges are topLeft, topRight, bottomLeft and bottomRight, the
+	 * same as in HexagonalRenderer.
+	 */
+	private void buildStaggered(int s) {
+		if (!staggerX) {
+			dx[s] = new int[] { s - 1, s, s - 1, s, -1, 1, 0, 0 };
+			dy[s] = new int[] { -1, -1, 1, 1, 0, 0, -2, 2 };
+		} else {
+			dx[s] = new int[] { -1, 1, -1, 1, 0, 0, -2, 2 };
+			dy[s] = new int[] { s - 1, s - 1, s, s, -1, 1, 0, 0 };
+		}
+
+		if (orientation == Orientation.HEXAGONAL) {
+			// the 2 other edges
+			if (!staggerX) {
+				dx[s] = new int[] { s - 1, s, s - 1, s, -1, 1 };
+				dy[s] = new int[] { -1, -1, 1, 1, 0, 0 };
+			} else {
+				dx[s] = new int[] { -1, 1, -1, 1, 0, 0 };
+				dy[s] = new int[] { s - 1, s - 1, s, s, -1, 1 };
+			}
+			via1[s] = new int[] { -1, -1, -1, -1, -1, -1 };
+			via2[s] = via1[s];
+		} else if (!staggerX) {
+			// left, right, up and down are corners
+			via1[s] = new int[] { -1, -1, -1, -1, 0, 1, 0, 2 };
+			via2[s] = new int[] { -1, -1, -1, -1, 2, 3, 1, 3 };
+		} else {
+			// up, down, left and right are corners
+			via1[s] = new int[] { -1, -1, -1, -1, 0, 2, 0, 1 };
+			via2[s] = new int[] { -1, -1, -1, -1, 1, 3, 2, 3 };
+		}
+	}
+
+	public Orientation getOrientation() {
+		return orientation;
+	}
+
+	public boolean isDiagonal() {
+		return diagonal;
+	}
+
+	/**
+	 * @return true if the columns are shifted, false for the rows.
+	 */
+	public boolean isStaggerX() {
+		return staggerX;
+	}
+
+	/**
+	 * @return the most neighbours a cell may have
+	 */
+	public int getMaxNeighbours() {
+		if (orientation == Orientation.HEXAGONAL) {
+			return 6;
+		}
+		return diagonal ? 8 : 4;
+	}
+
+	/**
+	 * Find the free neighbours of a cell.
+	 *
+	 * @param grid
+	 *            the solid cells
+	 * @param x
+	 *            x of the cell
+	 * @param y
+	 *            y of the cell
+	 * @param store
+	 *            the index (y * width + x) of the neighbours, at least
+	 *            {@link #getMaxNeighbours()} long.
+	 * @param costs
+	 *            the cost to move to each neighbour, 1 through an edge and
+	 *            sqrt(2) through a corner. May be null.
+	 * @return the number of neighbours found
+	 */
+	public int getNeighbours(CollisionGrid grid, int x, int y, int[] store, float[] costs) {
+		final int s = isShifted(x, y) ? 1 : 0;
+		final int[] dx = this.dx[s];
+		final int[] dy = this.dy[s];
+		final int[] via1 = this.via1[s];
+		final int[] via2 = this.via2[s];
+		final int len = getMaxNeighbours();
+		final int width = grid.getWidth();
+
+		int count = 0;
+		for (int i = 0; i < len; i++) {
+			int nx = x + dx[i];
+			int ny = y + dy[i];
+			if (grid.isSolid(nx, ny)) {
+				continue;
+			}
+			if (via1[i] >= 0 && (grid.isSolid(x + dx[via1[i]], y + dy[via1[i]])
+					|| grid.isSolid(x + dx[via2[i]], y + dy[via2[i]]))) {
+				continue;
+			}
+			if (costs != null) {
+				costs[count] = cost[i];
+			}
+			store[count++] = ny * width + nx;
+		}
+		return count;
+	}
+
+	/**
+	 * Tell if a cell is in a shifted row (or column).
+	 */
+	public boolean isShifted(int x, int y) {
+		if (orientation != Orientation.STAGGERED && orientation != Orientation.HEXAGONAL) {
+			return false;
+		}
+		return (((staggerX ? x : y) & 1) ^ staggerIndex) == 0;
+	}
+
+	/**
+	 * The least cost to go from a cell to another one if there were no
+	 * solid cells. It's the heuristic of the A* search.
+	 *
+	 * @return the distance, in the costs of {@link #getNeighbours}
+	 */
+	public float distance(int x0, int y0, int x1, int y1) {
+		if (orientation == Orientation.STAGGERED || orientation == Orientation.HEXAGONAL) {
+			// double the staggered axis, so the shifted cells are at odd
+			// positions.
+			int a0, b0, a1, b1;
+			if (!staggerX) {
+				a0 = 2 * x0 + (isShifted(x0, y0) ? 1 : 0);
+				a1 = 2 * x1 + (isShifted(x1, y1) ? 1 : 0);
+				b0 = y0;
+				b1 = y1;
+			} else {
+				a0 = 2 * y0 + (isShifted(x0, y0) ? 1 : 0);
+				a1 = 2 * y1 + (isShifted(x1, y1) ? 1 : 0);
+				b0 = x0;
+				b1 = x1;
+			}
+			int da = a1 - a0;
+			int db = b1 - b0;
+
+			if (orientation == Orientation.HEXAGONAL) {
+				return Math.abs(db) + Math.max(0, (Math.abs(da) - Math.abs(db)) / 2);
+			}
+
+			// a diamond grid, turned 45 degrees
+			return distance(Math.abs(da + db) / 2, Math.abs(da - db) / 2);
+		}
+
+		return distance(Math.abs(x1 - x0), Math.abs(y1 - y0));
+	}
+
+	private float distance(int dx, int dy) {
+		if (!diagonal) {
+			return dx + dy;
+		}
+		int min = Math.min(dx, dy);
+		int max = Math.max(dx, dy);
+		return max - min + min * SQRT2;
+	}
+}
@@ -0,0 +1,122 @@
+package com.jme3.tmx.grid;
+
+/**
+ * A binary min-heap of cell indices, keyed by a float. The position of each
+ * cell in the heap is kept, so its key can be lowered without searching.
+ * 
+ * The arrays are made once for the size of the grid, a search only clears
+ * the heap.
+ * 
+ * @author yanmaoyuan
+ *
+ */
+class NodeHeap {
+
+	private final int[] heap;
+	private final float[] keys;
+
+	/**
+	 * Position of each cell in the heap, -1 if it's not in the heap.
+	 */
+	private final int[] positions;
+	private int size = 0;
+
+	NodeHeap(int capacity) {
+		heap = new int[capacity];
+		keys = new float[capacity];
+		positions = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			positions[i] = -1;
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	boolean contains(int node) {
+		return positions[node] >= 0;
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Add a cell, or lower its key if it's already in the heap.
+	 */
+	void push(int node, float key) {
+		int pos = positions[node];
+		if (pos < 0) {
+			pos = size++;
+			heap[pos] = node;
+			positions[node] = pos;
+			keys[node] = key;
+			up(pos);
+		} else if (key < keys[node]) {
+			keys[node] = key;
+			up(pos);
+		}
+	}
+
+	/**
+	 * Remove the cell with the least key.
+	 */
+	int pop() {
+		int node = heap[0];
+		positions[node] = -1;
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			positions[heap[0]] = 0;
+			down(0);
+		}
+		return node;
+	}
+
+	private void up(int pos) {
+		final int node = heap[pos];
+		final float key = keys[node];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			int p = heap[parent];
+			if (keys[p] <= key) {
+				break;
+			}
+			heap[pos] = p;
+			positions[p] = pos;
+			pos = parent;
+		}
+		heap[pos] = node;
+		positions[node] = pos;
+	}
+
+	private void down(int pos) {
+		final int node = heap[pos];
+		final float key = keys[node];
+		final int half = size >>> 1;
+		while (pos < half) {
+			int child = pos * 2 + 1;
+			int right = child + 1;
+			if (right < size && keys[heap[right]] < keys[heap[child]]) {
+				child = right;
+			}
+			int c = heap[child];
+			if (key <= keys[c]) {
+				break;
+			}
+			heap[pos] = c;
+			positions[c] = pos;
+			pos = child;
+		}
+		heap[pos] = node;
+		positions[node] = pos;
+	}
+}
@@ -0,0 +1,94 @@
+package com.jme3.tmx.grid;
+
+/**
+ * The cells of a path, from the start to the goal. A Path can be given to
+ * {@link PathFinder#findPath(int, int, int, int, Path)} again and again, its
+ * array only grows when a longer path is found.
+ * 
+ * @author yanmaoyuan
+ *
+ */
+public class Path {
+
+	/**
+	 * x and y of each cell
+	 */
+	private int[] cells = new int[32];
+	private int size = 0;
+	private float cost = 0;
+
+	/**
+	 * @return number of cells
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getX(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		return cells[i * 2];
+	}
+
+	public int getY(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		return cells[i * 2 + 1];
+	}
+
+	/**
+	 * @return the cost of the path, the sum of the costs of its moves.
+	 */
+	public float getCost() {
+		return cost;
+	}
+
+	public void clear() {
+		size = 0;
+		cost = 0;
+	}
+
+	void setCost(float cost) {
+		this.cost = cost;
+	}
+
+	void add(int x, int y) {
+		if (cells.length < size * 2 + 2) {
+			int[] newCells = new int[cells.length * 2];
+			System.arraycopy(cells, 0, newCells, 0, size * 2);
+			cells = newCells;
+		}
+		cells[size * 2] = x;
+		cells[size * 2 + 1] = y;
+		size++;
+	}
+
+	void reverse() {
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			int x = cells[i * 2];
+			int y = cells[i * 2 + 1];
+			cells[i * 2] = cells[j * 2];
+			cells[i * 2 + 1] = cells[j * 2 + 1];
+			cells[j * 2] = x;
+			cells[j * 2 + 1] = y;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Path [");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append('(').append(cells[i * 2]).append(", ").append(cells[i * 2 + 1]).append(')');
+		}
+		return sb.append("]").toString();
+	}
+}
@@ -0,0 +1,214 @@
+package com.jme3.tmx.grid;
+
+import com.jme3.tmx.core.TileLayer;
+import com.jme3.tmx.core.TiledMap;
+
+/**
+ * A* search on the free cells of a {@link CollisionGrid}, with the
+ * neighbours of the map's orientation, see {@link GridTopology}.
+ *
+ * All the arrays are made once for the size of the grid. The open and closed
+ * sets are marked with the number of the search, so a new search doesn't
+ * clear them, and doesn't allocate memory. A PathFinder must not be used by
+ * two threads at the same time, use one for each thread.
+ *
+ * <pre>
+ * PathFinder finder = new PathFinder(map, grid, false);
+ * Path path = new Path();
+ * if (finder.findPath(0, 0, 10, 10, path)) {
+ * 	// path.getX(i), path.getY(i)
+ * }
+ * </pre>
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class PathFinder {
+
+	private final CollisionGrid grid;
+	private final GridTopology topology;
+	private final int width;
+
+	/**
+	 * The cost from the start, and the cell it is reached from.
+	 */
+	private final float[] costs;
+	private final int[] parents;
+
+	/**
+	 * A cell is open if visited[i] == search, closed if closed[i] == search.
+	 */
+	private final int[] visited;
+	private final int[] closed;
+	private int search = 0;
+
+	private final NodeHeap open;
+
+	private final int[] neighbours;
+	private final float[] moveCosts;
+
+	/**
+	 * The most cells a search may close, 0 for no limit.
+	 */
+	private int maxNodes = 0;
+
+	/**
+	 * @param map
+	 *            the map giving the orientation of the grid
+	 * @param grid
+	 *            the solid cells
+	 * @param diagonal
+	 *            true to allow diagonal moves
+	 */
+	public PathFinder(TiledMap map, CollisionGrid grid, boolean diagonal) {
+		this(new GridTopology(map, diagonal), grid);
+	}
+
+	/**
+	 * Find paths on a layer, the cells are solid if the predicate says so.
+	 *
+	 * @param layer
+	 *            a tile layer of a map
+	 * @param solid
+	 *            tells which tiles are solid
+	 * @param diagonal
+	 *            true to allow diagonal moves
+	 */
+	public PathFinder(TileLayer layer, TilePredicate solid, boolean diagonal) {
+		this(layer.getMap(), CollisionGrid.create(layer, solid), diagonal);
+	}
+
+	public PathFinder(GridTopology topology, CollisionGrid grid) {
+		this.grid = grid;
+		this.topology = topology;
+		this.width = grid.getWidth();
+
+		final int size = grid.getWidth() * grid.getHeight();
+		costs = new float[size];
+		parents = new int[size];
+		visited = new int[size];
+		closed = new int[size];
+		open = new NodeHeap(size);
+
+		neighbours = new int[topology.getMaxNeighbours()];
+		moveCosts = new float[topology.getMaxNeighbours()];
+	}
+
+	public CollisionGrid getGrid() {
+		return grid;
+	}
+
+	public GridTopology getTopology() {
+		return topology;
+	}
+
+	public int getMaxNodes() {
+		return maxNodes;
+	}
+
+	/**
+	 * Limit the work of a search. A search which closes more cells gives up
+	 * and finds no path.
+	 *
+	 * @param maxNodes
+	 *            the most cells a search may close, 0 for no limit.
+	 */
+	public void setMaxNodes(int maxNodes) {
+		if (maxNodes < 0) {
+			throw new IllegalArgumentException("maxNodes must not be negative: " + maxNodes);
+		}
+		this.maxNodes = maxNodes;
+	}
+
+	/**
+	 * Find the shortest path between two cells.
+	 *
+	 * @param startX
+	 *            x of the start
+	 * @param startY
+	 *            y of the start
+	 * @param goalX
+	 *            x of the goal
+	 * @param goalY
+	 *            y of the goal
+	 * @param store
+	 *            the cells of the path, from the start to the goal. It is
+	 *            cleared first.
+	 * @return true if a path was found
+	 */
+	public boolean findPath(int startX, int startY, int goalX, int goalY, Path store) {
+		store.clear();
+		if (grid.isSolid(startX, startY) || grid.isSolid(goalX, goalY)) {
+			return false;
+		}
+
+		nextSearch();
+		open.clear();
+
+		final int start = startY * width + startX;
+		final int goal = goalY * width + goalX;
+
+		visited[start] = search;
+		costs[start] = 0;
+		parents[start] = -1;
+		open.push(start, topology.distance(startX, startY, goalX, goalY));
+
+		int count = 0;
+		while (!open.isEmpty()) {
+			final int node = open.pop();
+			if (node == goal) {
+				buildPath(goal, store);
+				open.clear();
+				return true;
+			}
+
+			closed[node] = search;
+			if (maxNodes > 0 && ++count > maxNodes) {
+				break;
+			}
+
+			final int x = node % width;
+			final int y = node / width;
+			final int len = topology.getNeighbours(grid, x, y, neighbours, moveCosts);
+			for (int i = 0; i < len; i++) {
+				final int n = neighbours[i];
+				if (closed[n] == search) {
+					continue;
+				}
+
+				final float cost = costs[node] + moveCosts[i];
+				if (visited[n] == search && cost >= costs[n]) {
+					continue;
+				}
+
+				visited[n] = search;
+				costs[n] = cost;
+				parents[n] = node;
+				open.push(n, cost + topology.distance(n % width, n / width, goalX, goalY));
+			}
+		}
+
+		open.clear();
+		return false;
+	}
+
+	private void buildPath(int goal, Path store) {
+		for (int node = goal; node >= 0; node = parents[node]) {
+			store.add(node % width, node / width);
+		}
+		store.reverse();
+		store.setCost(costs[goal]);
+	}
+
+	private void nextSearch() {
+		search++;
+		if (search == Integer.MAX_VALUE) {
+			// start again before the marks wrap around
+			for (int i = 0; i < visited.length; i++) {
+				visited[i] = 0;
+				closed[i] = 0;
+			}
+			search = 1;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.jme3.tmx.grid;
+
+import com.jme3.tmx.core.Tile;
+
+/**
+ * Tells how much it costs to walk onto a tile.
+ * 
+ * @author yanmaoyuan
+ *
+ */
+public interface TileCost {
+
+	/**
+	 * @param tile
+	 *            a tile of the tileset, without the flip flags. null for an
+	 *            empty cell.
+	 * @return the cost from 1 to {@link FlowField#MAX_COST}, or
+	 *         {@link FlowField#BLOCKED} if the tile can't be walked on.
+	 */
+	public int getCost(Tile tile);
+
+}
@@ -0,0 +1,20 @@
+package com.jme3.tmx.grid;
+
+import com.jme3.tmx.core.Tile;
+
+/**
+ * Tells if a tile has some quality, for example if it blocks the way.
+ * 
+ * @author yanmaoyuan
+ *
+ */
+public interface TilePredicate {
+
+	/**
+	 * @param tile
+	 *            a tile of the tileset, without the flip flags.
+	 * @return true if the tile has the quality
+	 */
+	public boolean test(Tile tile);
+
+}
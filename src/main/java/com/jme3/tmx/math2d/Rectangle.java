@@ -0,0 +1,58 @@
+package com.jme3.tmx.math2d;
+
+/**
+ * An axis-aligned rectangle of cells.
+ * 
+ * @author yanmaoyuan
+ *
+ */
+public class Rectangle {
+
+	public int x;
+	public int y;
+	public int width;
+	public int height;
+
+	public Rectangle() {
+		x = y = width = height = 0;
+	}
+
+	public Rectangle(int x, int y, int width, int height) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	public boolean contains(int x, int y) {
+		return x >= this.x && y >= this.y && x < this.x + width && y < this.y + height;
+	}
+
+	public int area() {
+		return width * height;
+	}
+
+	@Override
+	public String toString() {
+		return "(" + x + ", " + y + ", " + width + ", " + height + ")";
+	}
+
+	@Override
+	public int hashCode() {
+		return ((x * 31 + y) * 31 + width) * 31 + height;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof Rectangle) {
+			Rectangle r = (Rectangle) obj;
+			return r.x == x && r.y == y && r.width == width && r.height == height;
+		}
+		return false;
+	}
+
+	@Override
+	public Rectangle clone() {
+		return new Rectangle(x, y, width, height);
+	}
+}
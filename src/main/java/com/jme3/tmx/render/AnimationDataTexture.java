@@ -0,0 +1,248 @@
+package com.jme3.tmx.render;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jme3.material.Material;
+import com.jme3.math.Vector2f;
+import com.jme3.texture.Image;
+import com.jme3.texture.Image.Format;
+import com.jme3.texture.Texture.MagFilter;
+import com.jme3.texture.Texture.MinFilter;
+import com.jme3.texture.Texture.WrapMode;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.image.ColorSpace;
+import com.jme3.tmx.animation.Animation;
+import com.jme3.tmx.animation.Frame;
+import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.core.Tileset;
+import com.jme3.util.BufferUtils;
+
+/**
+ * The animations of the tilesets sharing a material, stored in a RGBA32F texture so that the
+ * vertex shader of Tiled.j3md plays them with the time of the renderer. The
+ * CPU does nothing for them after the texture is uploaded, and the animated
+ * tiles can be merged into the chunks like the others.
+ *
+ * Each animated tile has a row, with one texel for each frame:
+ *
+ * <pre>
+ * r, g: texCoord offset from the tile to the image of the frame
+ * b:    the time the frame ends, in ms from the start of the animation
+ * a:    the duration of the whole animation, in ms
+ * </pre>
+ *
+ * The vertices of an animated tile tell the row and the number of frames in
+ * TexCoord2, vertices without it are not animated.
+ *
+ * The texture is set on the material, so all the tilesets packed into the
+ * same atlas page share one texture, with one row for each animated tile of
+ * any of them.
+ *
+ * Only the tiles cut from the tileset image are supported, with at most
+ * {@link #MAX_FRAMES} frames.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class AnimationDataTexture {
+
+	/**
+	 * The most frames an animation may have, the same as in Tiled.vert
+	 */
+	public final static int MAX_FRAMES = 64;
+
+	private final List<Tileset> tilesets;
+	private final Material material;
+
+	/**
+	 * Row of each tile id of each tileset, -1 if the tile is not animated.
+	 */
+	private final Map<Tileset, int[]> rows = new IdentityHashMap<Tileset, int[]>();
+	private final int[] frameCounts;
+	private final int rowCount;
+
+	private Texture2D texture;
+
+	/**
+	 * @param tileset
+	 *            a tileset with a material of its own
+	 */
+	public AnimationDataTexture(Tileset tileset) {
+		this(Collections.singletonList(tileset));
+	}
+
+	/**
+	 * @param tilesets
+	 *            the tilesets sharing a material and its image, such as the
+	 *            tilesets packed into one atlas page.
+	 */
+	public AnimationDataTexture(List<Tileset> tilesets) {
+		this.tilesets = new ArrayList<Tileset>(tilesets);
+		this.material = tilesets.isEmpty() ? null : tilesets.get(0).getMaterial();
+
+		int count = 0;
+		int columns = 1;
+		for (Tileset tileset : this.tilesets) {
+			if (tileset.getMaterial() != material) {
+				throw new IllegalArgumentException("The tileset " + tileset.getName()
+						+ " doesn't share the material of the others");
+			}
+			int[] ids = new int[tileset.getMaxTileId() + 1];
+			Arrays.fill(ids, -1);
+			for (Tile tile : tileset.getTiles()) {
+				if (tile.getId() >= 0 && tile.getId() < ids.length && isSupported(tileset, tile)) {
+					ids[tile.getId()] = count++;
+					columns = Math.max(columns, tile.getAnimations().get(0).getTotalFrames());
+				}
+			}
+			rows.put(tileset, ids);
+		}
+		rowCount = count;
+		frameCounts = new int[count];
+
+		if (count == 0) {
+			return;
+		}
+
+		ByteBuffer data = BufferUtils.createByteBuffer(columns * count * 4 * 4);
+		FloatBuffer texels = data.asFloatBuffer();
+		for (Tileset tileset : this.tilesets) {
+			Image img = tileset.getTexture().getImage();
+			put(tileset, texels, columns, img.getWidth(), img.getHeight());
+		}
+
+		Image image = new Image(Format.RGBA32F, columns, count, data, ColorSpace.Linear);
+		texture = new Texture2D(image);
+		texture.setMagFilter(MagFilter.Nearest);
+		texture.setMinFilter(MinFilter.NearestNoMipMaps);
+		texture.setWrap(WrapMode.EdgeClamp);
+
+		material.setTexture("AnimData", texture);
+		material.setVector2("AnimSize", new Vector2f(columns, count));
+	}
+
+	/**
+	 * Write the frames of the animated tiles of a tileset in their rows.
+	 */
+	private void put(Tileset tileset, FloatBuffer texels, int columns, float imageWidth, float imageHeight) {
+		List<Tile> tiles = tileset.getTiles();
+		for (int i = 0; i < tiles.size(); i++) {
+			Tile tile = tiles.get(i);
+			int row = getRow(tile);
+			if (row < 0) {
+				continue;
+			}
+
+			Animation anim = tile.getAnimations().get(0);
+			int frames = anim.getTotalFrames();
+			frameCounts[row] = frames;
+
+			float total = 0;
+			for (int f = 0; f < frames; f++) {
+				total += anim.getFrame(f).duration;
+			}
+
+			float end = 0;
+			for (int f = 0; f < frames; f++) {
+				Frame frame = anim.getFrame(f);
+				Tile t = tileset.getTile(frame.tileId);
+				end += frame.duration;
+
+				int p = (row * columns + f) * 4;
+				// v goes up, y goes down in the image
+				texels.put(p, (t.getX() - tile.getX()) / imageWidth);
+				texels.put(p + 1, (tile.getY() - t.getY()) / imageHeight);
+				texels.put(p + 2, end);
+				texels.put(p + 3, total);
+			}
+		}
+	}
+
+	/**
+	 * Tell if the animation of a tile can be played by the shader. Its frames
+	 * must be cut from the image of the tileset.
+	 */
+	private static boolean isSupported(Tileset tileset, Tile tile) {
+		if (!tile.isAnimated() || tile.getTexture() != null || tileset.getTexture() == null
+				|| tileset.getMaterial() == null) {
+			return false;
+		}
+
+		Animation anim = tile.getAnimations().get(0);
+		int frames = anim.getTotalFrames();
+		if (frames == 0 || frames > MAX_FRAMES) {
+			return false;
+		}
+
+		int total = 0;
+		for (int f = 0; f < frames; f++) {
+			Frame frame = anim.getFrame(f);
+			Tile t = tileset.getTile(frame.tileId);
+			if (t == null || t.getTexture() != null || frame.duration < 0) {
+				return false;
+			}
+			total += frame.duration;
+		}
+		return total > 0;
+	}
+
+	/**
+	 * Get the row of the animation of a tile.
+	 *
+	 * @param tile
+	 *            a tile of one of the tilesets
+	 * @return the row, or -1 if the tile is not played by the shader.
+	 */
+	public int getRow(Tile tile) {
+		int[] ids = rows.get(tile.getTileset());
+		int id = tile.getId();
+		if (ids == null || id < 0 || id >= ids.length) {
+			return -1;
+		}
+		return ids[id];
+	}
+
+	/**
+	 * @param row
+	 *            the row of an animation
+	 * @return number of frames of the animation
+	 */
+	public int getFrameCount(int row) {
+		return frameCounts[row];
+	}
+
+	/**
+	 * @return number of animations in the texture
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the tilesets sharing this texture
+	 */
+	public List<Tileset> getTilesets() {
+		return tilesets;
+	}
+
+	/**
+	 * @return the material the texture is set on, null if there is none.
+	 */
+	public Material getMaterial() {
+		return material;
+	}
+
+	/**
+	 * @return the texture, or null if the tileset has no animation to play.
+	 */
+	public Texture2D getTexture() {
+		return texture;
+	}
+}
@@ -5,11 +5,6 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import com.jme3.math.Vector2f;
-import com.jme3.renderer.queue.RenderQueue.Bucket;
-import com.jme3.scene.Node;
-import com.jme3.scene.Spatial;
-import com.jme3.tmx.core.Tile;
-import com.jme3.tmx.core.TileLayer;
 import com.jme3.tmx.core.TiledMap;
 import com.jme3.tmx.core.TiledMap.Orientation;
 import com.jme3.tmx.core.TiledMap.StaggerAxis;
@@ -91,100 +86,34 @@ public class HexagonalRenderer extends OrthogonalRenderer {
 		return !staggerX && ((y & 1) ^ staggerIndex) == 0;
 	}
 
+	/**
+	 * The tiles are drawn row by row. When the x axis is staggered, the
+	 * columns that are not shifted down are drawn first in every row.
+	 */
 	@Override
-	public Spatial render(TileLayer layer) {
-		Point startTile = new Point(0, 0);
-		int tileZIndex = 0;
-
-		// instance the layer node
-		if (layer.getVisual() == null) {
-			Node layerNode = new Node("TileLayer#" + layer.getName());
-			layerNode.setQueueBucket(Bucket.Gui);
-			layer.setVisual(layerNode);
-			
-			map.getVisual().attachChild(layerNode);
+	protected int getDrawOrder(int x, int y) {
+		if (staggerX) {
+			return (y * 2 + (doStaggerX(x) ? 1 : 0)) * width + x;
+		} else {
+			return y * width + x;
 		}
-		
-	    if (staggerX) {
-	        boolean staggeredRow = doStaggerX(0);
-
-	        for (; startTile.y < height;) {
-	            Point rowTile = startTile.clone();
-	            for (; rowTile.x < width; rowTile.x += 2) {
-	            	// look up tile at rowTile
-	                final Tile tile = layer.getTileAt(rowTile.x, rowTile.y);
-					if (tile == null || tile.getVisual() == null) {
-						continue;
-					}
-
-					if (layer.isNeedUpdateAt(rowTile.x, rowTile.y)) {
-						
-						Spatial visual = tile.getVisual().clone();
-						
-						flip(visual, tile);
-							
-						// set its position with rowPos and tileZIndex
-						Vector2f pos = tileToScreenCoords(rowTile.x, rowTile.y);
-						visual.move(pos.x, tileZIndex, pos.y);
-						visual.setQueueBucket(Bucket.Gui);
-						layer.setSpatialAt(rowTile.x, rowTile.y, visual);
-						
-					}
-					
-					tileZIndex++;
-	            }
-
-	            if (staggeredRow) {
-	                startTile.x -= 1;
-	                startTile.y += 1;
-	                staggeredRow = false;
-	            } else {
-	                startTile.x += 1;
-	                staggeredRow = true;
-	            }
-	        }
-	    } else {
-	        for (; startTile.y < height; startTile.y++) {
-	            Point rowTile = startTile.clone();
-	            for (; rowTile.x < width; rowTile.x++) {
-	            	// look up tile at rowTile
-	                final Tile tile = layer.getTileAt(rowTile.x, rowTile.y);
-					if (tile == null || tile.getVisual() == null) {
-						continue;
-					}
-					
-					if (layer.isNeedUpdateAt(rowTile.x, rowTile.y)) {
-						
-						Spatial visual = tile.getVisual().clone();
-						
-						flip(visual, tile);
-							
-						// set its position with rowPos and tileZIndex
-						Vector2f pos = tileToScreenCoords(rowTile.x, rowTile.y);
-						visual.move(pos.x, tileZIndex, pos.y);
-						visual.setQueueBucket(Bucket.Gui);
-						layer.setSpatialAt(rowTile.x, rowTile.y, visual);
-					}
-					tileZIndex++;
-	            }
-	        }
-	    }
-	    // make it thinner
- 		if (tileZIndex > 0) {
- 			layer.getVisual().setLocalScale(1, 1f / tileZIndex, 1);
- 		}
-
- 		return layer.getVisual();
 	}
 
+	/**
+	 * Offsets from the reference point to the nearest hexagon, see
+	 * {@link #screenToTileCoords(float, float, Point)}
+	 */
+	private final static int[] OFFSETS_STAGGER_X = { 0, 0, 1, -1, 1, 0, 2, 0 };
+	private final static int[] OFFSETS_STAGGER_Y = { 0, 0, -1, 1, 0, 1, 0, 2 };
+
 	@Override
-	public Vector2f tileToPixelCoords(float x, float y) {
-		return tileToScreenCoords(x, y);
+	public Vector2f tileToPixelCoords(float x, float y, Vector2f store) {
+		return tileToScreenCoords(x, y, store);
 	}
 
 	@Override
-	public Point pixelToTileCoords(float x, float y) {
-		return screenToTileCoords(x, y);
+	public Point pixelToTileCoords(float x, float y, Point store) {
+		return screenToTileCoords(x, y, store);
 	}
 
 	/**
@@ -192,7 +121,7 @@ public class HexagonalRenderer extends OrthogonalRenderer {
 	 * supported by this renderer.
 	 */
 	@Override
-	public Vector2f tileToScreenCoords(float x, float y) {
+	public Vector2f tileToScreenCoords(float x, float y, Vector2f store) {
 		int tileX = (int) Math.floor(x);
 		int tileY = (int) Math.floor(y);
 		int pixelX, pixelY;
@@ -211,7 +140,7 @@ public class HexagonalRenderer extends OrthogonalRenderer {
 			pixelY = tileY * rowHeight;
 		}
 
-		return new Vector2f(pixelX, pixelY);
+		return store.set(pixelX, pixelY);
 	}
 
 	/**
@@ -219,7 +148,7 @@ public class HexagonalRenderer extends OrthogonalRenderer {
 	 * supported by this renderer.
 	 */
 	@Override
-	public Point screenToTileCoords(float x, float y) {
+	public Point screenToTileCoords(float x, float y, Point store) {
 
 		if (staggerX)
 			x -= staggerEven ? tileWidth : sideOffsetX;
@@ -227,122 +156,151 @@ public class HexagonalRenderer extends OrthogonalRenderer {
 			y -= staggerEven ? tileHeight : sideOffsetY;
 
 		// Start with the coordinates of a grid-aligned tile
-		Point referencePoint = new Point(x / (columnWidth * 2), y
-				/ (rowHeight * 2));
+		int referenceX = (int) Math.floor(x / (columnWidth * 2));
+		int referenceY = (int) Math.floor(y / (rowHeight * 2));
 
 		// Relative x and y position on the base square of the grid-aligned tile
-		Point rel = new Point(x - referencePoint.x * columnWidth * 2, y
-				- referencePoint.y * rowHeight * 2);
+		int relX = (int) Math.floor(x - referenceX * columnWidth * 2);
+		int relY = (int) Math.floor(y - referenceY * rowHeight * 2);
 
 		// Adjust the reference point to the correct tile coordinates
 		if (staggerX) {
-			referencePoint.x *= 2;
+			referenceX *= 2;
 			if (staggerEven)
-				referencePoint.x++;
+				referenceX++;
 		} else {
-			referencePoint.y *= 2;
+			referenceY *= 2;
 			if (staggerEven)
-				referencePoint.y++;
+				referenceY++;
 		}
 
 		// Determine the nearest hexagon tile by the distance to the center
-		Point[] centers = new Point[4];
-
+		int nearest;
 		if (staggerX) {
 			int left = sideLengthX / 2;
 			int centerX = left + columnWidth;
 			int centerY = tileHeight / 2;
 
-			centers[0] = new Point(left, centerY);
-			centers[1] = new Point(centerX, centerY - rowHeight);
-			centers[2] = new Point(centerX, centerY + rowHeight);
-			centers[3] = new Point(centerX + columnWidth, centerY);
+			nearest = nearest(relX, relY,
+					left, centerY,
+					centerX, centerY - rowHeight,
+					centerX, centerY + rowHeight,
+					centerX + columnWidth, centerY);
 		} else {
 			int top = sideLengthY / 2;
 			int centerX = tileWidth / 2;
 			int centerY = top + rowHeight;
 
-			centers[0] = new Point(centerX, top);
-			centers[1] = new Point(centerX - columnWidth, centerY);
-			centers[2] = new Point(centerX + columnWidth, centerY);
-			centers[3] = new Point(centerX, centerY + rowHeight);
+			nearest = nearest(relX, relY,
+					centerX, top,
+					centerX - columnWidth, centerY,
+					centerX + columnWidth, centerY,
+					centerX, centerY + rowHeight);
 		}
 
+		final int[] offsets = staggerX ? OFFSETS_STAGGER_X : OFFSETS_STAGGER_Y;
+		store.setLocation(referenceX + offsets[nearest * 2], referenceY + offsets[nearest * 2 + 1]);
+		return store;
+	}
+
+	/**
+	 * @return the index of the center nearest to (x, y)
+	 */
+	private static int nearest(int x, int y, int x0, int y0, int x1, int y1, int x2, int y2, int x3, int y3) {
 		int nearest = 0;
-		float minDist = Float.MAX_VALUE;
+		int minDist = (x0 - x) * (x0 - x) + (y0 - y) * (y0 - y);
 
-		for (int i = 0; i < 4; i++) {
-			float dc = centers[i].distanceSquared(rel);
-			if (dc < minDist) {
-				minDist = dc;
-				nearest = i;
-			}
+		int dc = (x1 - x) * (x1 - x) + (y1 - y) * (y1 - y);
+		if (dc < minDist) {
+			minDist = dc;
+			nearest = 1;
 		}
-
-		Point[] offsetsStaggerX = { new Point(0, 0), new Point(1, -1),
-				new Point(1, 0), new Point(2, 0) };
-
-		Point[] offsetsStaggerY = { new Point(0, 0), new Point(-1, 1),
-				new Point(0, 1), new Point(0, 2) };
-
-		final Point[] offsets = staggerX ? offsetsStaggerX : offsetsStaggerY;
-		return referencePoint.add(offsets[nearest]);
+		dc = (x2 - x) * (x2 - x) + (y2 - y) * (y2 - y);
+		if (dc < minDist) {
+			minDist = dc;
+			nearest = 2;
+		}
+		dc = (x3 - x) * (x3 - x) + (y3 - y) * (y3 - y);
+		if (dc < minDist) {
+			nearest = 3;
+		}
+		return nearest;
 	}
 
 	public Point topLeft(int x, int y) {
+		return topLeft(x, y, new Point());
+	}
+
+	public Point topLeft(int x, int y, Point store) {
 		if (!staggerX) {
-			if (((y & 1) ^ staggerIndex) != 0)
-				return new Point(x, y - 1);
+			if (((y & 1) ^ staggerIndex) == 0)
+				store.setLocation(x, y - 1);
 			else
-				return new Point(x - 1, y - 1);
+				store.setLocation(x - 1, y - 1);
 		} else {
-			if (((x & 1) ^ staggerIndex) != 0)
-				return new Point(x - 1, y);
+			if (((x & 1) ^ staggerIndex) == 0)
+				store.setLocation(x - 1, y);
 			else
-				return new Point(x - 1, y - 1);
+				store.setLocation(x - 1, y - 1);
 		}
+		return store;
 	}
 
 	public Point topRight(int x, int y) {
+		return topRight(x, y, new Point());
+	}
+
+	public Point topRight(int x, int y, Point store) {
 		if (!staggerX) {
-			if (((y & 1) ^ staggerIndex) != 0)
-				return new Point(x + 1, y - 1);
+			if (((y & 1) ^ staggerIndex) == 0)
+				store.setLocation(x + 1, y - 1);
 			else
-				return new Point(x, y - 1);
+				store.setLocation(x, y - 1);
 		} else {
-			if (((x & 1) ^ staggerIndex) != 0)
-				return new Point(x + 1, y);
+			if (((x & 1) ^ staggerIndex) == 0)
+				store.setLocation(x + 1, y);
 			else
-				return new Point(x + 1, y - 1);
+				store.setLocation(x + 1, y - 1);
 		}
+		return store;
 	}
 
 	public Point bottomLeft(int x, int y) {
+		return bottomLeft(x, y, new Point());
+	}
+
+	public Point bottomLeft(int x, int y, Point store) {
 		if (!staggerX) {
-			if (((y & 1) ^ staggerIndex) != 0)
-				return new Point(x, y + 1);
+			if (((y & 1) ^ staggerIndex) == 0)
+				store.setLocation(x, y + 1);
 			else
-				return new Point(x - 1, y + 1);
+				store.setLocation(x - 1, y + 1);
 		} else {
-			if (((x & 1) ^ staggerIndex) != 0)
-				return new Point(x - 1, y + 1);
+			if (((x & 1) ^ staggerIndex) == 0)
+				store.setLocation(x - 1, y + 1);
 			else
-				return new Point(x - 1, y);
+				store.setLocation(x - 1, y);
 		}
+		return store;
 	}
 
 	public Point bottomRight(int x, int y) {
+		return bottomRight(x, y, new Point());
+	}
+
+	public Point bottomRight(int x, int y, Point store) {
 		if (!staggerX) {
-			if (((y & 1) ^ staggerIndex) != 0)
-				return new Point(x + 1, y + 1);
+			if (((y & 1) ^ staggerIndex) == 0)
+				store.setLocation(x + 1, y + 1);
 			else
-				return new Point(x, y + 1);
+				store.setLocation(x, y + 1);
 		} else {
-			if (((x & 1) ^ staggerIndex) != 0)
-				return new Point(x + 1, y + 1);
+			if (((x & 1) ^ staggerIndex) == 0)
+				store.setLocation(x + 1, y + 1);
 			else
-				return new Point(x + 1, y);
+				store.setLocation(x + 1, y);
 		}
+		return store;
 	}
 
 	// TODO nothing to do with this code
@@ -3,11 +3,6 @@ package com.jme3.tmx.render;
 import java.util.logging.Logger;
 
 import com.jme3.math.Vector2f;
-import com.jme3.renderer.queue.RenderQueue.Bucket;
-import com.jme3.scene.Node;
-import com.jme3.scene.Spatial;
-import com.jme3.tmx.core.Tile;
-import com.jme3.tmx.core.TileLayer;
 import com.jme3.tmx.core.TiledMap;
 import com.jme3.tmx.math2d.Point;
 
@@ -28,93 +23,62 @@ public class IsometricRenderer extends MapRenderer {
 	    mapSize.set(side * tileWidth * 0.5f, side * tileHeight * 0.5f);
 	}
 
+	/**
+	 * The tiles are drawn diagonal by diagonal from the top, and from right to
+	 * left in a diagonal.
+	 */
 	@Override
-	public Spatial render(TileLayer layer) {
-		// instance the layer node
-		if (layer.getVisual() == null) {
-			Node layerNode = new Node("TileLayer#" + layer.getName());
-			layerNode.setQueueBucket(Bucket.Gui);
-			layer.setVisual(layerNode);
-			
-			map.getVisual().attachChild(layerNode);
-		}
-		
-	    int tileZIndex = 0;
-	    
-	    for(int p=0; p < height + width - 1; p++) {
-	        for(int y=0; y <= p; y++) {
-	            int x = p-y;
-	            if(y < height && x < width) {
-	            	final Tile tile = layer.getTileAt(x, y);
-					if (tile == null || tile.getVisual() == null) {
-						continue;
-					}
-
-					if (layer.isNeedUpdateAt(x, y)) {
-						Spatial visual = tile.getVisual().clone();
-						visual.setQueueBucket(Bucket.Gui);
-						
-						flip(visual, tile);
-						
-						Vector2f pixelCoord = tileToScreenCoords(x, y);
-						visual.move(pixelCoord.x, tileZIndex, pixelCoord.y);
-						layer.setSpatialAt(x, y, visual);
-					}
-					
-					tileZIndex++;
-	            }
-	        }
-	    }
-		// make it thinner
-		if (tileZIndex > 0) {
-			layer.getVisual().setLocalScale(1, 1f / tileZIndex, 1);
-		}
-	    return layer.getVisual();
+	protected int getDrawOrder(int x, int y) {
+		int p = x + y;
+		int first = Math.max(0, p - width + 1);
+		return p * Math.min(width, height) + (y - first);
 	}
 
 	// Coordinates System Convert
 	@Override
-	public Point pixelToTileCoords(float x, float y) {
-	    return new Point(x / tileHeight, y / tileHeight);
+	public Point pixelToTileCoords(float x, float y, Point store) {
+	    store.set(x / tileHeight, y / tileHeight);
+	    return store;
 	}
 
 	@Override
-	public Vector2f tileToPixelCoords(float x, float y) {
-	    return new Vector2f(x * tileHeight, y * tileHeight);
+	public Vector2f tileToPixelCoords(float x, float y, Vector2f store) {
+	    return store.set(x * tileHeight, y * tileHeight);
 	}
 
 	@Override
-	public Point screenToTileCoords(float x, float y) {
+	public Point screenToTileCoords(float x, float y, Point store) {
 		x -= height * tileWidth * 0.5f;
 	    float tileY = y / tileHeight;
 	    float tileX = x / tileWidth;
 	    
-	    return new Point(tileY + tileX, tileY - tileX);
+	    store.set(tileY + tileX, tileY - tileX);
+	    return store;
 	}
 	
 	@Override
-	public Vector2f tileToScreenCoords(float x, float y) {
-	    return new Vector2f((height + x - y) * tileWidth * 0.5f, (x + y) * tileHeight * 0.5f);
+	public Vector2f tileToScreenCoords(float x, float y, Vector2f store) {
+	    return store.set((height + x - y) * tileWidth * 0.5f, (x + y) * tileHeight * 0.5f);
 	}
 	
 	@Override
-	public Vector2f screenToPixelCoords(float x, float y) {
+	public Vector2f screenToPixelCoords(float x, float y, Vector2f store) {
 		
 	    x -= height * tileWidth * 0.5f;
 	    float tileY = y / tileHeight;
 	    float tileX = x / tileWidth;
 
-	    return new Vector2f((tileY + tileX) * tileHeight,
+	    return store.set((tileY + tileX) * tileHeight,
 	                   (tileY - tileX) * tileHeight);
 	}
 
 	@Override
-	public Vector2f pixelToScreenCoords(float x, float y) {
+	public Vector2f pixelToScreenCoords(float x, float y, Vector2f store) {
 		
 		final float tileY = y / tileHeight;
 		final float tileX = x / tileHeight;
 	    
-	    return new Vector2f((height + tileX - tileY) * tileWidth * 0.5f, (tileX + tileY) * tileHeight * 0.5f);
+	    return store.set((height + tileX - tileY) * tileWidth * 0.5f, (tileX + tileY) * tileHeight * 0.5f);
 	}
 
 }
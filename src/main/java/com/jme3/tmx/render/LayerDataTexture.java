@@ -0,0 +1,245 @@
+package com.jme3.tmx.render;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.MatParam;
+import com.jme3.material.Material;
+import com.jme3.math.Vector2f;
+import com.jme3.renderer.queue.RenderQueue.Bucket;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.texture.Image;
+import com.jme3.texture.Image.Format;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture.MagFilter;
+import com.jme3.texture.Texture.MinFilter;
+import com.jme3.texture.Texture.WrapMode;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.image.ColorSpace;
+import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.core.TileLayer;
+import com.jme3.tmx.core.TiledMap;
+import com.jme3.tmx.core.Tileset;
+import com.jme3.util.BufferUtils;
+
+/**
+ * Draws a whole TileLayer with one quad. The gids of the layer are stored in
+ * a RGBA8 texture, one texel for each tile, and the fragment shader
+ * (TiledLayer.frag) finds the tile in the tileset image for every pixel.
+ *
+ * <pre>
+ * r, g: local id of the tile in the tileset, low byte first
+ * b:    flip flags, 1 horizontal, 2 vertical, 4 anti-diagonal
+ * a:    255, or 0 for an empty cell
+ * </pre>
+ *
+ * Only works when all the tiles of the layer come from one tileset with a
+ * single image, and the tiles of that tileset have the size of the map tiles.
+ * Animated tiles show their own image.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class LayerDataTexture {
+
+	private final TileLayer layer;
+	private final Tileset tileset;
+
+	private final ByteBuffer data;
+	private final Image image;
+	private final Texture2D texture;
+	private final Geometry geometry;
+
+	/**
+	 * Create the data texture and the quad of a layer.
+	 *
+	 * @param layer
+	 *            the tile layer
+	 * @param tileset
+	 *            the only tileset used by the layer, see
+	 *            {@link #findTileset(TileLayer)}
+	 */
+	public LayerDataTexture(TileLayer layer, Tileset tileset) {
+		this.layer = layer;
+		this.tileset = tileset;
+
+		final int width = layer.getWidth();
+		final int height = layer.getHeight();
+
+		data = BufferUtils.createByteBuffer(width * height * 4);
+		image = new Image(Format.RGBA8, width, height, data, ColorSpace.Linear);
+		texture = new Texture2D(image);
+		texture.setMagFilter(MagFilter.Nearest);
+		texture.setMinFilter(MinFilter.NearestNoMipMaps);
+		texture.setWrap(WrapMode.EdgeClamp);
+
+		TiledMap map = layer.getMap();
+		float w = width * map.getTileWidth();
+		float h = height * map.getTileHeight();
+
+		/**
+		 * The same layout as the mesh of a tile, but texCoord (0, 0) is the
+		 * top-left corner of the layer.
+		 *
+		 * <pre>
+		 * 3          2
+		 * *----------*
+		 * |          |
+		 * *----------*
+		 * 0          1
+		 * </pre>
+		 */
+		float[] vertices = new float[] { 0, 0, h, w, 0, h, w, 0, 0, 0, 0, 0 };
+		float[] texCoord = new float[] { 0, 1, 1, 1, 1, 0, 0, 0 };
+		float[] normals = new float[] { 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0 };
+		short[] indexes = new short[] { 0, 1, 2, 0, 2, 3 };
+
+		Mesh mesh = new Mesh();
+		mesh.setBuffer(Type.Position, 3, vertices);
+		mesh.setBuffer(Type.TexCoord, 2, texCoord);
+		mesh.setBuffer(Type.Normal, 3, normals);
+		mesh.setBuffer(Type.Index, 3, indexes);
+		mesh.updateBound();
+		mesh.setStatic();
+
+		geometry = new Geometry("TileLayer#" + layer.getName() + "#data", mesh);
+		geometry.setMaterial(createMaterial());
+		geometry.setQueueBucket(Bucket.Gui);
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				put(x, y);
+			}
+		}
+		image.setUpdateNeeded();
+	}
+
+	private Material createMaterial() {
+		Material tilesetMat = tileset.getMaterial();
+		AssetManager assetManager = tilesetMat.getMaterialDef().getAssetManager();
+		Texture colorMap = tileset.getTexture();
+		Image img = colorMap.getImage();
+
+		// the tiles are cut row by row, see TileCutter
+		List<Tile> tiles = tileset.getTiles();
+		Tile first = tiles.get(0);
+		int columns = 1;
+		while (columns < tiles.size() && tiles.get(columns).getY() == first.getY()) {
+			columns++;
+		}
+
+		Material mat = new Material(assetManager, "com/jme3/tmx/resources/TiledLayer.j3md");
+		mat.setTexture("LayerData", texture);
+		mat.setTexture("ColorMap", colorMap);
+		mat.setVector2("LayerSize", new Vector2f(layer.getWidth(), layer.getHeight()));
+		mat.setVector2("TileOrigin", new Vector2f(first.getX(), first.getY()));
+		mat.setVector2("TileSize", new Vector2f(tileset.getTileWidth(), tileset.getTileHeight()));
+		mat.setVector2("TileStep", new Vector2f(tileset.getTileWidth() + tileset.getTileSpacing(),
+				tileset.getTileHeight() + tileset.getTileSpacing()));
+		mat.setVector2("ImageSize", new Vector2f(img.getWidth(), img.getHeight()));
+		mat.setFloat("Columns", columns);
+
+		MatParam trans = tilesetMat.getParam("TransColor");
+		if (trans != null) {
+			mat.setParam("TransColor", trans.getVarType(), trans.getValue());
+		}
+		return mat;
+	}
+
+	/**
+	 * Find the tileset used by all the tiles of a layer.
+	 *
+	 * @param layer
+	 *            the tile layer
+	 * @return the tileset, or null if the layer can't be drawn with a data
+	 *         texture.
+	 */
+	public static Tileset findTileset(TileLayer layer) {
+		TiledMap map = layer.getMap();
+		if (map == null) {
+			return null;
+		}
+
+		Tileset tileset = null;
+		for (int y = 0; y < layer.getHeight(); y++) {
+			for (int x = 0; x < layer.getWidth(); x++) {
+				int gid = layer.getGidAt(x, y) & ~Tile.FLIPPED_MASK;
+				if (gid == 0) {
+					continue;
+				}
+
+				Tile tile = map.getTileForTileGID(gid);
+				if (tile == null) {
+					continue;
+				}
+
+				if (tileset == null) {
+					tileset = tile.getTileset();
+				} else if (tileset != tile.getTileset()) {
+					return null;
+				}
+			}
+		}
+
+		if (tileset == null || tileset.getTexture() == null || tileset.getMaterial() == null || tileset.isAtlas()
+				|| tileset.getTileWidth() != map.getTileWidth()
+				|| tileset.getTileHeight() != map.getTileHeight()
+				|| tileset.getMaxTileId() > 0xFFFF) {
+			return null;
+		}
+		return tileset;
+	}
+
+	/**
+	 * Write the tile at (x, y) into the texture.
+	 *
+	 * @param x
+	 *            Tile-space x coordinate
+	 * @param y
+	 *            Tile-space y coordinate
+	 */
+	public void update(int x, int y) {
+		put(x, y);
+		image.setUpdateNeeded();
+	}
+
+	private void put(int x, int y) {
+		final int gid = layer.getGidAt(x, y);
+		final int id = (gid & ~Tile.FLIPPED_MASK) - tileset.getFirstgid();
+
+		int i = (y * layer.getWidth() + x) * 4;
+		if (gid == 0 || id < 0 || id > tileset.getMaxTileId()) {
+			// an empty cell, or a tile of another tileset.
+			data.put(i, (byte) 0).put(i + 1, (byte) 0).put(i + 2, (byte) 0).put(i + 3, (byte) 0);
+			return;
+		}
+
+		int flags = 0;
+		if ((gid & Tile.FLIPPED_HORIZONTALLY_FLAG) != 0) {
+			flags |= 1;
+		}
+		if ((gid & Tile.FLIPPED_VERTICALLY_FLAG) != 0) {
+			flags |= 2;
+		}
+		if ((gid & Tile.FLIPPED_DIAGONALLY_FLAG) != 0) {
+			flags |= 4;
+		}
+
+		data.put(i, (byte) id).put(i + 1, (byte) (id >> 8)).put(i + 2, (byte) flags).put(i + 3, (byte) 0xFF);
+	}
+
+	public Tileset getTileset() {
+		return tileset;
+	}
+
+	public Texture2D getTexture() {
+		return texture;
+	}
+
+	public Geometry getGeometry() {
+		return geometry;
+	}
+}
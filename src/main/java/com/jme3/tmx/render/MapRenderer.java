@@ -1,8 +1,14 @@
 package com.jme3.tmx.render;
 
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.jme3.material.Material;
@@ -14,6 +20,9 @@ import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.tmx.animation.AnimatedTileControl;
+import com.jme3.tmx.animation.TileAnimator;
 import com.jme3.tmx.core.ImageLayer;
 import com.jme3.tmx.core.Layer;
 import com.jme3.tmx.core.ObjectLayer;
@@ -22,8 +31,11 @@ import com.jme3.tmx.core.Tile;
 import com.jme3.tmx.core.TileLayer;
 import com.jme3.tmx.core.TiledMap;
 import com.jme3.tmx.core.TiledMap.Orientation;
+import com.jme3.tmx.core.Tileset;
 import com.jme3.tmx.math2d.Point;
 import com.jme3.tmx.util.ObjectMesh;
+import com.jme3.tmx.util.TileMesh;
+import com.jme3.util.BufferUtils;
 
 /**
  * <p>
@@ -78,6 +90,44 @@ public abstract class MapRenderer {
 	 */
 	protected Point mapSize;
 
+	/**
+	 * Size of the chunks in tiles, 0 means every tile has its own spatial.
+	 */
+	protected int chunkSize = 0;
+	private Map<TileLayer, TileChunk[]> chunks = new HashMap<TileLayer, TileChunk[]>();
+	private long[] cellOrder = new long[256];
+
+	/**
+	 * Temporary vector used by the render loops and the bulk conversions.
+	 */
+	private final Vector2f tmpCoord = new Vector2f();
+
+	/**
+	 * The flipped copies of the tile meshes, one for each combination of the
+	 * flip flags.
+	 */
+	private final Map<Mesh, Mesh[]> flippedMeshes = new IdentityHashMap<Mesh, Mesh[]>();
+
+	/**
+	 * Play the animated tiles with the shader instead of the TileAnimator.
+	 */
+	protected boolean useShaderAnimation = false;
+	private Map<Tileset, AnimationDataTexture> animationTextures = new HashMap<Tileset, AnimationDataTexture>();
+
+	/**
+	 * The copies of the animated tile meshes with the animation in TexCoord2.
+	 */
+	private final Map<Mesh, Mesh> animatedMeshes = new IdentityHashMap<Mesh, Mesh>();
+
+	/**
+	 * The tiles in view, chunks out of it are detached. See
+	 * {@link #setViewRect(int, int, int, int)}
+	 */
+	private int viewMinX = Integer.MIN_VALUE;
+	private int viewMinY = Integer.MIN_VALUE;
+	private int viewMaxX = Integer.MAX_VALUE;
+	private int viewMaxY = Integer.MAX_VALUE;
+
 	public MapRenderer(TiledMap map) {
 		this.map = map;
 		this.width = map.getWidth();
@@ -136,7 +186,342 @@ public abstract class MapRenderer {
 		return map.getVisual();
 	}
 
-	protected abstract Spatial render(TileLayer layer);
+	/**
+	 * Create the visual part of a tile layer. Only the cells changed since
+	 * the last time are updated.
+	 * 
+	 * @param layer
+	 *            A TileLayer object
+	 * @return a Spatial for this layer
+	 */
+	protected Spatial render(TileLayer layer) {
+		// instance the layer node
+		if (layer.getVisual() == null) {
+			Node layerNode = new Node("TileLayer#" + layer.getName());
+			layerNode.setQueueBucket(Bucket.Gui);
+			layer.setVisual(layerNode);
+
+			map.getVisual().attachChild(layerNode);
+		}
+
+		renderDirtyCells(layer);
+
+		// make it thinner
+		if (width > 0 && height > 0) {
+			layer.getVisual().setLocalScale(1, 0.5f / (width * height), 1);
+		}
+
+		return layer.getVisual();
+	}
+
+	/**
+	 * Set the size of the chunks the tile layers are split into. The tiles of
+	 * a chunk are merged into one mesh for each material, instead of one
+	 * Geometry for each tile. It should be set before the map is rendered.
+	 * 
+	 * @param chunkSize
+	 *            width and height of a chunk in tiles, or 0 to create a
+	 *            spatial for every tile.
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 0) {
+			throw new IllegalArgumentException("chunkSize must not be negative: " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Let the shader play the animated tiles. The frames of each tileset are
+	 * uploaded once in an {@link AnimationDataTexture}, then the CPU does
+	 * nothing for them and they can be merged into the chunks. Tiles which
+	 * can't be played this way are still animated by the TileAnimator. It
+	 * should be set before the map is rendered.
+	 * 
+	 * @param useShaderAnimation
+	 *            true to play the animations with the shader
+	 */
+	public void setUseShaderAnimation(boolean useShaderAnimation) {
+		this.useShaderAnimation = useShaderAnimation;
+	}
+
+	public boolean isUseShaderAnimation() {
+		return useShaderAnimation;
+	}
+
+	/**
+	 * Get the animations of a tileset played by the shader. The tilesets
+	 * sharing a material, such as the ones packed into the same atlas page,
+	 * share the texture too.
+	 * 
+	 * @param tileset
+	 *            the tileset
+	 * @return the texture, or null if the shader animation is not used.
+	 */
+	public AnimationDataTexture getAnimationTexture(Tileset tileset) {
+		if (!useShaderAnimation || tileset == null) {
+			return null;
+		}
+		AnimationDataTexture texture = animationTextures.get(tileset);
+		if (texture == null) {
+			List<Tileset> tilesets = new ArrayList<Tileset>();
+			tilesets.add(tileset);
+			if (tileset.getMaterial() != null) {
+				for (Tileset other : map.getTileSets()) {
+					if (other != tileset && other.getMaterial() == tileset.getMaterial()) {
+						tilesets.add(other);
+					}
+				}
+			}
+
+			texture = new AnimationDataTexture(tilesets);
+			for (int i = 0; i < tilesets.size(); i++) {
+				animationTextures.put(tilesets.get(i), texture);
+			}
+		}
+		return texture;
+	}
+
+	/**
+	 * @return row of the tile in the AnimationDataTexture of its tileset, or
+	 *         -1 if the tile is not played by the shader.
+	 */
+	private int getAnimationRow(Tile tile) {
+		if (!useShaderAnimation || !tile.isAnimated() || !(tile.getVisual() instanceof Geometry)
+				|| ((Geometry) tile.getVisual()).getMesh().getBuffer(Type.TexCoord) == null) {
+			return -1;
+		}
+		return getAnimationTexture(tile.getTileset()).getRow(tile);
+	}
+
+	/**
+	 * Get a chunk of a tile layer.
+	 * 
+	 * @param layer
+	 *            the tile layer
+	 * @param cx
+	 *            x of the chunk, in chunks
+	 * @param cy
+	 *            y of the chunk, in chunks
+	 * @return the chunk, or null if the layer is not rendered in chunks.
+	 */
+	public TileChunk getChunk(TileLayer layer, int cx, int cy) {
+		TileChunk[] array = chunks.get(layer);
+		if (array == null || cx < 0 || cy < 0) {
+			return null;
+		}
+		int columns = (layer.getWidth() + chunkSize - 1) / chunkSize;
+		int rows = (layer.getHeight() + chunkSize - 1) / chunkSize;
+		if (cx >= columns || cy >= rows) {
+			return null;
+		}
+		return array[cy * columns + cx];
+	}
+
+	/**
+	 * Set the rectangle of tiles in view. In chunk mode only the chunks that
+	 * intersect it stay attached to the scene graph, so the cost of drawing a
+	 * large map depends on the size of the screen instead of the map.
+	 * 
+	 * @param minX
+	 *            the left most tile in view
+	 * @param minY
+	 *            the top most tile in view
+	 * @param maxX
+	 *            the right most tile in view
+	 * @param maxY
+	 *            the bottom most tile in view
+	 */
+	public void setViewRect(int minX, int minY, int maxX, int maxY) {
+		if (minX == viewMinX && minY == viewMinY && maxX == viewMaxX && maxY == viewMaxY) {
+			return;
+		}
+
+		viewMinX = minX;
+		viewMinY = minY;
+		viewMaxX = maxX;
+		viewMaxY = maxY;
+
+		for (Map.Entry<TileLayer, TileChunk[]> e : chunks.entrySet()) {
+			cull(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Show every chunk again.
+	 */
+	public void clearViewRect() {
+		setViewRect(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Attach the chunks of a layer that intersect the view rectangle, detach
+	 * the others.
+	 */
+	private void cull(TileLayer layer, TileChunk[] array) {
+		Node layerNode = (Node) layer.getVisual();
+		for (int i = 0; i < array.length; i++) {
+			TileChunk chunk = array[i];
+			int x0 = chunk.getX() * chunkSize;
+			int y0 = chunk.getY() * chunkSize;
+			int x1 = x0 + chunkSize - 1;
+			int y1 = y0 + chunkSize - 1;
+
+			boolean isCulled = x1 < viewMinX || x0 > viewMaxX || y1 < viewMinY || y0 > viewMaxY;
+			chunk.setCulled(isCulled, layerNode);
+		}
+	}
+
+	/**
+	 * Update the visual part of the changed cells of a tile layer. Only the
+	 * changed cells are visited, see {@link TileLayer#getDirtyCount()}, so a
+	 * single tile changed in a large layer costs the same as in a small one.
+	 * 
+	 * @param layer
+	 *            the tile layer
+	 */
+	protected void renderDirtyCells(TileLayer layer) {
+		if (chunkSize > 0) {
+			renderChunks(layer);
+		} else {
+			final int count = layer.getDirtyCount();
+			for (int i = 0; i < count; i++) {
+				int x = layer.getDirtyX(i);
+				int y = layer.getDirtyY(i);
+				Tile tile = layer.getTileAt(x, y);
+				if (tile == null || tile.getVisual() == null) {
+					layer.setSpatialAt(x, y, null);
+				} else {
+					renderTile(layer, tile, x, y, getDrawOrder(x, y));
+				}
+			}
+		}
+		layer.clearDirtyCells();
+	}
+
+	/**
+	 * Build the chunks with changed cells again.
+	 */
+	private void renderChunks(TileLayer layer) {
+		final int columns = (layer.getWidth() + chunkSize - 1) / chunkSize;
+		final int rows = (layer.getHeight() + chunkSize - 1) / chunkSize;
+
+		TileChunk[] array = chunks.get(layer);
+		if (array == null) {
+			array = new TileChunk[columns * rows];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = new TileChunk(i % columns, i / columns);
+			}
+			chunks.put(layer, array);
+			cull(layer, array);
+		}
+
+		// find out the chunks with changed cells
+		List<TileChunk> changed = new ArrayList<TileChunk>();
+		final int count = layer.getDirtyCount();
+		for (int i = 0; i < count; i++) {
+			int x = layer.getDirtyX(i);
+			int y = layer.getDirtyY(i);
+			TileChunk chunk = array[(y / chunkSize) * columns + x / chunkSize];
+			if (!chunk.isNeedUpdated()) {
+				chunk.setNeedUpdated(true);
+				changed.add(chunk);
+			}
+		}
+
+		Node layerNode = (Node) layer.getVisual();
+		for (int i = 0; i < changed.size(); i++) {
+			TileChunk chunk = changed.get(i);
+			int x0 = chunk.getX() * chunkSize;
+			int y0 = chunk.getY() * chunkSize;
+			int x1 = Math.min(x0 + chunkSize, layer.getWidth());
+			int y1 = Math.min(y0 + chunkSize, layer.getHeight());
+
+			// sort the cells of the chunk in draw order, the index of the cell
+			// is kept in the low bits.
+			int n = 0;
+			for (int y = y0; y < y1; y++) {
+				for (int x = x0; x < x1; x++) {
+					if (n == cellOrder.length) {
+						cellOrder = Arrays.copyOf(cellOrder, n * 2);
+					}
+					cellOrder[n++] = (long) getDrawOrder(x, y) << 32 | (y * layer.getWidth() + x);
+				}
+			}
+			Arrays.sort(cellOrder, 0, n);
+
+			for (int j = 0; j < n; j++) {
+				int index = (int) cellOrder[j];
+				int x = index % layer.getWidth();
+				int y = index / layer.getWidth();
+
+				Tile tile = layer.getTileAt(x, y);
+				if (tile == null || tile.getVisual() == null) {
+					layer.setSpatialAt(x, y, null);
+					continue;
+				}
+
+				int row = getAnimationRow(tile);
+				if (row >= 0) {
+					// played by the shader, it's static for the chunk.
+					layer.setSpatialAt(x, y, null);
+					Vector2f pixelCoord = tileToScreenCoords(x, y, tmpCoord);
+					int frames = getAnimationTexture(tile.getTileset()).getFrameCount(row);
+					chunk.add(tile, pixelCoord.x, pixelCoord.y, (int) (cellOrder[j] >>> 32), row, frames);
+				} else if (TileChunk.isBatchable(tile)) {
+					layer.setSpatialAt(x, y, null);
+					Vector2f pixelCoord = tileToScreenCoords(x, y, tmpCoord);
+					chunk.add(tile, pixelCoord.x, pixelCoord.y, (int) (cellOrder[j] >>> 32));
+				} else {
+					// tiles that can't be batched keep their own spatial
+					renderTile(layer, tile, x, y, (int) (cellOrder[j] >>> 32));
+				}
+			}
+
+			chunk.build(layerNode);
+		}
+	}
+
+	/**
+	 * Create the visual part of a tile.
+	 * 
+	 * @param layer
+	 *            the tile layer
+	 * @param tile
+	 *            the tile at (x, y)
+	 * @param x
+	 *            Tile-space x coordinate
+	 * @param y
+	 *            Tile-space y coordinate
+	 * @param zIndex
+	 *            the draw order of the tile
+	 */
+	protected void renderTile(TileLayer layer, Tile tile, int x, int y, int zIndex) {
+		Spatial visual = tile.getVisual().clone();
+		flip(visual, tile);
+		animate(visual, tile);
+
+		Vector2f pixelCoord = tileToScreenCoords(x, y);
+		visual.move(pixelCoord.x, zIndex, pixelCoord.y);
+		visual.setQueueBucket(Bucket.Gui);
+		layer.setSpatialAt(x, y, visual);
+	}
+
+	/**
+	 * The order the tiles are drawn, tiles with a greater value are drawn
+	 * over the others. It must be between 0 and width * height * 2.
+	 * 
+	 * @param x
+	 *            Tile-space x coordinate
+	 * @param y
+	 *            Tile-space y coordinate
+	 * @return the draw order of the tile.
+	 */
+	protected abstract int getDrawOrder(int x, int y);
+
 
 	/**
 	 * Create the visual part for every ObjectNode in a ObjectLayer.
@@ -266,6 +651,7 @@ public abstract class MapRenderer {
 					visual.setQueueBucket(Bucket.Gui);
 
 					flip(visual, obj.getTile());
+					animate(visual, tile);
 
 					// When the object has a gid set, then it is represented by
 					// the image of the tile with that global ID. The image
@@ -325,27 +711,143 @@ public abstract class MapRenderer {
 	 * Coordinates System Convert *
 	 ******************************/
 
-	public abstract Vector2f pixelToScreenCoords(float x, float y);
+	/*
+	 * Each conversion has a version that writes the result into a store
+	 * object, so code that converts many coordinates every frame doesn't
+	 * create garbage. The store must not be null.
+	 */
 
-	public abstract Point pixelToTileCoords(float x, float y);
+	public Vector2f pixelToScreenCoords(float x, float y) {
+		return pixelToScreenCoords(x, y, new Vector2f());
+	}
 
-	public abstract Vector2f tileToPixelCoords(float x, float y);
+	public abstract Vector2f pixelToScreenCoords(float x, float y, Vector2f store);
 
-	public abstract Vector2f tileToScreenCoords(float x, float y);
+	public Point pixelToTileCoords(float x, float y) {
+		return pixelToTileCoords(x, y, new Point());
+	}
 
-	public abstract Vector2f screenToPixelCoords(float x, float y);
+	public abstract Point pixelToTileCoords(float x, float y, Point store);
 
-	public abstract Point screenToTileCoords(float x, float y);
+	public Vector2f tileToPixelCoords(float x, float y) {
+		return tileToPixelCoords(x, y, new Vector2f());
+	}
+
+	public abstract Vector2f tileToPixelCoords(float x, float y, Vector2f store);
+
+	public Vector2f tileToScreenCoords(float x, float y) {
+		return tileToScreenCoords(x, y, new Vector2f());
+	}
+
+	public abstract Vector2f tileToScreenCoords(float x, float y, Vector2f store);
+
+	public Vector2f screenToPixelCoords(float x, float y) {
+		return screenToPixelCoords(x, y, new Vector2f());
+	}
+
+	public abstract Vector2f screenToPixelCoords(float x, float y, Vector2f store);
+
+	public Point screenToTileCoords(float x, float y) {
+		return screenToTileCoords(x, y, new Point());
+	}
+
+	public abstract Point screenToTileCoords(float x, float y, Point store);
 
 	/**
-	 * Flip the tile
+	 * Convert a rectangle of tiles to screen coordinates. The x and y of each
+	 * tile are put into the buffer row by row, from its current position.
 	 * 
-	 * TODO how about change the uv coord?
+	 * @param x
+	 *            the left most tile
+	 * @param y
+	 *            the top most tile
+	 * @param w
+	 *            width of the rectangle in tiles
+	 * @param h
+	 *            height of the rectangle in tiles
+	 * @param store
+	 *            the buffer to store the result, or null to create a new one.
+	 * @return the buffer, its position is moved w * h * 2 floats forward.
+	 */
+	public FloatBuffer tileToScreenCoords(int x, int y, int w, int h, FloatBuffer store) {
+		if (store == null) {
+			store = BufferUtils.createFloatBuffer(w * h * 2);
+		}
+		for (int ty = y; ty < y + h; ty++) {
+			for (int tx = x; tx < x + w; tx++) {
+				tileToScreenCoords(tx, ty, tmpCoord);
+				store.put(tmpCoord.x).put(tmpCoord.y);
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Convert a rectangle of tiles to pixel coordinates. The x and y of each
+	 * tile are put into the buffer row by row, from its current position.
+	 * 
+	 * @param x
+	 *            the left most tile
+	 * @param y
+	 *            the top most tile
+	 * @param w
+	 *            width of the rectangle in tiles
+	 * @param h
+	 *            height of the rectangle in tiles
+	 * @param store
+	 *            the buffer to store the result, or null to create a new one.
+	 * @return the buffer, its position is moved w * h * 2 floats forward.
+	 */
+	public FloatBuffer tileToPixelCoords(int x, int y, int w, int h, FloatBuffer store) {
+		if (store == null) {
+			store = BufferUtils.createFloatBuffer(w * h * 2);
+		}
+		for (int ty = y; ty < y + h; ty++) {
+			for (int tx = x; tx < x + w; tx++) {
+				tileToPixelCoords(tx, ty, tmpCoord);
+				store.put(tmpCoord.x).put(tmpCoord.y);
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Flip the tile. The texCoords of a Geometry are flipped instead of its
+	 * transform, so it still can be batched with the other tiles. The flipped
+	 * meshes are shared by all the tiles with the same image and flags.
 	 * 
 	 * @param visual The spatial for this tile.
 	 * @param tile The image of this tile.
 	 */
 	protected void flip(Spatial visual, Tile tile) {
+		final int gid = tile.getGid();
+		final int flags = (gid & Tile.FLIPPED_MASK) >>> 29;
+		if (flags == 0) {
+			return;
+		}
+
+		if (visual instanceof Geometry) {
+			Geometry geom = (Geometry) visual;
+			Mesh mesh = geom.getMesh();
+
+			Mesh[] flipped = flippedMeshes.get(mesh);
+			if (flipped == null) {
+				flipped = new Mesh[8];
+				flippedMeshes.put(mesh, flipped);
+			}
+			if (flipped[flags] == null) {
+				flipped[flags] = TileMesh.flip(mesh, gid);
+			}
+			geom.setMesh(flipped[flags]);
+
+			AnimatedTileControl control = geom.getControl(AnimatedTileControl.class);
+			if (control != null) {
+				control.setFlipFlags(gid);
+			}
+			return;
+		}
+
+		// not a Geometry, only the horizontal and vertical flips are possible
 		if (tile.isFlippedHorizontally()) {
 			visual.rotate(0, 0, FastMath.PI);
 			visual.move(tile.getWidth(), 0, 0);
@@ -355,19 +857,42 @@ public abstract class MapRenderer {
 			visual.rotate(FastMath.PI, 0, 0);
 			visual.move(0, 0, tile.getHeight());
 		}
+	}
 
-		/**
-		 * TODO flip diagonally
-		 * <pre>
-		 * [      *]
-		 * [    *  ]
-		 * [  *    ]
-		 * [*      ]
-		 * </pre>
-		 */
-		if (tile.isFlippedAntiDiagonally()) {
+	/**
+	 * Let the TileAnimator of the map play the animation of the tile. The
+	 * mesh is shared by all the cells of the tile, it is only registered once.
+	 * 
+	 * @param visual The spatial for this tile.
+	 * @param tile The image of this tile.
+	 */
+	protected void animate(Spatial visual, Tile tile) {
+		if (!tile.isAnimated() || !(visual instanceof Geometry)) {
+			return;
+		}
+		Geometry geom = (Geometry) visual;
 
+		int row = getAnimationRow(tile);
+		if (row < 0) {
+			TileAnimator.get(map).add(tile, geom);
+			return;
+		}
+
+		// played by the shader, the animation is kept in TexCoord2
+		Mesh mesh = geom.getMesh();
+		Mesh animated = animatedMeshes.get(mesh);
+		if (animated == null) {
+			int frames = getAnimationTexture(tile.getTileset()).getFrameCount(row);
+			float[] data = new float[mesh.getVertexCount() * 2];
+			for (int i = 0; i < data.length; i += 2) {
+				data[i] = row;
+				data[i + 1] = frames;
+			}
+			animated = mesh.deepClone();
+			animated.setBuffer(Type.TexCoord2, 2, data);
+			animatedMeshes.put(mesh, animated);
 		}
+		geom.setMesh(animated);
 	}
 
 	private final class CompareTopdown implements Comparator<ObjectNode> {
@@ -1,15 +1,17 @@
 package com.jme3.tmx.render;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.jme3.math.Vector2f;
 import com.jme3.renderer.queue.RenderQueue.Bucket;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
-import com.jme3.tmx.core.Tile;
 import com.jme3.tmx.core.TileLayer;
 import com.jme3.tmx.core.TiledMap;
-import com.jme3.tmx.core.TiledMap.RenderOrder;
+import com.jme3.tmx.core.TiledMap.Orientation;
+import com.jme3.tmx.core.Tileset;
 import com.jme3.tmx.math2d.Point;
 
 /**
@@ -22,128 +24,158 @@ public class OrthogonalRenderer extends MapRenderer {
 
 	static Logger logger = Logger.getLogger(OrthogonalRenderer.class.getName());
 
+	/**
+	 * Draw each tile layer with one quad and a data texture.
+	 */
+	private boolean useDataTexture = false;
+
+	/**
+	 * The data textures of the layers, null for the layers that can't use
+	 * one.
+	 */
+	private Map<TileLayer, LayerDataTexture> dataTextures = new HashMap<TileLayer, LayerDataTexture>();
+
 	public OrthogonalRenderer(TiledMap map) {
 		super(map);
 	}
 
+	/**
+	 * Draw each tile layer as a single quad. The gids of the layer are stored
+	 * in a texture and the shader finds the tiles, so the cost of drawing a
+	 * layer doesn't depend on the number of tiles, and changing a tile only
+	 * changes one texel. See {@link LayerDataTexture}.
+	 * 
+	 * Only for orthogonal maps. A layer that uses more than one tileset, or
+	 * an image collection, is still rendered with spatials. It should be set
+	 * before the map is rendered.
+	 * 
+	 * @param useDataTexture
+	 */
+	public void setUseDataTexture(boolean useDataTexture) {
+		this.useDataTexture = useDataTexture;
+	}
+
+	public boolean isUseDataTexture() {
+		return useDataTexture;
+	}
+
+	/**
+	 * Get the data texture of a layer.
+	 * 
+	 * @param layer
+	 * @return the data texture, or null if the layer is not rendered with one.
+	 */
+	public LayerDataTexture getDataTexture(TileLayer layer) {
+		return dataTextures.get(layer);
+	}
+
 	@Override
 	public Spatial render(TileLayer layer) {
-		int startX = 0;
-		int startY = 0;
-		int endX = width - 1;
-		int endY = height - 1;
-
-		int incX = 1, incY = 1;
-		int tmp;
-		RenderOrder renderOrder = map.getRenderOrder();
-		switch (renderOrder) {
-		case RightUp: {
-			// swap y
-			tmp = endY;
-			endY = startY;
-			startY = tmp;
-			incY = -1;
-			break;
+		if (useDataTexture && map.getOrientation() == Orientation.ORTHOGONAL) {
+			// instance the layer node
+			if (layer.getVisual() == null) {
+				Node layerNode = new Node("TileLayer#" + layer.getName());
+				layerNode.setQueueBucket(Bucket.Gui);
+				layer.setVisual(layerNode);
+
+				map.getVisual().attachChild(layerNode);
+			}
+
+			if (renderDataTexture(layer)) {
+				return layer.getVisual();
+			}
 		}
-		case LeftDown: {
-			// swap x
-			tmp = endX;
-			endX = startX;
-			startX = tmp;
-			incX = -1;
+
+		return super.render(layer);
+	}
+
+	@Override
+	protected int getDrawOrder(int x, int y) {
+		switch (map.getRenderOrder()) {
+		case RightUp:
+			y = height - 1 - y;
 			break;
-		}
-		case LeftUp: {
-			// swap x
-			tmp = endX;
-			endX = startX;
-			startX = tmp;
-			incX = -1;
-
-			// swap y
-			tmp = endY;
-			endY = startY;
-			startY = tmp;
-			incY = -1;
+		case LeftDown:
+			x = width - 1 - x;
 			break;
-		}
-		case RightDown: {
+		case LeftUp:
+			x = width - 1 - x;
+			y = height - 1 - y;
+			break;
+		case RightDown:
 			break;
 		}
-		}
-		endX += incX;
-		endY += incY;
-
-		int tileZIndex = 0;
-
-		// instance the layer node
-		if (layer.getVisual() == null) {
-			Node layerNode = new Node("TileLayer#" + layer.getName());
-			layerNode.setQueueBucket(Bucket.Gui);
-			layer.setVisual(layerNode);
-			
-			map.getVisual().attachChild(layerNode);
-		}
-		
-		for (int y = startY; y != endY; y += incY) {
-			for (int x = startX; x != endX; x += incX) {
-				final Tile tile = layer.getTileAt(x, y);
-				if (tile == null || tile.getVisual() == null) {
-					continue;
-				}
-
-				if (layer.isNeedUpdateAt(x, y)) {
-					Spatial visual = tile.getVisual().clone();
-					flip(visual, tile);
-					
-					Vector2f pixelCoord = tileToScreenCoords(x, y);
-					visual.move(pixelCoord.x, tileZIndex, pixelCoord.y);
-					visual.setQueueBucket(Bucket.Gui);
-					layer.setSpatialAt(x, y, visual);
-				}
-				
-				tileZIndex++;
+		return y * width + x;
+	}
+
+	/**
+	 * Render the layer with a data texture.
+	 * 
+	 * @param layer
+	 * @return false if the layer can't be rendered with a data texture.
+	 */
+	private boolean renderDataTexture(TileLayer layer) {
+		LayerDataTexture dataTexture;
+		if (!dataTextures.containsKey(layer)) {
+			Tileset tileset = LayerDataTexture.findTileset(layer);
+			if (tileset == null) {
+				logger.info("Layer " + layer.getName() + " can't be rendered with a data texture.");
+				dataTextures.put(layer, null);
+				return false;
+			}
+
+			dataTexture = new LayerDataTexture(layer, tileset);
+			dataTextures.put(layer, dataTexture);
+			((Node) layer.getVisual()).attachChild(dataTexture.getGeometry());
+		} else {
+			dataTexture = dataTextures.get(layer);
+			if (dataTexture == null) {
+				return false;
 			}
 		}
-		// make it thinner
-		if (tileZIndex > 0) {
-			layer.getVisual().setLocalScale(1, 1f / tileZIndex, 1);
+
+		final int count = layer.getDirtyCount();
+		for (int i = 0; i < count; i++) {
+			dataTexture.update(layer.getDirtyX(i), layer.getDirtyY(i));
 		}
+		layer.clearDirtyCells();
 
-		return layer.getVisual();
+		return true;
 	}
 
 	// Coordinates System Convert
 
 	// OrthogonalRenderer, StaggeredRenderer, HexagonalRenderer
 	@Override
-	public Vector2f pixelToScreenCoords(float x, float y) {
-		return new Vector2f(x, y);
+	public Vector2f pixelToScreenCoords(float x, float y, Vector2f store) {
+		return store.set(x, y);
 	}
 
 	@Override
-	public Point pixelToTileCoords(float x, float y) {
-		return new Point(x / tileWidth, y / tileHeight);
+	public Point pixelToTileCoords(float x, float y, Point store) {
+		store.set(x / tileWidth, y / tileHeight);
+		return store;
 	}
 
 	@Override
-	public Vector2f tileToPixelCoords(float x, float y) {
-		return new Vector2f(x * tileWidth, y * tileHeight);
+	public Vector2f tileToPixelCoords(float x, float y, Vector2f store) {
+		return store.set(x * tileWidth, y * tileHeight);
 	}
 
 	@Override
-	public Vector2f tileToScreenCoords(float x, float y) {
-		return new Vector2f(x * tileWidth, y * tileHeight);
+	public Vector2f tileToScreenCoords(float x, float y, Vector2f store) {
+		return store.set(x * tileWidth, y * tileHeight);
 	}
 
 	@Override
-	public Vector2f screenToPixelCoords(float x, float y) {
-		return new Vector2f(x, y);
+	public Vector2f screenToPixelCoords(float x, float y, Vector2f store) {
+		return store.set(x, y);
 	}
 
 	@Override
-	public Point screenToTileCoords(float x, float y) {
-		return new Point(x / tileWidth, y / tileHeight);
+	public Point screenToTileCoords(float x, float y, Point store) {
+		store.set(x / tileWidth, y / tileHeight);
+		return store;
 	}
 
 }
@@ -22,7 +22,8 @@ public class StaggeredRenderer extends HexagonalRenderer {
 	 * This override exists because the method used by the HexagonalRenderer
 	 * does not produce nice results for isometric shapes in the tile corners.
 	 */
-	public Point screenToTileCoords(float x, float y) {
+	@Override
+	public Point screenToTileCoords(float x, float y, Point store) {
 
 		if (staggerX)
 			x -= staggerEven ? sideOffsetX : 0;
@@ -30,36 +31,39 @@ public class StaggeredRenderer extends HexagonalRenderer {
 			y -= staggerEven ? sideOffsetY : 0;
 
 		// Start with the coordinates of a grid-aligned tile
-		Point referencePoint = new Point(x / tileWidth, y / tileHeight);
+		int referenceX = (int) Math.floor(x / tileWidth);
+		int referenceY = (int) Math.floor(y / tileHeight);
 
 		// Relative x and y position on the base square of the grid-aligned tile
-		Point rel = new Point(x - referencePoint.x * tileWidth, y - referencePoint.y * tileHeight);
+		int relX = (int) Math.floor(x - referenceX * tileWidth);
+		int relY = (int) Math.floor(y - referenceY * tileHeight);
 
 		// Adjust the reference point to the correct tile coordinates
 		if (staggerX) {
-			referencePoint.x *= 2;
+			referenceX *= 2;
 			if (staggerEven)
-				referencePoint.x++;
+				referenceX++;
 		} else {
-			referencePoint.y *= 2;
+			referenceY *= 2;
 			if (staggerEven)
-				referencePoint.y++;
+				referenceY++;
 		}
 
-		float y_pos = rel.x * ((float) tileHeight / tileWidth);
+		float y_pos = relX * ((float) tileHeight / tileWidth);
 
 		// Check whether the cursor is in any of the corners (neighboring tiles)
-		if (sideOffsetY - y_pos > rel.y)
-			return topLeft(referencePoint.x, referencePoint.y);
-		if (-sideOffsetY + y_pos > rel.y)
-			return topRight(referencePoint.x, referencePoint.y);
+		if (sideOffsetY - y_pos > relY)
+			return topLeft(referenceX, referenceY, store);
+		if (-sideOffsetY + y_pos > relY)
+			return topRight(referenceX, referenceY, store);
 
-		if (sideOffsetY + y_pos < rel.y)
-			return bottomLeft(referencePoint.x, referencePoint.y);
-		if (sideOffsetY * 3 - y_pos < rel.y)
-			return bottomRight(referencePoint.x, referencePoint.y);
+		if (sideOffsetY + y_pos < relY)
+			return bottomLeft(referenceX, referenceY, store);
+		if (sideOffsetY * 3 - y_pos < relY)
+			return bottomRight(referenceX, referenceY, store);
 
-		return referencePoint;
+		store.setLocation(referenceX, referenceY);
+		return store;
 
 	}
 
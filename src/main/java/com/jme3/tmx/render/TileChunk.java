@@ -0,0 +1,382 @@
+package com.jme3.tmx.render;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jme3.material.Material;
+import com.jme3.renderer.queue.RenderQueue.Bucket;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.Spatial.BatchHint;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.util.TileMesh;
+
+/**
+ * A square of NxN tiles of a TileLayer. Instead of a Geometry for every tile,
+ * the tiles of a chunk are merged into one Mesh for each Material they use.
+ * The position and texCoord of every tile are baked into the vertex buffers,
+ * and the flips are done by the texCoords. A 256x256 layer with 16x16 chunks
+ * becomes 256 geometries.
+ *
+ * Tiles that can't be merged (animated tiles not played by the shader, or
+ * tiles whose visual is not a Geometry) still get their own spatial from the
+ * MapRenderer.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class TileChunk {
+
+	/**
+	 * Position of this chunk, in chunks.
+	 */
+	private final int x, y;
+
+	private boolean isNeedUpdate = false;
+
+	/**
+	 * A culled chunk is out of the view, its visual is not attached.
+	 */
+	private boolean isCulled = false;
+
+	private Node visual;
+
+	/**
+	 * One batch for each material. They are kept and reused when the chunk is
+	 * built again.
+	 */
+	private final List<Batch> batches = new ArrayList<Batch>();
+
+	public TileChunk(int x, int y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * Tell if this chunk should be built again.
+	 *
+	 * @return true if some tiles of this chunk changed.
+	 */
+	public boolean isNeedUpdated() {
+		return isNeedUpdate;
+	}
+
+	public void setNeedUpdated(boolean isNeedUpdate) {
+		this.isNeedUpdate = isNeedUpdate;
+	}
+
+	public boolean isCulled() {
+		return isCulled;
+	}
+
+	/**
+	 * Attach or detach the visual part of this chunk.
+	 * 
+	 * @param isCulled
+	 *            true if the chunk is out of the view.
+	 * @param parent
+	 *            the node of the layer.
+	 */
+	public void setCulled(boolean isCulled, Node parent) {
+		if (this.isCulled == isCulled) {
+			return;
+		}
+		this.isCulled = isCulled;
+
+		if (visual != null) {
+			if (isCulled) {
+				visual.removeFromParent();
+			} else {
+				parent.attachChild(visual);
+			}
+		}
+	}
+
+	/**
+	 * The visual part of this chunk, a Node with one Geometry for each
+	 * material.
+	 *
+	 * @return the node, or null if the chunk was never built.
+	 */
+	public Node getVisual() {
+		return visual;
+	}
+
+	/**
+	 * Tell if the tile can be merged into the mesh of a chunk.
+	 *
+	 * @param tile
+	 * @return true if its visual is a Geometry that may be batched.
+	 */
+	public static boolean isBatchable(Tile tile) {
+		Spatial visual = tile.getVisual();
+		if (!(visual instanceof Geometry) || visual.getBatchHint() == BatchHint.Never) {
+			return false;
+		}
+		Mesh mesh = ((Geometry) visual).getMesh();
+		return mesh.getBuffer(Type.Position) != null && mesh.getBuffer(Type.TexCoord) != null;
+	}
+
+	/**
+	 * Add a tile to this chunk. The tile must be {@link #isBatchable(Tile)}.
+	 *
+	 * @param tile
+	 *            the tile
+	 * @param posX
+	 *            screen x of the tile
+	 * @param posY
+	 *            screen y of the tile
+	 * @param zIndex
+	 *            the draw order of the tile in its layer
+	 */
+	public void add(Tile tile, float posX, float posY, int zIndex) {
+		add(tile, posX, posY, zIndex, 0, 0);
+	}
+
+	/**
+	 * Add an animated tile to this chunk, its animation is played by the
+	 * shader. See {@link AnimationDataTexture}.
+	 * 
+	 * @param tile
+	 *            the tile
+	 * @param posX
+	 *            screen x of the tile
+	 * @param posY
+	 *            screen y of the tile
+	 * @param zIndex
+	 *            the draw order of the tile in its layer
+	 * @param animation
+	 *            row of the animation in the AnimationDataTexture
+	 * @param frames
+	 *            number of frames of the animation, 0 if it's not animated.
+	 */
+	public void add(Tile tile, float posX, float posY, int zIndex, int animation, int frames) {
+		Geometry geom = (Geometry) tile.getVisual();
+		Batch batch = getBatch(geom.getMaterial(), zIndex);
+		batch.add(geom.getMesh(), tile, posX, posY, zIndex, animation, frames);
+	}
+
+	/**
+	 * Create the meshes of the tiles added since the last build, and replace
+	 * the visual part of this chunk with them.
+	 *
+	 * @param parent
+	 *            the node of the layer.
+	 */
+	public void build(Node parent) {
+		if (visual != null) {
+			visual.removeFromParent();
+			visual = null;
+		}
+
+		for (int i = 0; i < batches.size(); i++) {
+			Batch batch = batches.get(i);
+			if (batch.vertexCount == 0) {
+				continue;
+			}
+
+			if (visual == null) {
+				visual = new Node("TileChunk#" + x + "#" + y);
+				visual.setQueueBucket(Bucket.Gui);
+			}
+
+			Geometry geom = new Geometry("TileChunk#" + x + "#" + y + "#" + i, batch.createMesh());
+			geom.setMaterial(batch.material);
+			geom.setQueueBucket(Bucket.Gui);
+			// draw order of the batch, the vertices are relative to it.
+			geom.setLocalTranslation(0, batch.zIndex, 0);
+			visual.attachChild(geom);
+
+			batch.clear();
+		}
+
+		if (visual != null && !isCulled) {
+			parent.attachChild(visual);
+		}
+
+		isNeedUpdate = false;
+	}
+
+	private Batch getBatch(Material material, int zIndex) {
+		for (int i = 0; i < batches.size(); i++) {
+			Batch batch = batches.get(i);
+			if (batch.material == material) {
+				if (batch.vertexCount == 0) {
+					batch.zIndex = zIndex;
+				}
+				return batch;
+			}
+		}
+
+		Batch batch = new Batch(material);
+		batch.zIndex = zIndex;
+		batches.add(batch);
+		return batch;
+	}
+
+	/**
+	 * The vertices of the tiles with the same material.
+	 */
+	private static class Batch {
+		private final Material material;
+
+		/**
+		 * Draw order of the first tile in this batch.
+		 */
+		private int zIndex;
+
+		private float[] positions = new float[0];
+		private float[] texCoords = new float[0];
+		private int[] indexes = new int[0];
+		/**
+		 * TexCoord2, the animation and the number of frames of each vertex.
+		 */
+		private float[] animations = new float[0];
+		private boolean isAnimated;
+		/**
+		 * TexCoord3, the layer in the TextureArray of each vertex.
+		 */
+		private float[] layers = new float[0];
+		private boolean hasLayers;
+		private int vertexCount;
+		private int indexCount;
+
+		Batch(Material material) {
+			this.material = material;
+		}
+
+		void add(Mesh mesh, Tile tile, float posX, float posY, int zIndex, int animation, int frames) {
+			FloatBuffer pos = mesh.getFloatBuffer(Type.Position);
+			FloatBuffer tex = mesh.getFloatBuffer(Type.TexCoord);
+			IndexBuffer idx = mesh.getIndexBuffer();
+
+			final int vertices = mesh.getVertexCount();
+			final int count = idx == null ? vertices : idx.size();
+			ensureCapacity(vertices, count);
+
+			final float depth = zIndex - this.zIndex;
+
+			int p = vertexCount * 3;
+			for (int i = 0; i < vertices; i++) {
+				positions[p++] = posX + pos.get(i * 3);
+				positions[p++] = depth + pos.get(i * 3 + 1);
+				positions[p++] = posY + pos.get(i * 3 + 2);
+			}
+
+			int t = vertexCount * 2;
+			if ((tile.getGid() & Tile.FLIPPED_MASK) != 0) {
+				TileMesh.flipTexCoords(tex, tile.getGid(), texCoords, t);
+			} else {
+				for (int i = 0; i < vertices * 2; i++) {
+					texCoords[t++] = tex.get(i);
+				}
+			}
+
+			t = vertexCount * 2;
+			for (int i = 0; i < vertices; i++) {
+				animations[t++] = animation;
+				animations[t++] = frames;
+			}
+			if (frames > 0) {
+				isAnimated = true;
+			}
+
+			FloatBuffer layer = mesh.getFloatBuffer(Type.TexCoord3);
+			for (int i = 0; i < vertices; i++) {
+				layers[vertexCount + i] = layer == null ? 0 : layer.get(i);
+			}
+			if (layer != null) {
+				hasLayers = true;
+			}
+
+			for (int i = 0; i < count; i++) {
+				indexes[indexCount++] = vertexCount + (idx == null ? i : idx.get(i));
+			}
+
+			vertexCount += vertices;
+		}
+
+		private void ensureCapacity(int vertices, int count) {
+			if ((vertexCount + vertices) * 3 > positions.length) {
+				int capacity = Math.max((vertexCount + vertices) * 2, 64);
+				float[] p = new float[capacity * 3];
+				float[] t = new float[capacity * 2];
+				float[] a = new float[capacity * 2];
+				float[] l = new float[capacity];
+				System.arraycopy(positions, 0, p, 0, vertexCount * 3);
+				System.arraycopy(texCoords, 0, t, 0, vertexCount * 2);
+				System.arraycopy(animations, 0, a, 0, vertexCount * 2);
+				System.arraycopy(layers, 0, l, 0, vertexCount);
+				positions = p;
+				texCoords = t;
+				animations = a;
+				layers = l;
+			}
+			if (indexCount + count > indexes.length) {
+				int[] i = new int[Math.max((indexCount + count) * 2, 96)];
+				System.arraycopy(indexes, 0, i, 0, indexCount);
+				indexes = i;
+			}
+		}
+
+		Mesh createMesh() {
+			float[] p = new float[vertexCount * 3];
+			float[] t = new float[vertexCount * 2];
+			float[] n = new float[vertexCount * 3];
+			System.arraycopy(positions, 0, p, 0, p.length);
+			System.arraycopy(texCoords, 0, t, 0, t.length);
+			for (int i = 1; i < n.length; i += 3) {
+				n[i] = 1;
+			}
+
+			Mesh mesh = new Mesh();
+			mesh.setBuffer(Type.Position, 3, p);
+			mesh.setBuffer(Type.TexCoord, 2, t);
+			mesh.setBuffer(Type.Normal, 3, n);
+			if (isAnimated) {
+				float[] a = new float[vertexCount * 2];
+				System.arraycopy(animations, 0, a, 0, a.length);
+				mesh.setBuffer(Type.TexCoord2, 2, a);
+			}
+			if (hasLayers) {
+				float[] l = new float[vertexCount];
+				System.arraycopy(layers, 0, l, 0, l.length);
+				mesh.setBuffer(Type.TexCoord3, 1, l);
+			}
+			if (vertexCount <= 65536) {
+				short[] s = new short[indexCount];
+				for (int i = 0; i < indexCount; i++) {
+					s[i] = (short) indexes[i];
+				}
+				mesh.setBuffer(Type.Index, 3, s);
+			} else {
+				int[] s = new int[indexCount];
+				System.arraycopy(indexes, 0, s, 0, indexCount);
+				mesh.setBuffer(Type.Index, 3, s);
+			}
+			mesh.updateBound();
+			mesh.setStatic();
+			return mesh;
+		}
+
+		void clear() {
+			vertexCount = 0;
+			indexCount = 0;
+			isAnimated = false;
+			hasLayers = false;
+		}
+	}
+}
@@ -0,0 +1,434 @@
+package com.jme3.tmx.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the base64 (and optionally zlib or gzip compressed) or csv data of
+ * a &lt;layer&gt; into an array of global tile ids.
+ *
+ * The text is decoded in small chunks. Each chunk goes through the inflater
+ * and its bytes are put into the gid array as little-endian ints right away,
+ * so there is no byte[] of the whole layer and no InputStream involved. The
+ * chunk buffers and the inflaters are kept by the decoder and reused for the
+ * next layer, that's why a decoder must not be shared between threads.
+ *
+ * The zlib checksum is checked by the inflater. The CRC32 and the size in the
+ * gzip trailer are checked here, as GZIPInputStream does.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class LayerDataDecoder {
+
+	private final static int CHUNK_SIZE = 8192;
+
+	/**
+	 * The same table as {@link Base64}, -1 for chars that are not part of the
+	 * alphabet.
+	 */
+	private final static int[] IA = new int[256];
+	static {
+		Arrays.fill(IA, -1);
+		String ca = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < ca.length(); i++) {
+			IA[ca.charAt(i)] = i;
+		}
+	}
+
+	// flags in the gzip header
+	private final static int FHCRC = 2;
+	private final static int FEXTRA = 4;
+	private final static int FNAME = 8;
+	private final static int FCOMMENT = 16;
+
+	// parts of the gzip header, in the order they appear
+	private final static int GZ_FIXED = 0;
+	private final static int GZ_EXTRA_LEN = 1;
+	private final static int GZ_EXTRA = 2;
+	private final static int GZ_NAME = 3;
+	private final static int GZ_COMMENT = 4;
+	private final static int GZ_HCRC = 5;
+	private final static int GZ_DONE = 6;
+
+	private final Inflater zlib = new Inflater();
+	private final Inflater gzip = new Inflater(true);
+
+	private final byte[] in = new byte[CHUNK_SIZE];
+	private final byte[] out = new byte[CHUNK_SIZE];
+
+	// state of the current layer
+	private Inflater inflater;
+	private int[] gids;
+	private int pos;
+	private int limit;
+
+	// state of the gzip header
+	private int gzipStage;
+	private int gzipCount;
+	private int gzipFlags;
+	private int gzipExtra;
+
+	// the gzip trailer: CRC32 and size of the inflated data
+	private final CRC32 crc = new CRC32();
+	private final byte[] trailer = new byte[8];
+	private int trailerCount;
+
+	/**
+	 * Decode the base64 text of a layer.
+	 *
+	 * @param text
+	 *            the text content of the &lt;data&gt; element, whitespace is
+	 *            ignored.
+	 * @param compression
+	 *            "zlib", "gzip", or null for uncompressed data.
+	 * @param gids
+	 *            the array to store the global tile ids.
+	 * @param count
+	 *            the number of tiles in the layer, that's width * height.
+	 * @throws IOException
+	 *             if the data is broken or does not match the count.
+	 */
+	public void decodeBase64(String text, String compression, int[] gids,
+			int count) throws IOException {
+
+		if (compression == null || compression.isEmpty()) {
+			inflater = null;
+		} else if ("zlib".equalsIgnoreCase(compression)) {
+			inflater = zlib;
+		} else if ("gzip".equalsIgnoreCase(compression)) {
+			inflater = gzip;
+			gzipStage = GZ_FIXED;
+			gzipCount = 0;
+			gzipFlags = 0;
+			gzipExtra = 0;
+			crc.reset();
+			trailerCount = 0;
+		} else {
+			throw new IOException("Unrecognized compression method \""
+					+ compression + "\"");
+		}
+
+		Arrays.fill(gids, 0, count, 0);
+		this.gids = gids;
+		this.pos = 0;
+		this.limit = count * 4;
+
+		try {
+			if (inflater != null) {
+				inflater.reset();
+			}
+
+			int len = 0;
+			int bits = 0;
+			int sextets = 0;
+
+			final int textLength = text.length();
+			for (int i = 0; i < textLength; i++) {
+				char c = text.charAt(i);
+				if (c == '=') {
+					break;
+				}
+
+				int v = c < 256 ? IA[c] : -1;
+				if (v < 0) {
+					// whitespace and line breaks
+					continue;
+				}
+
+				bits = bits << 6 | v;
+				if (++sextets == 4) {
+					in[len++] = (byte) (bits >> 16);
+					in[len++] = (byte) (bits >> 8);
+					in[len++] = (byte) bits;
+					bits = 0;
+					sextets = 0;
+
+					if (len > CHUNK_SIZE - 3) {
+						write(len);
+						len = 0;
+					}
+				}
+			}
+
+			// the last group may come without padding
+			if (sextets == 2) {
+				in[len++] = (byte) (bits >> 4);
+			} else if (sextets == 3) {
+				in[len++] = (byte) (bits >> 10);
+				in[len++] = (byte) (bits >> 2);
+			}
+			if (len > 0) {
+				write(len);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Broken layer data: " + e.getMessage(), e);
+		} finally {
+			this.gids = null;
+		}
+
+		if (pos != limit) {
+			throw new IOException(
+					"Number of tiles does not match the layer's width and height");
+		}
+
+		if (inflater != null && !inflater.finished()) {
+			throw new IOException("Unexpected end of layer data");
+		}
+		if (inflater == gzip) {
+			checkGzipTrailer();
+		}
+	}
+
+	/**
+	 * Decode the csv text of a layer. The digits are parsed right from the
+	 * text, no String is created for the cells.
+	 *
+	 * @param text
+	 *            the text content of the &lt;data&gt; element. Values are
+	 *            separated by comma, whitespace around them is ignored.
+	 * @param gids
+	 *            the array to store the global tile ids.
+	 * @param count
+	 *            the number of tiles in the layer, that's width * height.
+	 * @throws IOException
+	 *             if the text is not a list of unsigned ints, or does not
+	 *             match the count.
+	 */
+	public void decodeCsv(String text, int[] gids, int count) throws IOException {
+		int n = 0;
+		long value = 0;
+		boolean hasDigits = false;
+		boolean endOfValue = false;
+
+		final int textLength = text.length();
+		for (int i = 0; i < textLength; i++) {
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (endOfValue) {
+					throw new IOException("Missing comma in csv layer data at " + i);
+				}
+				value = value * 10 + (c - '0');
+				if (value > 0xFFFFFFFFL) {
+					throw new IOException("Tile id out of range in csv layer data at " + i);
+				}
+				hasDigits = true;
+			} else if (c == ',') {
+				if (!hasDigits) {
+					throw new IOException("Empty value in csv layer data at " + i);
+				}
+				if (n == count) {
+					throw new IOException(
+							"Number of tiles does not match the layer's width and height");
+				}
+				// flip flags are in the highest bits, keep them.
+				gids[n++] = (int) value;
+				value = 0;
+				hasDigits = false;
+				endOfValue = false;
+			} else if (Character.isWhitespace(c)) {
+				endOfValue = hasDigits;
+			} else {
+				throw new IOException("Illegal character '" + c
+						+ "' in csv layer data at " + i);
+			}
+		}
+
+		if (hasDigits) {
+			if (n == count) {
+				throw new IOException(
+						"Number of tiles does not match the layer's width and height");
+			}
+			gids[n++] = (int) value;
+		}
+
+		if (n != count) {
+			throw new IOException(
+					"Number of tiles does not match the layer's width and height");
+		}
+	}
+
+	/**
+	 * Send the decoded bytes to the inflater, or directly to the gids when the
+	 * data is not compressed.
+	 */
+	private void write(int len) throws IOException, DataFormatException {
+		if (inflater == null) {
+			put(in, 0, len);
+			return;
+		}
+
+		int off = 0;
+		if (inflater == gzip && gzipStage != GZ_DONE) {
+			off = skipGzipHeader(in, 0, len);
+			if (off == len) {
+				return;
+			}
+		}
+
+		if (!inflater.finished()) {
+			inflater.setInput(in, off, len - off);
+			while (!inflater.finished() && !inflater.needsInput()) {
+				int n = inflater.inflate(out);
+				if (n == 0 && inflater.needsDictionary()) {
+					throw new DataFormatException("preset dictionary is not supported");
+				}
+				if (inflater == gzip) {
+					crc.update(out, 0, n);
+				}
+				put(out, 0, n);
+			}
+			if (!inflater.finished()) {
+				return;
+			}
+			off = len - inflater.getRemaining();
+		}
+
+		if (inflater == gzip) {
+			// the trailer may be split between two chunks, bytes after it are
+			// ignored.
+			int n = Math.min(len - off, trailer.length - trailerCount);
+			System.arraycopy(in, off, trailer, trailerCount, n);
+			trailerCount += n;
+		}
+	}
+
+	/**
+	 * Compare the CRC32 and the size in the gzip trailer with the inflated
+	 * data.
+	 */
+	private void checkGzipTrailer() throws IOException {
+		if (trailerCount < trailer.length) {
+			throw new IOException("Unexpected end of layer data");
+		}
+		if (readInt(trailer, 0) != (int) crc.getValue()) {
+			throw new IOException("Corrupt GZIP trailer: CRC32 mismatch");
+		}
+		if (readInt(trailer, 4) != (int) gzip.getBytesWritten()) {
+			throw new IOException("Corrupt GZIP trailer: size mismatch");
+		}
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8
+				| (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+	}
+
+	/**
+	 * Put the bytes into the gids as little-endian ints.
+	 */
+	private void put(byte[] b, int off, int len) throws IOException {
+		if (len > limit - pos) {
+			throw new IOException(
+					"Number of tiles does not match the layer's width and height");
+		}
+
+		final int[] gids = this.gids;
+		int p = pos;
+		int end = off + len;
+		int i = off;
+
+		// finish the int left by the last chunk
+		while (i < end && (p & 3) != 0) {
+			gids[p >> 2] |= (b[i++] & 0xFF) << ((p & 3) << 3);
+			p++;
+		}
+
+		// whole ints
+		while (i + 3 < end) {
+			gids[p >> 2] = (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8
+					| (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+			i += 4;
+			p += 4;
+		}
+
+		// the beginning of the next int
+		while (i < end) {
+			gids[p >> 2] |= (b[i++] & 0xFF) << ((p & 3) << 3);
+			p++;
+		}
+
+		pos = p;
+	}
+
+	/**
+	 * The Inflater doesn't know the gzip header, so skip it here. The header
+	 * may be split between two chunks.
+	 *
+	 * @return the offset of the first byte after the header, or end if the
+	 *         header goes on in the next chunk.
+	 */
+	private int skipGzipHeader(byte[] b, int off, int end) throws IOException {
+		while (gzipStage != GZ_DONE) {
+			boolean present;
+			switch (gzipStage) {
+			case GZ_EXTRA_LEN:
+				present = (gzipFlags & FEXTRA) != 0;
+				break;
+			case GZ_EXTRA:
+				present = (gzipFlags & FEXTRA) != 0 && gzipExtra > 0;
+				break;
+			case GZ_NAME:
+				present = (gzipFlags & FNAME) != 0;
+				break;
+			case GZ_COMMENT:
+				present = (gzipFlags & FCOMMENT) != 0;
+				break;
+			case GZ_HCRC:
+				present = (gzipFlags & FHCRC) != 0;
+				break;
+			default:
+				present = true;
+			}
+
+			if (!present) {
+				gzipStage++;
+				gzipCount = 0;
+				continue;
+			}
+
+			if (off == end) {
+				break;
+			}
+
+			int c = b[off++] & 0xFF;
+			boolean next = false;
+			switch (gzipStage) {
+			case GZ_FIXED:
+				if ((gzipCount == 0 && c != 0x1f)
+						|| (gzipCount == 1 && c != 0x8b)) {
+					throw new IOException("Not in GZIP format");
+				}
+				if (gzipCount == 3) {
+					gzipFlags = c;
+				}
+				next = ++gzipCount == 10;
+				break;
+			case GZ_EXTRA_LEN:
+				gzipExtra |= c << (8 * gzipCount);
+				next = ++gzipCount == 2;
+				break;
+			case GZ_EXTRA:
+				next = ++gzipCount == gzipExtra;
+				break;
+			case GZ_NAME:
+			case GZ_COMMENT:
+				next = c == 0;
+				break;
+			case GZ_HCRC:
+				next = ++gzipCount == 2;
+				break;
+			}
+
+			if (next) {
+				gzipStage++;
+				gzipCount = 0;
+			}
+		}
+
+		return off;
+	}
+}
@@ -0,0 +1,123 @@
+package com.jme3.tmx.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.MatParam;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture.MagFilter;
+import com.jme3.texture.Texture.MinFilter;
+import com.jme3.texture.Texture.WrapMode;
+import com.jme3.texture.TextureArray;
+import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.core.Tileset;
+
+/**
+ * Puts the images of a collection tileset into TextureArrays. The tiles
+ * whose images have the same size, format and transparent color share one
+ * TextureArray and one Material (TiledArray.j3md), the layer of each tile is
+ * kept in {@link Tile#getTextureLayer()} and given to the shader in
+ * TexCoord3. So the tiles can be merged into one batch.
+ *
+ * It must be done before the visual part of the tiles are created.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class TextureArrayBuilder {
+
+	private final AssetManager assetManager;
+
+	/**
+	 * @param assetManager
+	 *            used to create the materials
+	 */
+	public TextureArrayBuilder(AssetManager assetManager) {
+		this.assetManager = assetManager;
+	}
+
+	/**
+	 * Put the images of the tiles of a collection tileset into
+	 * TextureArrays. Images used by only one tile are kept.
+	 *
+	 * @param tileset
+	 *            the tileset
+	 * @return the number of tiles in the TextureArrays
+	 */
+	public int build(Tileset tileset) {
+		if (tileset.getTexture() != null) {
+			// an entire set in one image
+			return 0;
+		}
+
+		// group the tiles by the image they can share
+		Map<String, List<Tile>> groups = new LinkedHashMap<String, List<Tile>>();
+		List<Tile> tiles = tileset.getTiles();
+		for (int i = 0; i < tiles.size(); i++) {
+			Tile tile = tiles.get(i);
+			if (tile == null || tile.getTexture() == null || tile.getTextureLayer() >= 0) {
+				continue;
+			}
+			Image img = tile.getTexture().getImage();
+			if (img == null || img.getData(0) == null) {
+				continue;
+			}
+
+			String key = img.getWidth() + "x" + img.getHeight() + "#" + img.getFormat() + "#"
+					+ getTransColor(tile);
+			List<Tile> group = groups.get(key);
+			if (group == null) {
+				group = new ArrayList<Tile>();
+				groups.put(key, group);
+			}
+			group.add(tile);
+		}
+
+		int count = 0;
+		for (List<Tile> group : groups.values()) {
+			if (group.size() < 2) {
+				continue;
+			}
+
+			List<Image> images = new ArrayList<Image>(group.size());
+			for (int i = 0; i < group.size(); i++) {
+				images.add(group.get(i).getTexture().getImage());
+			}
+
+			TextureArray array = new TextureArray(images);
+			array.setMagFilter(MagFilter.Nearest);
+			array.setMinFilter(MinFilter.NearestNoMipMaps);
+			array.setWrap(WrapMode.EdgeClamp);
+
+			Material mat = new Material(assetManager, "com/jme3/tmx/resources/TiledArray.j3md");
+			mat.setTexture("ColorMap", array);
+			ColorRGBA trans = getTransColor(group.get(0));
+			if (trans != null) {
+				mat.setColor("TransColor", trans);
+			}
+
+			for (int i = 0; i < group.size(); i++) {
+				Tile tile = group.get(i);
+				tile.setTexture(array);
+				tile.setMaterial(mat);
+				tile.setTextureLayer(i);
+			}
+			count += group.size();
+		}
+		return count;
+	}
+
+	private static ColorRGBA getTransColor(Tile tile) {
+		Material mat = tile.getMaterial();
+		if (mat == null) {
+			return null;
+		}
+		MatParam trans = mat.getParam("TransColor");
+		return trans == null ? null : (ColorRGBA) trans.getValue();
+	}
+}
@@ -0,0 +1,328 @@
+package com.jme3.tmx.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.MatParam;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.texture.Image;
+import com.jme3.texture.Image.Format;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture.MagFilter;
+import com.jme3.texture.Texture.MinFilter;
+import com.jme3.texture.Texture.WrapMode;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.image.ColorSpace;
+import com.jme3.texture.image.ImageRaster;
+import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.core.Tileset;
+import com.jme3.util.BufferUtils;
+
+/**
+ * Packs the tiles of several tilesets into one or a few atlas images, so the
+ * tiles of a map share one Material instead of one for each tileset (or for
+ * each tile of an image collection).
+ *
+ * Every tile is copied with a border of extruded edge pixels, so the texture
+ * filter never reads the neighbor tiles. The transparent color of a tileset
+ * is turned into alpha when it's copied.
+ *
+ * The tiles of a tileset are always put on the same page, so its animations
+ * still work. A tileset that doesn't fit into an empty page is not packed.
+ *
+ * <pre>
+ * TextureAtlasBuilder builder = new TextureAtlasBuilder(assetManager, 2048);
+ * builder.pack(map.getTileSets());
+ * </pre>
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class TextureAtlasBuilder {
+
+	static Logger logger = Logger.getLogger(TextureAtlasBuilder.class.getName());
+
+	private final AssetManager assetManager;
+
+	/**
+	 * Width and the max height of a page in pixels.
+	 */
+	private final int pageSize;
+
+	/**
+	 * Pixels extruded around each tile.
+	 */
+	private int padding = 1;
+
+	private final List<Page> pages = new ArrayList<Page>();
+
+	/**
+	 * @param assetManager
+	 *            used to create the materials
+	 * @param pageSize
+	 *            width and max height of an atlas page, in pixels.
+	 */
+	public TextureAtlasBuilder(AssetManager assetManager, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+		}
+		this.assetManager = assetManager;
+		this.pageSize = pageSize;
+	}
+
+	public int getPadding() {
+		return padding;
+	}
+
+	/**
+	 * Set the number of edge pixels extruded around each tile.
+	 *
+	 * @param padding
+	 *            pixels on each side of a tile, 1 by default.
+	 */
+	public void setPadding(int padding) {
+		if (padding < 0) {
+			throw new IllegalArgumentException("padding must not be negative: " + padding);
+		}
+		this.padding = padding;
+	}
+
+	/**
+	 * Pack the tilesets. The x and y of every tile are moved into the atlas,
+	 * and the tilesets get the texture and material of their page, see
+	 * {@link Tileset#setAtlas(Texture, Material)}. It must be done before the
+	 * visual part of the tiles are created.
+	 *
+	 * @param tilesets
+	 *            the tilesets of a map
+	 * @return the pages of the atlas
+	 */
+	public List<Texture2D> pack(List<Tileset> tilesets) {
+		// find a place for every tile first
+		for (int i = 0; i < tilesets.size(); i++) {
+			Tileset tileset = tilesets.get(i);
+			List<Entry> entries = collect(tileset);
+			if (entries == null || entries.isEmpty()) {
+				continue;
+			}
+
+			Page page = pages.isEmpty() ? null : pages.get(pages.size() - 1);
+			if (page == null || !page.place(entries)) {
+				page = new Page(pageSize);
+				if (!page.place(entries)) {
+					logger.info("Tileset " + tileset.getName() + " is too large for the atlas");
+					continue;
+				}
+				pages.add(page);
+			}
+			page.tilesets.add(tileset);
+		}
+
+		// then copy the pixels
+		List<Texture2D> textures = new ArrayList<Texture2D>();
+		for (int i = 0; i < pages.size(); i++) {
+			Page page = pages.get(i);
+			Texture2D texture = page.createTexture();
+			textures.add(texture);
+
+			Material mat = new Material(assetManager, "com/jme3/tmx/resources/Tiled.j3md");
+			mat.setTexture("ColorMap", texture);
+
+			for (int j = 0; j < page.entries.size(); j++) {
+				Entry e = page.entries.get(j);
+				e.tile.setX(e.x + padding);
+				e.tile.setY(e.y + padding);
+				e.tile.setTexture(null);
+				e.tile.setMaterial(null);
+			}
+			for (int j = 0; j < page.tilesets.size(); j++) {
+				page.tilesets.get(j).setAtlas(texture, mat);
+			}
+		}
+
+		pages.clear();
+		return textures;
+	}
+
+	/**
+	 * @return the tiles of a tileset and where their pixels come from, or
+	 *         null if the tileset can't be packed.
+	 */
+	private List<Entry> collect(Tileset tileset) {
+		List<Tile> tiles = tileset.getTiles();
+		List<Entry> entries = new ArrayList<Entry>(tiles.size());
+		for (int i = 0; i < tiles.size(); i++) {
+			Tile tile = tiles.get(i);
+			if (tile == null) {
+				continue;
+			}
+
+			Texture texture = tile.getTexture();
+			Material material = tile.getMaterial();
+			if (texture == null) {
+				texture = tileset.getTexture();
+				material = tileset.getMaterial();
+			}
+			if (texture == null || texture.getImage() == null || texture.getImage().getData(0) == null
+					|| tile.getWidth() <= 0 || tile.getHeight() <= 0) {
+				return null;
+			}
+
+			Entry e = new Entry(tile, texture.getImage());
+			e.width = tile.getWidth() + padding * 2;
+			e.height = tile.getHeight() + padding * 2;
+			if (material != null) {
+				MatParam trans = material.getParam("TransColor");
+				if (trans != null) {
+					e.transColor = (ColorRGBA) trans.getValue();
+				}
+			}
+			entries.add(e);
+		}
+		return entries;
+	}
+
+	/**
+	 * A tile and its place in the atlas.
+	 */
+	private static class Entry {
+		private final Tile tile;
+		private final Image source;
+		private ColorRGBA transColor;
+
+		// the place in the page, top-down, with the padding
+		private int x, y, width, height;
+
+		Entry(Tile tile, Image source) {
+			this.tile = tile;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * The tiles are put on shelves, from the top of the page to the bottom.
+	 */
+	private class Page {
+		private final int size;
+		private final List<Entry> entries = new ArrayList<Entry>();
+		private final List<Tileset> tilesets = new ArrayList<Tileset>();
+
+		private final List<int[]> shelves = new ArrayList<int[]>();
+		private int usedHeight = 0;
+
+		Page(int size) {
+			this.size = size;
+		}
+
+		/**
+		 * Put all the entries on this page, or none of them.
+		 */
+		boolean place(List<Entry> list) {
+			List<Entry> sorted = new ArrayList<Entry>(list);
+			Collections.sort(sorted, new Comparator<Entry>() {
+				@Override
+				public int compare(Entry a, Entry b) {
+					return b.height - a.height;
+				}
+			});
+
+			// keep the shelves to undo
+			List<int[]> saved = new ArrayList<int[]>(shelves.size());
+			for (int i = 0; i < shelves.size(); i++) {
+				saved.add(shelves.get(i).clone());
+			}
+			int savedHeight = usedHeight;
+
+			for (int i = 0; i < sorted.size(); i++) {
+				if (!place(sorted.get(i))) {
+					shelves.clear();
+					shelves.addAll(saved);
+					usedHeight = savedHeight;
+					return false;
+				}
+			}
+
+			entries.addAll(sorted);
+			return true;
+		}
+
+		private boolean place(Entry e) {
+			if (e.width > size) {
+				return false;
+			}
+
+			// shelf: y, height, used width
+			for (int i = 0; i < shelves.size(); i++) {
+				int[] shelf = shelves.get(i);
+				if (e.height <= shelf[1] && shelf[2] + e.width <= size) {
+					e.x = shelf[2];
+					e.y = shelf[0];
+					shelf[2] += e.width;
+					return true;
+				}
+			}
+
+			if (usedHeight + e.height > size) {
+				return false;
+			}
+			shelves.add(new int[] { usedHeight, e.height, e.width });
+			e.x = 0;
+			e.y = usedHeight;
+			usedHeight += e.height;
+			return true;
+		}
+
+		Texture2D createTexture() {
+			int height = 1;
+			while (height < usedHeight) {
+				height <<= 1;
+			}
+
+			Image image = new Image(Format.RGBA8, size, height, BufferUtils.createByteBuffer(size * height * 4),
+					ColorSpace.sRGB);
+			ImageRaster dst = ImageRaster.create(image);
+			ColorRGBA color = new ColorRGBA();
+
+			for (int i = 0; i < entries.size(); i++) {
+				Entry e = entries.get(i);
+				Tile tile = e.tile;
+				ImageRaster src = ImageRaster.create(e.source);
+				final int srcHeight = e.source.getHeight();
+				final int w = tile.getWidth();
+				final int h = tile.getHeight();
+
+				for (int dy = 0; dy < e.height; dy++) {
+					// clamp to the edge of the tile, that's the extrusion
+					int ty = Math.min(Math.max(dy - padding, 0), h - 1);
+					// the images are flipped when they are loaded
+					int sy = srcHeight - 1 - (tile.getY() + ty);
+					int py = height - 1 - (e.y + dy);
+					for (int dx = 0; dx < e.width; dx++) {
+						int tx = Math.min(Math.max(dx - padding, 0), w - 1);
+						src.getPixel(tile.getX() + tx, sy, color);
+						if (e.transColor != null && isSameColor(color, e.transColor)) {
+							color.a = 0;
+						}
+						dst.setPixel(e.x + dx, py, color);
+					}
+				}
+			}
+
+			Texture2D texture = new Texture2D(image);
+			texture.setMagFilter(MagFilter.Nearest);
+			texture.setMinFilter(MinFilter.NearestNoMipMaps);
+			texture.setWrap(WrapMode.EdgeClamp);
+			return texture;
+		}
+	}
+
+	private static boolean isSameColor(ColorRGBA a, ColorRGBA b) {
+		final float e = 0.5f / 255f;
+		return Math.abs(a.r - b.r) < e && Math.abs(a.g - b.g) < e && Math.abs(a.b - b.b) < e;
+	}
+}
@@ -0,0 +1,107 @@
+package com.jme3.tmx.util;
+
+import java.nio.FloatBuffer;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.tmx.core.Tile;
+
+/**
+ * Flip the mesh of a tile by moving its texture coordinates, so a flipped
+ * tile keeps the same vertices and transform as the others and can be merged
+ * with them.
+ *
+ * The texCoords are taken relative to the rectangle they cover in the image,
+ * then the flags of the gid are applied in the order of Tiled: the diagonal
+ * flip (x/y axis swap) first, followed by the horizontal and vertical flips.
+ *
+ * The quad keeps its size, so a non-square tile flipped diagonally is
+ * stretched to the width and height of the tile.
+ *
+ * @author yanmaoyuan
+ *
+ */
+public class TileMesh {
+
+	/**
+	 * Write the flipped texCoords of a tile.
+	 *
+	 * @param texCoord
+	 *            the texCoords of the tile, 2 floats for each vertex. Its
+	 *            position is not changed.
+	 * @param gid
+	 *            the global tile id with the flip flags
+	 * @param store
+	 *            the array to store the result
+	 * @param offset
+	 *            the index in store of the first float
+	 */
+	public static void flipTexCoords(FloatBuffer texCoord, int gid, float[] store, int offset) {
+		final int count = texCoord.limit();
+
+		// the rectangle of the tile in the image
+		float u0 = Float.MAX_VALUE, v0 = Float.MAX_VALUE;
+		float u1 = -Float.MAX_VALUE, v1 = -Float.MAX_VALUE;
+		for (int i = 0; i < count; i += 2) {
+			float u = texCoord.get(i);
+			float v = texCoord.get(i + 1);
+			u0 = Math.min(u0, u);
+			u1 = Math.max(u1, u);
+			v0 = Math.min(v0, v);
+			v1 = Math.max(v1, v);
+		}
+		final float du = u1 - u0;
+		final float dv = v1 - v0;
+
+		final boolean flipH = (gid & Tile.FLIPPED_HORIZONTALLY_FLAG) != 0;
+		final boolean flipV = (gid & Tile.FLIPPED_VERTICALLY_FLAG) != 0;
+		final boolean flipD = (gid & Tile.FLIPPED_DIAGONALLY_FLAG) != 0;
+
+		for (int i = 0; i < count; i += 2) {
+			// (0, 0) is the top-left corner of the tile, as Tiled sees it.
+			float s = du == 0 ? 0 : (texCoord.get(i) - u0) / du;
+			float t = dv == 0 ? 0 : (v1 - texCoord.get(i + 1)) / dv;
+
+			// the vertex shows the texel that the flips moved to it, so undo
+			// them in reverse order.
+			if (flipV) {
+				t = 1 - t;
+			}
+			if (flipH) {
+				s = 1 - s;
+			}
+			if (flipD) {
+				float tmp = s;
+				s = t;
+				t = tmp;
+			}
+
+			store[offset + i] = u0 + s * du;
+			store[offset + i + 1] = v1 - t * dv;
+		}
+	}
+
+	/**
+	 * Create a copy of the mesh with flipped texCoords.
+	 *
+	 * @param mesh
+	 *            the mesh of a tile
+	 * @param gid
+	 *            the global tile id with the flip flags
+	 * @return the mesh itself if the gid is not flipped, or the copy.
+	 */
+	public static Mesh flip(Mesh mesh, int gid) {
+		if ((gid & Tile.FLIPPED_MASK) == 0 || mesh.getBuffer(Type.TexCoord) == null) {
+			return mesh;
+		}
+
+		FloatBuffer texCoord = mesh.getFloatBuffer(Type.TexCoord);
+		float[] flipped = new float[texCoord.limit()];
+		flipTexCoords(texCoord, gid, flipped, 0);
+
+		Mesh copy = mesh.deepClone();
+		copy.clearBuffer(Type.TexCoord);
+		copy.setBuffer(Type.TexCoord, 2, flipped);
+		return copy;
+	}
+}
@@ -7,9 +7,44 @@ attribute vec4 inColor;
 
 varying vec2 texCoord;
 
+#ifdef ANIMATED
+    // the most frames of an animation, see AnimationDataTexture
+    #define MAX_FRAMES 64
+
+    // x: row of the animation in AnimData, y: number of frames, 0 if the
+    // tile is not animated.
+    attribute vec2 inTexCoord2;
+
+    uniform sampler2D m_AnimData;
+    uniform vec2 m_AnimSize;
+    uniform float g_Time;
+#endif
+
 void main(){
     #ifdef HAS_COLORMAP
         texCoord = inTexCoord;
+
+        #ifdef ANIMATED
+            if (inTexCoord2.y > 0.0) {
+                float row = (inTexCoord2.x + 0.5) / m_AnimSize.y;
+                float total = texture2DLod(m_AnimData, vec2(0.5 / m_AnimSize.x, row), 0.0).a;
+                float time = mod(g_Time * 1000.0, total);
+
+                // find the frame shown at this time
+                vec2 offset = vec2(0.0);
+                for (int i = 0; i < MAX_FRAMES; i++) {
+                    if (float(i) >= inTexCoord2.y) {
+                        break;
+                    }
+                    vec4 frame = texture2DLod(m_AnimData, vec2((float(i) + 0.5) / m_AnimSize.x, row), 0.0);
+                    offset = frame.rg;
+                    if (time < frame.b) {
+                        break;
+                    }
+                }
+                texCoord += offset;
+            }
+        #endif
     #endif
 
     vec4 modelSpacePos = vec4(inPosition, 1.0);
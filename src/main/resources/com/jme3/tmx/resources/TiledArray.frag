@@ -0,0 +1,28 @@
+#extension GL_EXT_texture_array : enable
+#import "Common/ShaderLib/GLSLCompat.glsllib"
+
+#ifdef TRANS_COLOR
+    uniform vec4 m_TransColor;
+#endif
+
+uniform vec4 m_Color;
+uniform sampler2DArray m_ColorMap;
+
+// x, y: texCoord, z: layer
+varying vec3 texCoord;
+
+void main(){
+    vec4 color = texture2DArray(m_ColorMap, texCoord);
+
+    #ifdef TRANS_COLOR
+        if(color.rgb == m_TransColor.rgb) {
+            color.a = 0.;
+        }
+    #endif
+    
+    #ifdef HAS_COLOR
+        color *= m_Color;
+    #endif
+    
+    gl_FragColor = color;
+}
\ No newline at end of file
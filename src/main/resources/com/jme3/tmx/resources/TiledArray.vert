@@ -0,0 +1,17 @@
+#import "Common/ShaderLib/GLSLCompat.glsllib"
+#import "Common/ShaderLib/Instancing.glsllib"
+
+attribute vec3 inPosition;
+attribute vec2 inTexCoord;
+// the layer of the tile in the TextureArray
+attribute float inTexCoord3;
+
+varying vec3 texCoord;
+
+void main(){
+    texCoord = vec3(inTexCoord, inTexCoord3);
+
+    vec4 modelSpacePos = vec4(inPosition, 1.0);
+
+    gl_Position = TransformWorldViewProjection(modelSpacePos);
+}
\ No newline at end of file
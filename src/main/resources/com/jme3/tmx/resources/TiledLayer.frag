@@ -0,0 +1,68 @@
+#import "Common/ShaderLib/GLSLCompat.glsllib"
+
+#ifdef TRANS_COLOR
+    uniform vec4 m_TransColor;
+#endif
+
+uniform vec4 m_Color;
+uniform sampler2D m_LayerData;
+uniform sampler2D m_ColorMap;
+
+uniform vec2 m_LayerSize;
+uniform vec2 m_TileOrigin;
+uniform vec2 m_TileSize;
+uniform vec2 m_TileStep;
+uniform vec2 m_ImageSize;
+uniform float m_Columns;
+
+// (0,0) is the top-left corner of the layer
+varying vec2 texCoord;
+
+void main(){
+    vec2 tilePos = texCoord * m_LayerSize;
+    vec2 cell = floor(tilePos);
+    vec2 local = tilePos - cell;
+
+    // r, g: local id of the tile. b: flip flags. a: 0 for empty cells.
+    vec4 data = texture2D(m_LayerData, (cell + 0.5) / m_LayerSize);
+    if (data.a < 0.5) {
+        discard;
+    }
+
+    float id = floor(data.r * 255.0 + 0.5) + floor(data.g * 255.0 + 0.5) * 256.0;
+    float flags = floor(data.b * 255.0 + 0.5);
+
+    // Tiled flips diagonally first, then horizontally and vertically. This
+    // pixel shows the texel the flips moved here, so undo them in reverse.
+    bool flipD = flags >= 4.0;
+    flags = mod(flags, 4.0);
+    if (flags >= 2.0) {
+        local.y = 1.0 - local.y;
+        flags -= 2.0;
+    }
+    if (flags >= 1.0) {
+        local.x = 1.0 - local.x;
+    }
+    if (flipD) {
+        local = local.yx;
+    }
+
+    float column = mod(id, m_Columns);
+    float row = floor(id / m_Columns);
+    vec2 pixel = m_TileOrigin + vec2(column, row) * m_TileStep + local * m_TileSize;
+
+    // the image is flipped when it's loaded
+    vec4 color = texture2D(m_ColorMap, vec2(pixel.x, m_ImageSize.y - pixel.y) / m_ImageSize);
+
+    #ifdef TRANS_COLOR
+        if(color.rgb == m_TransColor.rgb) {
+            color.a = 0.;
+        }
+    #endif
+    
+    #ifdef HAS_COLOR
+        color *= m_Color;
+    #endif
+    
+    gl_FragColor = color;
+}
\ No newline at end of file
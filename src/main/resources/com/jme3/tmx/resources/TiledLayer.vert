@@ -0,0 +1,15 @@
+#import "Common/ShaderLib/GLSLCompat.glsllib"
+#import "Common/ShaderLib/Instancing.glsllib"
+
+attribute vec3 inPosition;
+attribute vec2 inTexCoord;
+
+varying vec2 texCoord;
+
+void main(){
+    texCoord = inTexCoord;
+
+    vec4 modelSpacePos = vec4(inPosition, 1.0);
+
+    gl_Position = TransformWorldViewProjection(modelSpacePos);
+}
\ No newline at end of file
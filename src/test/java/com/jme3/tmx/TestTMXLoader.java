@@ -1,18 +1,83 @@
 package com.jme3.tmx;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
 import junit.framework.TestCase;
 
 import org.junit.Test;
 
+import com.jme3.app.SimpleApplication;
 import com.jme3.asset.AssetManager;
 import com.jme3.asset.DesktopAssetManager;
 import com.jme3.asset.plugins.ClasspathLocator;
+import com.jme3.material.Material;
 import com.jme3.material.plugins.J3MLoader;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector2f;
+import com.jme3.renderer.Camera;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer.Type;
 import com.jme3.shader.plugins.GLSLLoader;
+import com.jme3.texture.Image;
+import com.jme3.texture.Image.Format;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.TextureArray;
+import com.jme3.texture.image.ColorSpace;
+import com.jme3.texture.image.ImageRaster;
 import com.jme3.texture.plugins.AWTLoader;
 import com.jme3.tmx.TmxLoader;
+import com.jme3.tmx.animation.Animation;
+import com.jme3.tmx.animation.TileAnimator;
 import com.jme3.tmx.core.TiledMap;
-import com.jme3.tmx.core.TileLayer;;
+import com.jme3.tmx.core.TiledMap.Orientation;
+import com.jme3.tmx.core.TiledMap.StaggerAxis;
+import com.jme3.tmx.core.TiledMap.StaggerIndex;
+import com.jme3.tmx.core.Layer;
+import com.jme3.tmx.core.ObjectLayer;
+import com.jme3.tmx.core.ObjectNode;
+import com.jme3.tmx.core.Tile;
+import com.jme3.tmx.core.TileLayer;
+import com.jme3.tmx.core.TileProperties;
+import com.jme3.tmx.core.Tileset;
+import com.jme3.tmx.grid.CollisionGrid;
+import com.jme3.tmx.grid.FieldOfView;
+import com.jme3.tmx.grid.FlowField;
+import com.jme3.tmx.grid.GridTopology;
+import com.jme3.tmx.grid.Path;
+import com.jme3.tmx.grid.PathFinder;
+import com.jme3.tmx.grid.TileCost;
+import com.jme3.tmx.math2d.Point;
+import com.jme3.tmx.math2d.Rectangle;
+import com.jme3.tmx.render.AnimationDataTexture;
+import com.jme3.tmx.render.HexagonalRenderer;
+import com.jme3.tmx.render.LayerDataTexture;
+import com.jme3.tmx.render.MapRenderer;
+import com.jme3.tmx.render.OrthogonalRenderer;
+import com.jme3.tmx.render.StaggeredRenderer;
+import com.jme3.tmx.util.Base64;
+import com.jme3.tmx.util.LayerDataDecoder;
+import com.jme3.tmx.util.TextureArrayBuilder;
+import com.jme3.tmx.util.TileMesh;
+import com.jme3.util.BufferUtils;
+import com.jme3.tmx.render.TileChunk;
 
 /**
  * JUnit test case
@@ -27,7 +92,9 @@ public class TestTMXLoader extends TestCase {
 	static String sewers = "Models/Examples/sewers.tmx";
 	static String desert = "Models/Examples/Desert/desert.tmx";
 	static String outside = "Models/Examples/Orthogonal/orthogonal-outside.tmx";
+	static String multiple = "Models/Examples/Orthogonal/01.tmx";
 	static String perspective_walls = "Models/Examples/Orthogonal/perspective_walls.tmx";
+	static String collection = "Models/Examples/Orthogonal/collection.tmx";
 	
 	// Hexagonal Map
 	static String hexagonal = "Models/Examples/hexagonal.tmx";
@@ -35,6 +102,8 @@ public class TestTMXLoader extends TestCase {
 	
 	// Staggered Map
 	static String staggered = "Models/Examples/staggered.tmx";
+	static String animated = "Models/Examples/Staggered/03.tmx";
+	static String twoAnimated = "Models/Examples/Staggered/two-animated-tilesets.tmx";
 	
 	// Isometric Map
 	static String grass_and_water = "Models/Examples/Isometric/isometric_grass_and_water.tmx";
@@ -127,4 +196,1346 @@ public class TestTMXLoader extends TestCase {
         assertEquals(32, map.getTileHeight());
         assertEquals(1, map.getLayerCount());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReadingMapStreaming() throws Exception {
+        String[] assets = { sewers, csvmap, desert, perspective_walls, hexagonal };
+        for (String asset : assets) {
+            // Act
+            TiledMap dom = (TiledMap) assetManager.loadAsset(asset);
+            TmxKey key = new TmxKey(asset);
+            key.setStreaming(true);
+            TiledMap stax = assetManager.loadAsset(key);
+
+            // Assert
+            assertNotSame(dom, stax);
+            assertSameMap(dom, stax);
+        }
+    }
+
+    @Test
+    public void testReadingMapParallel() throws Exception {
+        String[] assets = { sewers, csvmap, "Models/Examples/Staggered/04.tmx" };
+        for (String asset : assets) {
+            // Act
+            TiledMap dom = (TiledMap) assetManager.loadAsset(asset);
+            TmxKey key = new TmxKey(asset);
+            key.setParallelism(4);
+            TiledMap parallel = assetManager.loadAsset(key);
+
+            key = new TmxKey(asset);
+            key.setParallelism(4);
+            key.setStreaming(true);
+            TiledMap both = assetManager.loadAsset(key);
+
+            // Assert
+            assertSameMap(dom, parallel);
+            assertSameMap(dom, both);
+        }
+    }
+
+    @Test
+    public void testReadingMapFlyweight() throws Exception {
+        String[] assets = { sewers, csvmap, desert };
+        for (String asset : assets) {
+            // Act
+            TiledMap objects = (TiledMap) assetManager.loadAsset(asset);
+            TmxKey key = new TmxKey(asset);
+            key.setFlyweight(true);
+            TiledMap flyweight = assetManager.loadAsset(key);
+
+            // Assert
+            assertSameMap(objects, flyweight);
+            for (int i = 0; i < flyweight.getLayerCount(); i++) {
+                Layer layer = flyweight.getLayer(i);
+                if (layer instanceof TileLayer) {
+                    TileLayer tl = (TileLayer) layer;
+                    assertTrue(tl.isFlyweight());
+                    assertEquals(((TileLayer) objects.getLayer(i)).getGidAt(0, 0), tl.getGidAt(0, 0));
+
+                    // the layer was written at once, nothing is kept per cell
+                    // until it's rendered
+                    assertNull(field(tl, "spatials"));
+                    assertNull(field(tl, "needUpdateSpatial"));
+                    assertEquals(tl.getWidth() * tl.getHeight(), tl.getDirtyCount());
+                    assertEquals(16, ((int[]) field(tl, "dirtyCells")).length);
+                    assertTrue(tl.isNeedUpdateAt(tl.getWidth() - 1, tl.getHeight() - 1));
+                    assertEquals(tl.getHeight() - 1, tl.getDirtyY(tl.getDirtyCount() - 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeBase64() throws Exception {
+        // Arrange
+        LayerDataDecoder decoder = new LayerDataDecoder();
+        int[] expected = { 1, 0, 7, 300, 2 | Tile.FLIPPED_HORIZONTALLY_FLAG, 70000 };
+        byte[] bytes = toBytes(expected);
+        int[] gids = new int[6];
+
+        // Act and Assert: uncompressed, with line breaks
+        decoder.decodeBase64(Base64.encodeToString(bytes, true) + "\n  ", null, gids, 6);
+        assertTrue(Arrays.equals(expected, gids));
+
+        // zlib
+        Deflater deflater = new Deflater();
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] zlib = new byte[256];
+        zlib = Arrays.copyOf(zlib, deflater.deflate(zlib));
+        gids = new int[6];
+        decoder.decodeBase64(Base64.encodeToString(zlib, false), "zlib", gids, 6);
+        assertTrue(Arrays.equals(expected, gids));
+
+        // too few tiles
+        try {
+            decoder.decodeBase64(Base64.encodeToString(bytes, false), null, new int[7], 7);
+            fail("The count doesn't match");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // truncated zlib data
+        try {
+            decoder.decodeBase64(Base64.encodeToString(Arrays.copyOf(zlib, zlib.length - 6), false), "zlib",
+                    new int[6], 6);
+            fail("The data is truncated");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDecodeGzip() throws Exception {
+        // Arrange
+        LayerDataDecoder decoder = new LayerDataDecoder();
+        // random gids don't compress, so the data spans several chunks
+        final int count = 5000;
+        int[] expected = new int[count];
+        Random random = new Random(3);
+        for (int i = 0; i < count; i++) {
+            expected[i] = random.nextInt();
+        }
+        byte[] bytes = toBytes(expected);
+        int[] gids = new int[count];
+
+        // Act and Assert: the header written by GZIPOutputStream
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(buffer);
+        gz.write(bytes);
+        gz.close();
+        decoder.decodeBase64(Base64.encodeToString(buffer.toByteArray(), true), "gzip", gids, count);
+        assertTrue(Arrays.equals(expected, gids));
+
+        // a header with a file name
+        byte[] named = gzip(bytes, "layer.bin");
+        gids = new int[count];
+        decoder.decodeBase64(Base64.encodeToString(named, false), "gzip", gids, count);
+        assertTrue(Arrays.equals(expected, gids));
+
+        // a broken CRC32 in the trailer
+        byte[] corrupt = named.clone();
+        corrupt[corrupt.length - 8] ^= 1;
+        try {
+            decoder.decodeBase64(Base64.encodeToString(corrupt, false), "gzip", new int[count], count);
+            fail("The CRC32 doesn't match");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("CRC32"));
+        }
+
+        // no trailer
+        try {
+            decoder.decodeBase64(Base64.encodeToString(Arrays.copyOf(named, named.length - 8), false), "gzip",
+                    new int[count], count);
+            fail("The trailer is missing");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // truncated in the header
+        try {
+            decoder.decodeBase64(Base64.encodeToString(Arrays.copyOf(named, 12), false), "gzip", new int[count], count);
+            fail("The data is truncated");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the decoder can be used again after an error
+        gids = new int[count];
+        decoder.decodeBase64(Base64.encodeToString(named, false), "gzip", gids, count);
+        assertTrue(Arrays.equals(expected, gids));
+    }
+
+    @Test
+    public void testDecodeCsv() throws Exception {
+        // Arrange
+        LayerDataDecoder decoder = new LayerDataDecoder();
+        int[] gids = new int[6];
+
+        // Act
+        decoder.decodeCsv("\n  1,0, 7,\r\n\t300 ,\n2147483650,  4294967295\n", gids, 6);
+
+        // Assert
+        assertTrue(Arrays.equals(new int[] { 1, 0, 7, 300, 2 | Tile.FLIPPED_HORIZONTALLY_FLAG, -1 }, gids));
+
+        String[] broken = { "1,2,3,4,5", "1,2,3,4,5,6,7", "1,2,,4,5,6", "1,2,3 4,5,6", "1,2,x,4,5,6",
+                "1,2,3,4,5,4294967296" };
+        for (String text : broken) {
+            try {
+                decoder.decodeCsv(text, new int[7], 6);
+                fail("Broken csv: " + text);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testTileTable() throws Exception {
+        // Arrange: a tileset across the first page boundary, and one hiding a
+        // part of it.
+        Tileset large = new Tileset();
+        large.setFirstgid(1);
+        for (int i = 0; i < 1100; i++) {
+            large.addTile(new Tile(0, 0, 32, 32));
+        }
+        Tileset small = new Tileset();
+        small.setFirstgid(1050);
+        for (int i = 0; i < 10; i++) {
+            small.addTile(new Tile(0, 0, 32, 32));
+        }
+        TiledMap map = new TiledMap(4, 4);
+
+        // Act
+        map.addTileset(large);
+        map.addTileset(small);
+
+        // Assert
+        assertSame(large.getTile(0), map.getTileForTileGID(1));
+        assertSame(large.getTile(1022), map.getTileForTileGID(1023));
+        assertSame(large.getTile(1023), map.getTileForTileGID(1024));
+        assertSame(large.getTile(1024), map.getTileForTileGID(1025));
+        assertSame(large.getTile(1048), map.getTileForTileGID(1049));
+        assertSame(small.getTile(0), map.getTileForTileGID(1050));
+        assertSame(small.getTile(9), map.getTileForTileGID(1059));
+        assertSame(large.getTile(1059), map.getTileForTileGID(1060));
+        assertSame(large.getTile(1099), map.getTileForTileGID(1100));
+        assertNull(map.getTileForTileGID(0));
+        assertNull(map.getTileForTileGID(-1));
+        assertNull(map.getTileForTileGID(1101));
+        assertNull(map.getTileForTileGID(5000));
+        assertNull(map.getTileForTileGID(Integer.MAX_VALUE));
+
+        // the table is built again without the removed tileset
+        map.removeTileset(small);
+        assertSame(large.getTile(1049), map.getTileForTileGID(1050));
+        map.removeTileset(large);
+        assertNull(map.getTileForTileGID(1));
+        assertNull(map.getTileForTileGID(1050));
+    }
+
+    @Test
+    public void testRenderingChunks() throws Exception {
+        // Arrange
+        TiledMap map = (TiledMap) assetManager.loadAsset(sewers);
+        TileLayer layer = (TileLayer) map.getLayer(0);
+        OrthogonalRenderer renderer = new OrthogonalRenderer(map);
+        renderer.setChunkSize(16);
+
+        // Act
+        renderer.render();
+
+        // Assert
+        TileChunk chunk = renderer.getChunk(layer, 0, 0);
+        assertNotNull(chunk);
+        assertFalse(chunk.isNeedUpdated());
+        assertNotNull(chunk.getVisual());
+        assertNull(layer.getSpatialAt(0, 0));
+        assertNull(renderer.getChunk(layer, 4, 0));
+        assertTrue(countGeometries(layer.getVisual()) <= 16);
+
+        // change a tile, only its chunk is built again
+        Node old = renderer.getChunk(layer, 3, 3).getVisual();
+        Node other = chunk.getVisual();
+        layer.setTileAt(49, 49, null);
+        assertEquals(1, layer.getDirtyCount());
+        assertEquals(49, layer.getDirtyX(0));
+        renderer.render();
+        assertEquals(0, layer.getDirtyCount());
+        assertNotSame(old, renderer.getChunk(layer, 3, 3).getVisual());
+        assertSame(other, chunk.getVisual());
+
+        // only the chunks in view stay attached
+        renderer.setViewRect(20, 20, 30, 30);
+        assertTrue(chunk.isCulled());
+        assertNull(chunk.getVisual().getParent());
+        assertFalse(renderer.getChunk(layer, 1, 1).isCulled());
+        renderer.clearViewRect();
+        assertSame(layer.getVisual(), chunk.getVisual().getParent());
+
+        // the map was changed, don't share it with other tests
+        assetManager.clearCache();
+    }
+
+    @Test
+    public void testCullingChunks() throws Exception {
+        // Arrange: 50x50 tiles of 24 pixels, in chunks of 8x8 tiles
+        TiledMap map = (TiledMap) assetManager.loadAsset(sewers);
+        TileLayer layer = (TileLayer) map.getLayer(0);
+        OrthogonalRenderer renderer = new OrthogonalRenderer(map);
+        renderer.setChunkSize(8);
+        renderer.render();
+        Node layerNode = (Node) layer.getVisual();
+
+        // Act and Assert: the view ends on the last tile of a chunk
+        renderer.setViewRect(8, 0, 15, 7);
+        assertFalse(renderer.getChunk(layer, 1, 0).isCulled());
+        assertSame(layerNode, renderer.getChunk(layer, 1, 0).getVisual().getParent());
+        assertTrue(renderer.getChunk(layer, 0, 0).isCulled());
+        assertNull(renderer.getChunk(layer, 0, 0).getVisual().getParent());
+        assertTrue(renderer.getChunk(layer, 2, 0).isCulled());
+        assertTrue(renderer.getChunk(layer, 1, 1).isCulled());
+
+        // one more tile reaches the next chunk
+        renderer.setViewRect(7, 0, 16, 8);
+        assertFalse(renderer.getChunk(layer, 0, 0).isCulled());
+        assertFalse(renderer.getChunk(layer, 2, 0).isCulled());
+        assertFalse(renderer.getChunk(layer, 1, 1).isCulled());
+        assertTrue(renderer.getChunk(layer, 3, 0).isCulled());
+
+        renderer.clearViewRect();
+        assertFalse(renderer.getChunk(layer, 6, 6).isCulled());
+
+        // the app state culls with the screen: 576x384 pixels and 12
+        // columns make a scale of 2. The map origin is at the center of the
+        // screen, so the tiles -6 to 6 and -4 to 4 are in view.
+        assetManager.clearCache();
+        TiledMap other = (TiledMap) assetManager.loadAsset(sewers);
+        TiledMapAppState state = new TiledMapAppState(other, 12f);
+        state.getMapRenderer().setChunkSize(8);
+        state.initialize(new SimpleApplication() {
+            {
+                cam = new Camera(576, 384);
+            }
+
+            @Override
+            public void simpleInitApp() {
+            }
+        });
+        TileLayer otherLayer = (TileLayer) other.getLayer(0);
+        MapRenderer otherRenderer = state.getMapRenderer();
+
+        state.update(0);
+        assertEquals(1, state.getCullMargin());
+        assertFalse(otherRenderer.getChunk(otherLayer, 0, 0).isCulled());
+        assertTrue(otherRenderer.getChunk(otherLayer, 1, 0).isCulled());
+        assertTrue(otherRenderer.getChunk(otherLayer, 0, 1).isCulled());
+
+        // the margin reaches the first column of the next chunk
+        state.setCullMargin(2);
+        state.update(0);
+        assertFalse(otherRenderer.getChunk(otherLayer, 1, 0).isCulled());
+        assertTrue(otherRenderer.getChunk(otherLayer, 0, 1).isCulled());
+        assertTrue(otherRenderer.getChunk(otherLayer, 2, 0).isCulled());
+
+        // the map was changed, don't share it with other tests
+        assetManager.clearCache();
+    }
+
+    @Test
+    public void testRenderingDataTexture() throws Exception {
+        // Arrange
+        TiledMap map = (TiledMap) assetManager.loadAsset(sewers);
+        TileLayer layer = (TileLayer) map.getLayer(0);
+        OrthogonalRenderer renderer = new OrthogonalRenderer(map);
+        renderer.setUseDataTexture(true);
+
+        // Act
+        renderer.render();
+
+        // Assert
+        LayerDataTexture dataTexture = renderer.getDataTexture(layer);
+        assertNotNull(dataTexture);
+        assertEquals(1, countGeometries(layer.getVisual()));
+
+        int id = (layer.getGidAt(1, 2) & ~Tile.FLIPPED_MASK) - dataTexture.getTileset().getFirstgid();
+        ByteBuffer data = dataTexture.getTexture().getImage().getData(0);
+        int i = (2 * layer.getWidth() + 1) * 4;
+        assertEquals(id, (data.get(i) & 0xFF) | (data.get(i + 1) & 0xFF) << 8);
+        assertEquals(0xFF, data.get(i + 3) & 0xFF);
+
+        // a changed tile only changes its texel
+        layer.setTileAt(1, 2, null);
+        layer.setNeedUpdated(true);
+        renderer.render();
+        assertEquals(0, data.get(i + 3));
+        assertFalse(layer.isNeedUpdateAt(1, 2));
+
+        // the map was changed, don't share it with other tests
+        assetManager.clearCache();
+    }
+
+    @Test
+    public void testCoordinateConversions() throws Exception {
+        String[] assets = { hexagonal, staggered };
+        Vector2f pixel = new Vector2f();
+        Point tile = new Point();
+        for (String asset : assets) {
+            // Arrange
+            TiledMap map = (TiledMap) assetManager.loadAsset(asset);
+            MapRenderer renderer = asset == hexagonal ? new HexagonalRenderer(map) : new StaggeredRenderer(map);
+            float halfWidth = map.getTileWidth() * 0.5f;
+            float halfHeight = map.getTileHeight() * 0.5f;
+
+            for (int y = 0; y < map.getHeight(); y++) {
+                for (int x = 0; x < map.getWidth(); x++) {
+                    // Act
+                    assertSame(pixel, renderer.tileToScreenCoords(x, y, pixel));
+                    assertSame(tile, renderer.screenToTileCoords(pixel.x + halfWidth, pixel.y + halfHeight, tile));
+
+                    // Assert
+                    assertEquals(renderer.tileToScreenCoords(x, y), pixel);
+                    assertEquals(x, tile.x);
+                    assertEquals(y, tile.y);
+                }
+            }
+
+            // the bulk version writes the same coordinates
+            FloatBuffer buffer = renderer.tileToScreenCoords(0, 0, map.getWidth(), map.getHeight(), null);
+            renderer.tileToScreenCoords(2, 3, pixel);
+            int i = (3 * map.getWidth() + 2) * 2;
+            assertEquals(pixel.x, buffer.get(i));
+            assertEquals(pixel.y, buffer.get(i + 1));
+        }
+    }
+
+    @Test
+    public void testFlipTexCoords() throws Exception {
+        // Arrange: texCoords of a quad, bottom-left, bottom-right, top-right, top-left
+        FloatBuffer texCoord = BufferUtils.createFloatBuffer(new float[] { 0, 0, 1, 0, 1, 1, 0, 1 });
+        float[] store = new float[8];
+
+        // Act: rotate 90 degrees clockwise
+        TileMesh.flipTexCoords(texCoord, 1 | Tile.FLIPPED_HORIZONTALLY_FLAG | Tile.FLIPPED_DIAGONALLY_FLAG, store, 0);
+
+        // Assert: the bottom-left corner shows the bottom-right of the image
+        assertEquals(1f, store[0]);
+        assertEquals(0f, store[1]);
+        assertEquals(1f, store[2]);
+        assertEquals(1f, store[3]);
+        assertEquals(0f, store[4]);
+        assertEquals(1f, store[5]);
+        assertEquals(0f, store[6]);
+        assertEquals(0f, store[7]);
+    }
+
+    @Test
+    public void testTileAnimator() throws Exception {
+        // Arrange
+        TiledMap map = (TiledMap) assetManager.loadAsset(animated);
+        StaggeredRenderer renderer = new StaggeredRenderer(map);
+        Tile water = map.getTileSets().get(0).getTile(54);
+        Animation anim = water.getAnimations().get(0);
+
+        // Act
+        renderer.render();
+        TileAnimator animator = map.getVisual().getControl(TileAnimator.class);
+        map.getVisual().updateLogicalState(0.2f);
+
+        // Assert: every animation is advanced once, 200ms is the 2nd frame
+        assertNotNull(animator);
+        assertEquals(2, animator.getAnimationCount());
+        assertEquals(1, animator.getFrameIndex(anim));
+
+        Mesh mesh = null;
+        for (int i = 0; i < map.getLayerCount() && mesh == null; i++) {
+            if (map.getLayer(i) instanceof TileLayer) {
+                TileLayer layer = (TileLayer) map.getLayer(i);
+                for (int y = 0; y < layer.getHeight() && mesh == null; y++) {
+                    for (int x = 0; x < layer.getWidth() && mesh == null; x++) {
+                        Tile tile = layer.getTileAt(x, y);
+                        if (tile != null && tile.getId() == 54 && tile.getGid() == 55) {
+                            mesh = ((Geometry) layer.getSpatialAt(x, y)).getMesh();
+                        }
+                    }
+                }
+            }
+        }
+        assertNotNull(mesh);
+        Mesh source = ((Geometry) water.getVisual()).getMesh();
+        Mesh frame = ((Geometry) map.getTileSets().get(0).getTile(55).getVisual()).getMesh();
+        assertEquals(frame.getFloatBuffer(Type.TexCoord).get(0), mesh.getFloatBuffer(Type.TexCoord).get(0));
+        assertEquals(frame.getFloatBuffer(Type.TexCoord).get(1), mesh.getFloatBuffer(Type.TexCoord).get(1));
+
+        // the mesh of the tile is kept, the animation comes back to it
+        assertNotSame(source, mesh);
+        float u = source.getFloatBuffer(Type.TexCoord).get(0);
+        assertTrue(u != mesh.getFloatBuffer(Type.TexCoord).get(0));
+        map.getVisual().updateLogicalState(0.45f);
+        assertEquals(0, animator.getFrameIndex(anim));
+        assertEquals(u, mesh.getFloatBuffer(Type.TexCoord).get(0));
+
+        // the map was changed, don't share it with other tests
+        assetManager.clearCache();
+    }
+
+    @Test
+    public void testShaderAnimation() throws Exception {
+        // Arrange
+        TiledMap map = (TiledMap) assetManager.loadAsset(animated);
+        Tileset tileset = map.getTileSets().get(0);
+        StaggeredRenderer renderer = new StaggeredRenderer(map);
+        renderer.setChunkSize(16);
+        renderer.setUseShaderAnimation(true);
+
+        // Act
+        renderer.render();
+
+        // Assert: the frames are in the texture, the cpu doesn't play them
+        AnimationDataTexture anims = renderer.getAnimationTexture(tileset);
+        assertEquals(2, anims.getRowCount());
+        assertNotNull(tileset.getMaterial().getParam("AnimData"));
+        assertNull(map.getVisual().getControl(TileAnimator.class));
+
+        Tile water = tileset.getTile(54);
+        Tile frame = tileset.getTile(55);
+        int row = anims.getRow(water);
+        assertEquals(4, anims.getFrameCount(row));
+        FloatBuffer texels = anims.getTexture().getImage().getData(0).asFloatBuffer();
+        int columns = anims.getTexture().getImage().getWidth();
+        int p = (row * columns + 1) * 4;
+        float imageWidth = tileset.getTexture().getImage().getWidth();
+        assertEquals((frame.getX() - water.getX()) / imageWidth, texels.get(p), 1e-6f);
+        assertEquals(300f, texels.get(p + 2));
+        assertEquals(600f, texels.get(p + 3));
+
+        // the animated tiles are merged into the chunks
+        final boolean[] hasAnimation = new boolean[1];
+        map.getVisual().depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                if (geom.getMesh().getBuffer(Type.TexCoord2) != null) {
+                    hasAnimation[0] = true;
+                }
+            }
+        });
+        assertTrue(hasAnimation[0]);
+
+        // the material was changed, don't share it with other tests
+        assetManager.clearCache();
+    }
+
+    @Test
+    public void testReadingMapAtlas() throws Exception {
+        // Arrange
+        TmxKey key = new TmxKey(multiple);
+        key.setAtlasSize(2048);
+
+        // Act
+        TiledMap expected = (TiledMap) assetManager.loadAsset(multiple);
+        TiledMap actual = assetManager.loadAsset(key);
+
+        // Assert: all the tilesets share one material
+        assertSameMap(expected, actual);
+        Tileset first = actual.getTileSets().get(0);
+        for (Tileset tileset : actual.getTileSets()) {
+            assertTrue(tileset.isAtlas());
+            assertSame(first.getMaterial(), tileset.getMaterial());
+            assertSame(first.getMaterial(), ((Geometry) tileset.getTile(0).getVisual()).getMaterial());
+        }
+
+        // the pixels of a tile are copied, y goes up in the images
+        Tile a = expected.getTileSets().get(1).getFirstTile();
+        Tile b = actual.getTileSets().get(1).getTile(a.getId());
+        ImageRaster src = ImageRaster.create(a.getTexture().getImage());
+        ImageRaster dst = ImageRaster.create(first.getTexture().getImage());
+        int srcHeight = a.getTexture().getImage().getHeight();
+        int dstHeight = first.getTexture().getImage().getHeight();
+        for (int i = 0; i < a.getWidth(); i += 7) {
+            ColorRGBA c0 = src.getPixel(a.getX() + i, srcHeight - 1 - (a.getY() + i));
+            ColorRGBA c1 = dst.getPixel(b.getX() + i, dstHeight - 1 - (b.getY() + i));
+            assertEquals(c0.r, c1.r, 1e-3f);
+            assertEquals(c0.g, c1.g, 1e-3f);
+            assertEquals(c0.b, c1.b, 1e-3f);
+        }
+    }
+
+    @Test
+    public void testShaderAnimationAtlas() throws Exception {
+        // Arrange: two animated tilesets packed into one atlas page
+        TmxKey key = new TmxKey(twoAnimated);
+        key.setAtlasSize(2048);
+        TiledMap map = assetManager.loadAsset(key);
+        Tileset water = map.getTileSets().get(0);
+        Tileset lava = map.getTileSets().get(1);
+        StaggeredRenderer renderer = new StaggeredRenderer(map);
+        renderer.setChunkSize(16);
+        renderer.setUseShaderAnimation(true);
+
+        // Act
+        renderer.render();
+
+        // Assert: one texture for the page, with the rows of both tilesets
+        assertSame(water.getMaterial(), lava.getMaterial());
+        AnimationDataTexture anims = renderer.getAnimationTexture(water);
+        assertSame(anims, renderer.getAnimationTexture(lava));
+        assertSame(anims.getTexture(), water.getMaterial().getParam("AnimData").getValue());
+        assertEquals(3, anims.getRowCount());
+        assertEquals(4, anims.getFrameCount(anims.getRow(water.getTile(54))));
+        assertEquals(2, anims.getFrameCount(anims.getRow(lava.getTile(0))));
+        assertEquals(3, anims.getFrameCount(anims.getRow(lava.getTile(58))));
+        assertEquals(-1, anims.getRow(lava.getTile(54)));
+
+        // each row has the frames of its own tileset
+        FloatBuffer texels = anims.getTexture().getImage().getData(0).asFloatBuffer();
+        int columns = anims.getTexture().getImage().getWidth();
+        float imageWidth = water.getTexture().getImage().getWidth();
+        float imageHeight = water.getTexture().getImage().getHeight();
+
+        Tile tile = water.getTile(54);
+        int p = (anims.getRow(tile) * columns + 1) * 4;
+        assertEquals((water.getTile(55).getX() - tile.getX()) / imageWidth, texels.get(p), 1e-6f);
+        assertEquals((tile.getY() - water.getTile(55).getY()) / imageHeight, texels.get(p + 1), 1e-6f);
+        assertEquals(600f, texels.get(p + 3));
+
+        tile = lava.getTile(0);
+        p = (anims.getRow(tile) * columns + 1) * 4;
+        assertEquals((lava.getTile(3).getX() - tile.getX()) / imageWidth, texels.get(p), 1e-6f);
+        assertEquals((tile.getY() - lava.getTile(3).getY()) / imageHeight, texels.get(p + 1), 1e-6f);
+        assertEquals(300f, texels.get(p + 2));
+        assertEquals(300f, texels.get(p + 3));
+        assertNull(map.getVisual().getControl(TileAnimator.class));
+
+        // the material was changed, don't share it with other tests
+        assetManager.clearCache();
+    }
+
+    @Test
+    public void testTextureArray() throws Exception {
+        // Arrange: a collection tileset, 3 images of 4x4 and 1 of 8x8
+        Tileset tileset = new Tileset();
+        int[] sizes = { 4, 4, 8, 4 };
+        for (int size : sizes) {
+            Image image = new Image(Format.RGBA8, size, size, BufferUtils.createByteBuffer(size * size * 4),
+                    ColorSpace.sRGB);
+            Texture2D texture = new Texture2D(image);
+            Material mat = new Material(assetManager, "com/jme3/tmx/resources/Tiled.j3md");
+            mat.setTexture("ColorMap", texture);
+
+            Tile tile = new Tile(0, 0, size, size);
+            tile.setTexture(texture);
+            tile.setMaterial(mat);
+            tileset.addTile(tile);
+        }
+
+        // Act
+        int count = new TextureArrayBuilder(assetManager).build(tileset);
+
+        // Assert: the images of the same size share one TextureArray
+        assertEquals(3, count);
+        Tile first = tileset.getTile(0);
+        assertTrue(first.getTexture() instanceof TextureArray);
+        assertSame(first.getMaterial(), tileset.getTile(1).getMaterial());
+        assertSame(first.getMaterial(), tileset.getTile(3).getMaterial());
+        assertEquals(0, first.getTextureLayer());
+        assertEquals(1, tileset.getTile(1).getTextureLayer());
+        assertEquals(2, tileset.getTile(3).getTextureLayer());
+
+        assertEquals(-1, tileset.getTile(2).getTextureLayer());
+        assertTrue(tileset.getTile(2).getTexture() instanceof Texture2D);
+    }
+
+    @Test
+    public void testTextureArrayRendering() throws Exception {
+        // Arrange: tiles 0, 1 and 3 share a TextureArray, tiles 2 and 4 have
+        // images of another size and share another one. Tile 0 is animated
+        // with the frames 0, 1 and 2.
+        TmxKey key = new TmxKey(collection);
+        key.setTextureArray(true);
+        TiledMap map = assetManager.loadAsset(key);
+        Tileset tileset = map.getTileSets().get(0);
+        TileLayer layer = (TileLayer) map.getLayer(0);
+        OrthogonalRenderer renderer = new OrthogonalRenderer(map);
+        renderer.setChunkSize(16);
+
+        // Act
+        renderer.render();
+
+        // Assert: the layer of each tile is in TexCoord3 of its mesh
+        Geometry animatedTile = (Geometry) tileset.getTile(0).getVisual();
+        Mesh mesh = ((Geometry) tileset.getTile(3).getVisual()).getMesh();
+        assertEquals(2f, mesh.getFloatBuffer(Type.TexCoord3).get(0));
+        assertEquals(1f, ((Geometry) tileset.getTile(4).getVisual()).getMesh().getFloatBuffer(Type.TexCoord3).get(0));
+        assertSame(animatedTile.getMaterial(), ((Geometry) tileset.getTile(1).getVisual()).getMaterial());
+        assertNotSame(animatedTile.getMaterial(), ((Geometry) tileset.getTile(2).getVisual()).getMaterial());
+
+        // the tiles 1 and 3 are merged into one mesh, with the layers kept
+        Node chunk = renderer.getChunk(layer, 0, 0).getVisual();
+        Geometry batch = null;
+        for (Spatial child : chunk.getChildren()) {
+            if (child instanceof Geometry && ((Geometry) child).getMaterial() == animatedTile.getMaterial()
+                    && ((Geometry) child).getMesh().getVertexCount() == 16) {
+                batch = (Geometry) child;
+            }
+        }
+        assertNotNull(batch);
+        FloatBuffer layers = batch.getMesh().getFloatBuffer(Type.TexCoord3);
+        float sum = 0;
+        for (int i = 0; i < 16; i++) {
+            sum += layers.get(i);
+        }
+        assertEquals(2 * 4 * 1f + 2 * 4 * 2f, sum);
+
+        // the animation shows the layer of frame 1, and skips frame 2 which
+        // is in the layer 0 of the other TextureArray.
+        TileAnimator animator = TileAnimator.get(map);
+        Mesh shown = ((Geometry) layer.getSpatialAt(0, 1)).getMesh();
+        assertEquals(0f, shown.getFloatBuffer(Type.TexCoord3).get(0));
+        animator.update(0.15f);
+        assertEquals(1, animator.getFrameIndex(tileset.getTile(0).getAnimations().get(0)));
+        assertEquals(1f, shown.getFloatBuffer(Type.TexCoord3).get(0));
+        animator.update(0.1f);
+        assertEquals(2, animator.getFrameIndex(tileset.getTile(0).getAnimations().get(0)));
+        assertEquals(1f, shown.getFloatBuffer(Type.TexCoord3).get(0));
+        animator.update(0.1f);
+        assertEquals(0f, shown.getFloatBuffer(Type.TexCoord3).get(0));
+
+        assetManager.clearCache();
+    }
+
+    @Test
+    public void testObjectLayerIndex() throws Exception {
+        // Arrange: 100 objects of 10x10 on a 20 pixels grid, a large one and a point
+        ObjectLayer layer = new ObjectLayer(10, 10);
+        layer.setCellSize(32);
+        for (int i = 0; i < 100; i++) {
+            ObjectNode obj = new ObjectNode(i % 10 * 20, i / 10 * 20, 10, 10);
+            obj.setId(i + 1);
+            layer.add(obj);
+        }
+        ObjectNode large = new ObjectNode(0, 0, 1000, 5);
+        large.setId(101);
+        layer.add(large);
+        ObjectNode point = new ObjectNode(75, 75, 0, 0);
+        point.setId(102);
+        layer.add(point);
+
+        // Assert: the same objects as testing all of them
+        assertEquals(1, layer.getObjectAt(5, 2).getId());
+        assertEquals(101, layer.getObjectAt(15, 2).getId());
+        assertEquals(12, layer.getObjectAt(25, 25).getId());
+        assertNull(layer.getObjectAt(15, 15));
+        assertEquals(102, layer.getObjectNear(76, 76, 1).getId());
+
+        List<ObjectNode> found = new ArrayList<ObjectNode>();
+        layer.getObjectsIn(15, 15, 30, 30, found);
+        assertEquals(4, found.size());
+        found.clear();
+        layer.getObjectsInRadius(55, 55, 8, found);
+        assertEquals(4, found.size());
+        found.clear();
+        layer.getObjectsIn(-1000, -1000, 5000, 5000, found);
+        assertEquals(102, found.size());
+
+        // Act: move and remove objects
+        ObjectNode moved = layer.get(12);
+        moved.setX(500);
+        moved.setY(500);
+        layer.remove(layer.get(1));
+
+        // Assert
+        assertNull(layer.getObjectAt(25, 25));
+        assertSame(moved, layer.getObjectAt(505, 505));
+        assertEquals(101, layer.getObjectAt(5, 2).getId());
+        found.clear();
+        layer.getObjectsAt(5, 2, found);
+        assertEquals(1, found.size());
+    }
+
+    @Test
+    public void testObjectById() throws Exception {
+        // Arrange
+        TiledMap map = (TiledMap) assetManager.loadAsset(multiple);
+
+        // Assert: objects are found in every object layer
+        ObjectNode player = map.getObjectById(5);
+        assertNotNull(player);
+        assertEquals("player", player.getName());
+        assertEquals("5", map.getObjectById(22).getName());
+        assertNull(map.getObjectById(1000));
+
+        // Act: change the id of an object, and remove one
+        ObjectLayer layer = player.getObjectGroup();
+        player.setId(1000);
+        ObjectNode obj = map.getObjectById(20);
+        obj.getObjectGroup().remove(obj);
+
+        // Assert
+        assertNull(map.getObjectById(5));
+        assertSame(player, map.getObjectById(1000));
+        assertSame(player, layer.get(1000));
+        assertNull(map.getObjectById(20));
+
+        // Act: replace an object in the list directly, the size is the same
+        ObjectNode other = new ObjectNode(0, 0, 10, 10);
+        other.setId(2000);
+        layer.getObjects().remove(player);
+        layer.getObjects().add(other);
+
+        // Assert
+        assertNull(layer.get(1000));
+        assertSame(other, layer.get(2000));
+
+        // the same with set()
+        ObjectNode third = new ObjectNode(0, 0, 10, 10);
+        third.setId(3000);
+        layer.getObjects().set(layer.getObjects().indexOf(other), third);
+        assertNull(layer.get(2000));
+        assertSame(third, layer.get(3000));
+        assertSame(third, layer.getObjectAt(5, 5));
+
+        // the cached map was changed
+        assetManager.clearCache();
+    }
+
+    @Test
+    public void testTileIndex() throws Exception {
+        // Arrange: a random flyweight layer, and the same one indexed
+        Tileset tileset = new Tileset();
+        tileset.setFirstgid(1);
+        for (int i = 0; i < 4; i++) {
+            tileset.addTile(new Tile(i * 32, 0, 32, 32));
+        }
+        TiledMap map = new TiledMap(20, 20);
+        map.addTileset(tileset);
+        TileLayer scanned = new TileLayer(20, 20, true);
+        TileLayer indexed = new TileLayer(20, 20, true);
+        scanned.setMap(map);
+        indexed.setMap(map);
+        Random random = new Random(7);
+        for (int i = 0; i < 400; i++) {
+            int gid = random.nextInt(5);
+            if (gid != 0 && random.nextBoolean()) {
+                gid |= Tile.FLIPPED_VERTICALLY_FLAG;
+            }
+            scanned.setGidAt(i % 20, i / 20, gid);
+            indexed.setGidAt(i % 20, i / 20, gid);
+        }
+        indexed.setIndexed(true);
+        Tile door = tileset.getTile(1);
+        Tile open = tileset.getTile(2);
+
+        // Act and Assert: the index finds what a scan finds
+        assertTrue(indexed.isIndexed());
+        assertEquals(scanned.locationsOf(door), indexed.locationsOf(door));
+        assertEquals(scanned.locationOf(door), indexed.locationOf(door));
+
+        int doors = indexed.locationsOf(door).size();
+        int opens = indexed.locationsOf(open).size();
+        scanned.replaceTile(door, open);
+        indexed.replaceTile(door, open);
+        assertTrue(indexed.locationsOf(door).isEmpty());
+        assertNull(indexed.locationOf(door));
+        assertEquals(doors + opens, indexed.locationsOf(open).size());
+        assertEquals(scanned.locationsOf(open), indexed.locationsOf(open));
+
+        // the cells changed one by one are moved in the index
+        indexed.setGidAt(0, 0, 2);
+        indexed.setGidAt(19, 19, 0);
+        scanned.setGidAt(0, 0, 2);
+        scanned.setGidAt(19, 19, 0);
+        assertEquals(new Point(0, 0), indexed.locationOf(door));
+        assertEquals(scanned.locationsOf(open), indexed.locationsOf(open));
+
+        // a layer with Tile objects compares the instances
+        TileLayer objects = new TileLayer(map, 4, 4);
+        objects.setIndexed(true);
+        Tile clone = door.clone();
+        objects.setTileAt(1, 1, door);
+        objects.setTileAt(2, 3, clone);
+        assertEquals(new Point(2, 3), objects.locationOf(clone));
+        objects.removeTile(door);
+        assertNull(objects.locationOf(door));
+        assertEquals(1, objects.locationsOf(clone).size());
+
+        // a default layer keeps clones of the tiles, not the prototypes
+        TileLayer plain = new TileLayer(map, 4, 4);
+        for (int i = 0; i < 16; i++) {
+            plain.setGidAt(i % 4, i / 4, 1 + i % 2);
+        }
+        assertNotSame(door, plain.getTileAt(1, 0));
+
+        // removing the tileset clears every cell
+        map.addLayer(indexed);
+        map.addLayer(objects);
+        map.addLayer(plain);
+        map.removeTileset(tileset);
+        for (int i = 0; i < 400; i++) {
+            assertEquals(0, indexed.getGidAt(i % 20, i / 20));
+        }
+        for (int i = 0; i < 16; i++) {
+            assertEquals(0, objects.getGidAt(i % 4, i / 4));
+            assertNull(objects.getTileAt(i % 4, i / 4));
+            assertEquals(0, plain.getGidAt(i % 4, i / 4));
+            assertNull(plain.getTileAt(i % 4, i / 4));
+        }
+    }
+
+    @Test
+    public void testBulkGids() throws Exception {
+        // Arrange
+        Tileset tileset = new Tileset();
+        tileset.setFirstgid(1);
+        for (int i = 0; i < 4; i++) {
+            tileset.addTile(new Tile(i * 32, 0, 32, 32));
+        }
+        TiledMap map = new TiledMap(8, 6);
+        map.addTileset(tileset);
+        TileLayer flyweight = new TileLayer(8, 6, true);
+        flyweight.setMap(map);
+        flyweight.setIndexed(true);
+        TileLayer objects = new TileLayer(map, 8, 6);
+        int[] room = {
+                1, 1, 1,
+                1, 0, 2 | Tile.FLIPPED_HORIZONTALLY_FLAG,
+                1, 1, 1 };
+
+        for (TileLayer layer : new TileLayer[] { flyweight, objects }) {
+            // Act
+            layer.fill(0, 0, 8, 6, 4);
+            layer.clearDirtyCells();
+            layer.setGids(6, 4, 3, 3, room);
+            layer.setGids(2, 1, 3, 3, room);
+            int[] read = layer.getGids(1, 0, 5, 5, null);
+
+            // Assert
+            assertEquals(4, read[0]);
+            assertEquals(1, read[1 * 5 + 1]);
+            assertEquals(0, read[2 * 5 + 2]);
+            assertEquals(2 | Tile.FLIPPED_HORIZONTALLY_FLAG, read[2 * 5 + 3]);
+            assertTrue(Arrays.equals(room, layer.getGids(2, 1, 3, 3, new int[9])));
+            assertEquals(1, layer.getGidAt(7, 4));
+            assertEquals(0, layer.getGids(7, 4, 2, 2, null)[1]);
+            int[] outside = { 5, 5, 5, 5 };
+            assertTrue(Arrays.equals(new int[4], layer.getGids(10, 0, 2, 2, outside)));
+            assertTrue(Arrays.equals(new int[4], layer.getGids(-5, 0, 2, 2, null)));
+            assertTrue(Arrays.equals(new int[4], layer.getGids(0, -5, 2, 2, null)));
+            assertEquals(2 * 2 + 3 * 3, layer.getDirtyCount());
+            assertTrue(layer.isNeedUpdateAt(4, 2));
+            assertFalse(layer.isNeedUpdateAt(5, 2));
+            assertEquals(new Point(4, 2), layer.locationOf(layer.getTileAt(4, 2)));
+        }
+        assertEquals(2 | Tile.FLIPPED_HORIZONTALLY_FLAG, objects.getTileAt(4, 2).getGid());
+        assertEquals(6 * 8 - 13, flyweight.locationsOf(tileset.getTile(3)).size());
+
+        // Act: many bulk writes while nobody asks for the changed cells
+        flyweight.clearDirtyCells();
+        for (int i = 0; i < 10000; i++) {
+            flyweight.setGids(i % 6, i / 6 % 4, 3, 3, room);
+        }
+
+        // Assert: the changed regions are kept in a small list
+        assertTrue(((int[]) field(flyweight, "dirtyRegions")).length <= 64);
+        assertEquals(8 * 6, flyweight.getDirtyCount());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testTileProperties() throws Exception {
+        // Arrange
+        ColorRGBA color = ColorRGBA.Red.clone();
+        Properties props = new Properties();
+        props.put("name", "chest");
+        props.put("gold", 25);
+        props.put("weight", "1.5");
+        props.put("locked", Boolean.TRUE);
+        props.put("color", color);
+        TileProperties chest = new TileProperties(props);
+        TileLayer layer = new TileLayer(300, 300);
+
+        // Act
+        for (int y = 0; y < 300; y++) {
+            for (int x = 0; x < 300; x++) {
+                if ((x + y) % 3 == 0) {
+                    layer.setTilePropertiesAt(x, y, chest);
+                }
+            }
+        }
+        for (int y = 0; y < 300; y += 2) {
+            for (int x = 0; x < 300; x++) {
+                layer.setTilePropertiesAt(x, y, null);
+            }
+        }
+        layer.setTilePropertiesAt(-1, 0, chest);
+
+        // Assert
+        for (int y = 0; y < 300; y++) {
+            for (int x = 0; x < 300; x++) {
+                TileProperties expected = (x + y) % 3 == 0 && y % 2 == 1 ? chest : null;
+                assertSame(expected, layer.getTilePropertiesAt(x, y));
+            }
+        }
+        assertNull(layer.getTilePropertiesAt(-1, 0));
+
+        assertEquals(5, chest.size());
+        assertEquals("color", chest.getName(0));
+        assertEquals("chest", chest.getString("name", null));
+        assertEquals(25, chest.getInt("gold", 0));
+        assertEquals(1.5f, chest.getFloat("weight", 0f), 0f);
+        assertTrue(chest.getBoolean("locked", false));
+        assertEquals(ColorRGBA.Red, chest.getColor("color", null));
+        assertSame(ColorRGBA.Blue, chest.getColor("shade", ColorRGBA.Blue));
+        assertEquals(7, chest.getInt("silver", 7));
+        assertFalse(chest.contains("silver"));
+        assertEquals(chest, new TileProperties(chest.toProperties()));
+        assertEquals(chest.toProperties(), layer.getTileInstancePropertiesAt(1, 5));
+
+        // the colors can't be changed through the properties
+        color.set(0, 0, 1, 1);
+        chest.getColor("color", null).set(0, 1, 0, 1);
+        ((ColorRGBA) chest.get("color")).set(0, 1, 0, 1);
+        ((ColorRGBA) chest.getValue(0)).set(0, 1, 0, 1);
+        assertEquals(ColorRGBA.Red, chest.getColor("color", null));
+    }
+
+    @Test
+    public void testCollisionGrid() throws Exception {
+        // Arrange: tile 1 is solid
+        Tileset tileset = new Tileset();
+        tileset.setFirstgid(1);
+        tileset.addTile(new Tile(0, 0, 32, 32));
+        Tile solid = new Tile(32, 0, 32, 32);
+        solid.setProperties(new Properties());
+        solid.getProperties().setProperty("collides", "true");
+        tileset.addTile(solid);
+
+        TiledMap map = new TiledMap(4, 3);
+        map.addTileset(tileset);
+        TileLayer layer = new TileLayer(map, 4, 3);
+        int[] gids = {
+                2, 2, 1, 2,
+                2, 2, 0, 0,
+                0, 2 | Tile.FLIPPED_HORIZONTALLY_FLAG, 2, 0 };
+        for (int i = 0; i < gids.length; i++) {
+            layer.setGidAt(i % 4, i / 4, gids[i]);
+        }
+
+        // Act
+        CollisionGrid grid = CollisionGrid.create(layer, CollisionGrid.property("collides", "true"));
+        List<Rectangle> rects = grid.getRectangles();
+
+        // Assert
+        assertEquals(7, grid.getSolidCount());
+        assertTrue(grid.isSolid(1, 2));
+        assertFalse(grid.isSolid(2, 0));
+        assertTrue(grid.isSolid(-1, 0));
+        assertEquals(3, rects.size());
+        assertEquals(new Rectangle(0, 0, 2, 2), rects.get(0));
+        assertEquals(new Rectangle(3, 0, 1, 1), rects.get(1));
+        assertEquals(new Rectangle(1, 2, 2, 1), rects.get(2));
+    }
+
+    @Test
+    public void testPathFinder() throws Exception {
+        // Arrange: a wall with a gap at the bottom
+        TiledMap map = new TiledMap(5, 5);
+        CollisionGrid grid = new CollisionGrid(5, 5);
+        for (int y = 0; y < 4; y++) {
+            grid.setSolid(2, y, true);
+        }
+        PathFinder finder = new PathFinder(map, grid, false);
+        Path path = new Path();
+
+        // Act & Assert: around the wall
+        assertTrue(finder.findPath(0, 0, 4, 0, path));
+        assertEquals(13, path.size());
+        assertEquals(12f, path.getCost(), 1e-5f);
+        assertEquals(2, path.getX(6));
+        assertEquals(4, path.getY(6));
+
+        // the same finder again, with no way through
+        grid.setSolid(2, 4, true);
+        assertFalse(finder.findPath(0, 0, 4, 0, path));
+        assertTrue(path.isEmpty());
+
+        // Assert: on staggered and hexagonal maps, the neighbours are the
+        // cells next to each other in the renderer.
+        map = new TiledMap(6, 6);
+        map.setTileWidth(32);
+        map.setTileHeight(16);
+        map.setOrientation(TiledMap.Orientation.STAGGERED);
+        grid = new CollisionGrid(6, 6);
+        for (StaggerAxis axis : StaggerAxis.values()) {
+            for (StaggerIndex index : StaggerIndex.values()) {
+                map.setStaggerAxis(axis);
+                map.setStaggerIndex(index);
+                HexagonalRenderer renderer = new HexagonalRenderer(map);
+                GridTopology topology = new GridTopology(map, false);
+                int[] neighbours = new int[topology.getMaxNeighbours()];
+                Point p = new Point();
+                for (int y = 1; y < 5; y++) {
+                    for (int x = 1; x < 5; x++) {
+                        assertEquals(4, topology.getNeighbours(grid, x, y, neighbours, null));
+                        List<Integer> list = new ArrayList<Integer>();
+                        for (int n : neighbours) {
+                            list.add(n);
+                        }
+                        renderer.topLeft(x, y, p);
+                        assertTrue(list.contains(p.y * 6 + p.x));
+                        renderer.topRight(x, y, p);
+                        assertTrue(list.contains(p.y * 6 + p.x));
+                        renderer.bottomLeft(x, y, p);
+                        assertTrue(list.contains(p.y * 6 + p.x));
+                        renderer.bottomRight(x, y, p);
+                        assertTrue(list.contains(p.y * 6 + p.x));
+                    }
+                }
+
+                // with no wall, the heuristic is the cost of the best path
+                for (Orientation orientation : new Orientation[] { Orientation.STAGGERED, Orientation.HEXAGONAL }) {
+                    for (boolean diagonal : new boolean[] { false, true }) {
+                        topology = new GridTopology(orientation, axis, index, diagonal);
+                        finder = new PathFinder(topology, grid);
+                        for (int i = 0; i < 36; i++) {
+                            assertTrue(finder.findPath(1, 2, i % 6, i / 6, path));
+                            assertEquals(topology.distance(1, 2, i % 6, i / 6), path.getCost(), 1e-4f);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFlowField() throws Exception {
+        Random random = new Random(7);
+        for (Orientation orientation : Orientation.values()) {
+            for (boolean diagonal : new boolean[] { false, true }) {
+                // Arrange: a field with two goals
+                GridTopology topology = new GridTopology(orientation, StaggerAxis.Y, StaggerIndex.ODD, diagonal);
+                FlowField field = new FlowField(topology, 12, 10);
+                field.addGoal(0, 0);
+                field.addGoal(11, 9);
+                field.setParallelism(2);
+                field.build();
+                assertEquals(0, field.getDistance(0, 0));
+                assertEquals(-1, field.getNext(11, 9));
+
+                for (int n = 0; n < 60; n++) {
+                    // Act: change a cell
+                    int x = random.nextInt(12);
+                    int y = random.nextInt(10);
+                    field.setCost(x, y, random.nextInt(4) == 0 ? FlowField.BLOCKED : 1 + random.nextInt(5));
+
+                    // Assert: the same as a field built again
+                    FlowField expected = new FlowField(topology, 12, 10);
+                    expected.addGoal(0, 0);
+                    expected.addGoal(11, 9);
+                    for (int i = 0; i < 120; i++) {
+                        expected.setCost(i % 12, i / 12, field.getCost(i % 12, i / 12));
+                    }
+                    expected.build();
+                    for (int i = 0; i < 120; i++) {
+                        int cx = i % 12, cy = i / 12;
+                        assertEquals(expected.getDistance(cx, cy), field.getDistance(cx, cy));
+                        int next = field.getNext(cx, cy);
+                        if (next >= 0) {
+                            assertTrue(field.getDistance(next % 12, next / 12) < field.getDistance(cx, cy));
+                        } else if (field.getDistance(cx, cy) != FlowField.UNREACHABLE) {
+                            assertEquals(0, field.getDistance(cx, cy));
+                        }
+                    }
+                }
+
+                // Act: build again on the same threads, and on new ones
+                int[] next = new int[120];
+                for (int i = 0; i < 120; i++) {
+                    next[i] = field.getNext(i % 12, i / 12);
+                }
+                for (int threads = 2; threads <= 3; threads++) {
+                    field.setParallelism(threads);
+                    field.build();
+
+                    // Assert
+                    for (int i = 0; i < 120; i++) {
+                        assertEquals(next[i], field.getNext(i % 12, i / 12));
+                    }
+                }
+            }
+        }
+
+        // Arrange: a field over a tile layer, tile 1 is a wall
+        Tileset tileset = new Tileset();
+        tileset.setFirstgid(1);
+        tileset.addTile(new Tile(0, 0, 32, 32));
+        TiledMap map = new TiledMap(5, 1);
+        map.addTileset(tileset);
+        TileLayer layer = new TileLayer(map, 5, 1);
+        FlowField field = new FlowField(layer, new TileCost() {
+            @Override
+            public int getCost(Tile tile) {
+                return tile == null ? 1 : FlowField.BLOCKED;
+            }
+        }, false);
+        field.addGoal(4, 0);
+        field.build();
+        assertEquals(40, field.getDistance(0, 0));
+        assertEquals(1, field.getNext(0, 0));
+
+        // Act: a wall is put on the layer
+        layer.setGidAt(2, 0, 1);
+        field.refresh();
+
+        // Assert
+        assertEquals(FlowField.UNREACHABLE, field.getDistance(0, 0));
+        assertEquals(-1, field.getNext(0, 0));
+    }
+
+    @Test
+    public void testFieldOfView() throws Exception {
+        // Arrange: a wall in the middle of an orthogonal map
+        TiledMap map = new TiledMap(9, 9);
+        CollisionGrid grid = new CollisionGrid(9, 9);
+        for (int y = 2; y < 7; y++) {
+            grid.setSolid(5, y, true);
+        }
+        FieldOfView fov = new FieldOfView(map, grid);
+        BitSet visible = new BitSet();
+
+        // Act
+        fov.compute(2, 4, 10, visible);
+
+        // Assert
+        assertTrue(visible.get(4 * 9 + 2));
+        assertTrue(visible.get(4 * 9 + 5));
+        assertFalse(visible.get(4 * 9 + 6));
+        assertFalse(visible.get(4 * 9 + 8));
+        assertFalse(visible.get(0 * 9 + 8));
+        assertTrue(visible.get(0 * 9 + 5));
+        assertTrue(fov.isVisible(2, 4, 5, 4));
+        assertFalse(fov.isVisible(2, 4, 8, 4));
+        Point hit = new Point();
+        assertTrue(fov.raycast(2, 4, 8, 4, hit));
+        assertEquals(new Point(5, 4), hit);
+        assertFalse(fov.raycast(2, 4, 5, 0, hit));
+
+        // Assert: on staggered and hexagonal maps, a wall next to the eye
+        // hides the cell behind it.
+        for (Orientation orientation : new Orientation[] { Orientation.STAGGERED, Orientation.HEXAGONAL }) {
+            for (StaggerAxis axis : StaggerAxis.values()) {
+                for (StaggerIndex index : StaggerIndex.values()) {
+                    map.setOrientation(orientation);
+                    map.setTileWidth(32);
+                    map.setTileHeight(32);
+                    map.setStaggerAxis(axis);
+                    map.setStaggerIndex(index);
+                    HexagonalRenderer renderer = new HexagonalRenderer(map);
+                    grid = new CollisionGrid(9, 9);
+                    fov = new FieldOfView(map, grid);
+
+                    // nothing hidden
+                    fov.compute(4, 4, 20, visible);
+                    assertEquals(81, visible.cardinality());
+
+                    Point wall = renderer.topRight(4, 4, new Point());
+                    Point behind = renderer.topRight(wall.x, wall.y, new Point());
+                    grid.setSolid(wall.x, wall.y, true);
+                    fov.compute(4, 4, 20, visible);
+                    assertTrue(visible.get(wall.y * 9 + wall.x));
+                    assertFalse(visible.get(behind.y * 9 + behind.x));
+                    assertTrue(fov.raycast(4, 4, behind.x, behind.y, hit));
+                    assertEquals(wall, hit);
+                    Point other = renderer.bottomLeft(4, 4, new Point());
+                    assertTrue(fov.isVisible(4, 4, other.x, other.y));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a private field of an object.
+     */
+    static Object field(Object obj, String name) throws Exception {
+        Field field = obj.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(obj);
+    }
+
+    /**
+     * The gids as little-endian ints, as in the base64 layer data.
+     */
+    static byte[] toBytes(int[] gids) {
+        ByteBuffer buffer = ByteBuffer.allocate(gids.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(gids);
+        return buffer.array();
+    }
+
+    /**
+     * A gzip member with the FNAME flag, GZIPOutputStream never writes one.
+     */
+    static byte[] gzip(byte[] data, String name) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(new byte[] { 0x1f, (byte) 0x8b, 8, 8, 0, 0, 0, 0, 0, (byte) 0xff });
+        buffer.write(name.getBytes("ISO-8859-1"));
+        buffer.write(0);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] chunk = new byte[256];
+        while (!deflater.finished()) {
+            buffer.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) crc.getValue()).putInt(data.length);
+        buffer.write(trailer.array());
+        return buffer.toByteArray();
+    }
+
+    static int countGeometries(Spatial spatial) {
+        final int[] count = new int[1];
+        spatial.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    static void assertSameMap(TiledMap expected, TiledMap actual) {
+        assertEquals(expected.getOrientation(), actual.getOrientation());
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getTileSets().size(), actual.getTileSets().size());
+        assertEquals(expected.getLayerCount(), actual.getLayerCount());
+        for (int i = 0; i < expected.getLayerCount(); i++) {
+            Layer a = expected.getLayer(i);
+            Layer b = actual.getLayer(i);
+            assertEquals(a.getClass(), b.getClass());
+            assertEquals(a.getName(), b.getName());
+            if (a instanceof TileLayer) {
+                TileLayer ta = (TileLayer) a;
+                TileLayer tb = (TileLayer) b;
+                for (int y = 0; y < ta.getHeight(); y++) {
+                    for (int x = 0; x < ta.getWidth(); x++) {
+                        Tile t1 = ta.getTileAt(x, y);
+                        Tile t2 = tb.getTileAt(x, y);
+                        assertEquals(t1 == null, t2 == null);
+                        if (t1 != null) {
+                            assertEquals(t1.getGid(), t2.getGid());
+                        }
+                    }
+                }
+            } else if (a instanceof ObjectLayer) {
+                assertEquals(((ObjectLayer) a).getObjects().size(),
+                        ((ObjectLayer) b).getObjects().size());
+            }
+        }
+    }
+}